@@ -97,6 +97,14 @@ android {
         abortOnError = false
         checkReleaseBuilds = false
     }
+    testOptions {
+        unitTests.all { test ->
+            // Opt-in benchmarks among the unit tests, eg: -PlanBenchmark -PlanBenchmark.packets=50000
+            providers.gradlePropertiesPrefixedBy("lanBenchmark").get().forEach { (name, value) ->
+                test.systemProperty(name, value)
+            }
+        }
+    }
 }
 
 /**
@@ -213,10 +221,6 @@ abstract class FixCollectionsClassVisitorFactory :
     interface Params : InstrumentationParameters
 }
 
-ksp {
-    arg("com.albertvaka.classindexksp.annotations", "org.kde.kdeconnect.plugins.PluginFactory.LoadablePlugin")
-}
-
 androidComponents {
     onVariants { variant ->
         variant.instrumentation.transformClassesWith(
@@ -294,7 +298,7 @@ dependencies {
 
     implementation(libs.bcpkix.jdk15on) //For SSL certificate generation
 
-    ksp(libs.classindexksp)
+    ksp(project(":plugin-registry-processor")) // Generates GeneratedPluginRegistry
 
     // The android-smsmms library is the only way I know to handle MMS in Android
     // (Shouldn't a phone OS make phone things easy?)
@@ -323,6 +327,10 @@ dependencies {
     testImplementation(libs.robolectric)
     testImplementation(libs.androidx.junit)
 
+    // Benchmarks, see the "benchmark" task
+    testImplementation(libs.jmh.core)
+    testAnnotationProcessor(libs.jmh.generator.annprocess)
+
     // For device controls
     implementation(libs.reactive.streams)
     implementation(libs.rxjava)
@@ -351,3 +359,23 @@ tasks.named("generateLicenseReport") {
 tasks.named("preBuild") {
     dependsOn("generateLicenseReport")
 }
+
+/**
+ * Runs the JMH benchmarks in src/test/java/org/kde/kdeconnect/benchmarks on the JVM, with the same classpath
+ * as the unit tests, and writes the results to build/reports/jmh/results.json. Scores depend on the machine,
+ * so there are no checked in results to compare with: run it before and after the change you measure.
+ *
+ * -Pjmh.include=<regex> runs only the benchmarks that match, eg: -Pjmh.include=NetworkPacket
+ */
+tasks.register<JavaExec>("benchmark") {
+    group = "verification"
+    description = "Runs the JMH benchmarks"
+    dependsOn("compileDebugUnitTestJavaWithJavac")
+    classpath = files(provider { tasks.named<Test>("testDebugUnitTest").get().classpath })
+    mainClass = "org.openjdk.jmh.Main"
+    val results = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    args(listOfNotNull(providers.gradleProperty("jmh.include").orNull) + listOf("-rf", "json", "-rff", results.absolutePath))
+    doFirst {
+        results.parentFile.mkdirs()
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.processor
+
+import com.google.devtools.ksp.isAbstract
+import com.google.devtools.ksp.processing.CodeGenerator
+import com.google.devtools.ksp.processing.Dependencies
+import com.google.devtools.ksp.processing.KSPLogger
+import com.google.devtools.ksp.processing.Resolver
+import com.google.devtools.ksp.processing.SymbolProcessor
+import com.google.devtools.ksp.processing.SymbolProcessorEnvironment
+import com.google.devtools.ksp.processing.SymbolProcessorProvider
+import com.google.devtools.ksp.symbol.ClassKind
+import com.google.devtools.ksp.symbol.KSAnnotated
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+
+/**
+ * Generates GeneratedPluginRegistry, with the key of every class annotated with PluginFactory.LoadablePlugin and
+ * a lambda that calls its constructor, so PluginFactory can create plugins without reflection.
+ */
+class PluginRegistryProcessor(private val codeGenerator: CodeGenerator, private val logger: KSPLogger) : SymbolProcessor {
+
+    class Provider : SymbolProcessorProvider {
+        override fun create(environment: SymbolProcessorEnvironment): SymbolProcessor =
+            PluginRegistryProcessor(environment.codeGenerator, environment.logger)
+    }
+
+    private val plugins = mutableListOf<KSClassDeclaration>()
+
+    override fun process(resolver: Resolver): List<KSAnnotated> {
+        for (symbol in resolver.getSymbolsWithAnnotation(ANNOTATION)) {
+            if (symbol !is KSClassDeclaration || symbol.classKind != ClassKind.CLASS || symbol.isAbstract()) {
+                logger.error("Only concrete classes can be annotated with LoadablePlugin", symbol)
+                continue
+            }
+            // Java classes without constructors have an implicit one without parameters
+            val constructors = symbol.getConstructors().toList()
+            if (constructors.isNotEmpty() && constructors.none { c -> c.parameters.all { it.hasDefault } }) {
+                logger.error("Plugins need a constructor without parameters", symbol)
+                continue
+            }
+            plugins.add(symbol)
+        }
+        return emptyList()
+    }
+
+    override fun finish() {
+        if (plugins.isEmpty()) {
+            return
+        }
+        // Sorted, so the generated file doesn't change unless the plugins do
+        val sorted = plugins.sortedBy { it.qualifiedName!!.asString() }
+        val sources = sorted.mapNotNull { it.containingFile }.toTypedArray()
+        codeGenerator.createNewFile(Dependencies(true, *sources), PACKAGE, CLASS_NAME).bufferedWriter().use { out ->
+            out.write("package $PACKAGE\n\n")
+            out.write("internal object $CLASS_NAME {\n")
+            out.write("    val plugins: List<PluginFactory.PluginRegistration> = listOf(\n")
+            for (plugin in sorted) {
+                // Same key as Plugin.getPluginKey()
+                out.write("        PluginFactory.PluginRegistration(\"${plugin.simpleName.asString()}\") { ${plugin.qualifiedName!!.asString()}() },\n")
+            }
+            out.write("    )\n")
+            out.write("}\n")
+        }
+    }
+
+    companion object {
+        private const val ANNOTATION = "org.kde.kdeconnect.plugins.PluginFactory.LoadablePlugin"
+        private const val PACKAGE = "org.kde.kdeconnect.plugins"
+        private const val CLASS_NAME = "GeneratedPluginRegistry"
+    }
+}
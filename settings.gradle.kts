@@ -30,3 +30,4 @@ buildscript {
 }
 
 rootProject.name = "kdeconnect-android"
+include(":plugin-registry-processor")
@@ -0,0 +1,96 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.os.Looper
+import android.util.Log
+import java.util.EnumMap
+import java.util.concurrent.CountDownLatch
+
+/**
+ * The parts of the initialization of the app that [KdeConnect.onCreate] leaves running in the background, so
+ * they don't delay the first frame. Each phase runs on its own thread once the phases it depends on are done.
+ *
+ * Whatever a phase initializes calls [await] before being used, which returns right away once the phase is
+ * done, or if it was never started (eg: in tests, which call the initialization functions directly). The
+ * time each phase takes, and the time the main thread spends waiting for them, go to [TransportMetrics].
+ */
+object AppStartup {
+    enum class Phase(val metricName: String, vararg val dependsOn: Phase) {
+        /** Our keys and certificate, generating them the first time */
+        CERTIFICATE("startup.certificate"),
+        /** The metadata of every plugin */
+        PLUGIN_INFO("startup.pluginInfo"),
+        /** The devices we trust, which need to know what plugins there are */
+        REMEMBERED_DEVICES("startup.rememberedDevices", PLUGIN_INFO),
+    }
+
+    private class State {
+        val done = CountDownLatch(1)
+
+        @Volatile
+        var started = false
+    }
+
+    private val states = EnumMap<Phase, State>(Phase::class.java).apply {
+        Phase.entries.forEach { put(it, State()) }
+    }
+
+    private val currentPhase = ThreadLocal<Phase?>()
+
+    private val mainThreadWait = TransportMetrics.histogram("startup.mainThreadWait")
+
+    /**
+     * Runs block on a background thread as phase, once the phases it depends on are done
+     */
+    fun start(phase: Phase, block: () -> Unit) {
+        val state = states.getValue(phase)
+        check(!state.started) { "Startup phase $phase already started" }
+        state.started = true
+        val queued = System.nanoTime()
+        val runnable = Runnable {
+            phase.dependsOn.forEach(::await)
+            val started = System.nanoTime()
+            currentPhase.set(phase)
+            try {
+                block()
+            } finally {
+                currentPhase.set(null)
+                val finished = System.nanoTime()
+                TransportMetrics.histogram(phase.metricName).recordNanos(finished - started)
+                Log.i("AppStartup", "$phase took ${(finished - started) / 1_000_000}ms, after waiting ${(started - queued) / 1_000_000}ms")
+                state.done.countDown()
+            }
+        }
+        // Its own thread instead of a pool, so it can't wait in a queue behind work that needs it done
+        Thread(runnable, "Startup-${phase.name}").start()
+    }
+
+    fun isReady(phase: Phase): Boolean {
+        val state = states.getValue(phase)
+        return !state.started || state.done.count == 0L
+    }
+
+    /**
+     * Blocks until phase is done. Returns right away if it is, or if it was never started.
+     */
+    @JvmStatic
+    fun await(phase: Phase) {
+        if (isReady(phase)) {
+            return
+        }
+        if (currentPhase.get() == phase) {
+            return // The phase itself, using what it already initialized
+        }
+        val started = System.nanoTime()
+        states.getValue(phase).done.await()
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            val waited = System.nanoTime() - started
+            mainThreadWait.recordNanos(waited)
+            Log.w("AppStartup", "The main thread waited ${waited / 1_000_000}ms for $phase", Exception())
+        }
+    }
+}
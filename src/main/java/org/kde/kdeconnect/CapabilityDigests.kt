@@ -0,0 +1,79 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import java.security.MessageDigest
+
+/**
+ * Identity packets carry a "capabilitiesDigest" that identifies their incoming and outgoing capabilities.
+ * We keep the capabilities we have seen indexed by digest, so we can avoid parsing (or even receiving)
+ * the full lists again for a device whose capabilities didn't change:
+ *
+ * - When sending a targeted identity packet we include the digest we have cached for the target device
+ *   as "targetCapabilitiesDigest".
+ * - If a device receives a "targetCapabilitiesDigest" that matches its own digest, it can omit the
+ *   capability lists from the identity packets it sends back.
+ */
+object CapabilityDigests {
+
+    private const val MAX_CACHED_DIGESTS = 32
+
+    private data class Capabilities(val incoming: Set<String>, val outgoing: Set<String>)
+
+    private val capabilitiesByDigest = object : LinkedHashMap<String, Capabilities>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Capabilities>?): Boolean =
+            size > MAX_CACHED_DIGESTS
+    }
+
+    private val digestByDeviceId = HashMap<String, String>()
+
+    @JvmStatic
+    fun digest(incoming: Set<String>, outgoing: Set<String>): String {
+        val md = MessageDigest.getInstance("SHA-256")
+        incoming.sorted().forEach { md.update("in:$it\n".toByteArray(Charsets.UTF_8)) }
+        outgoing.sorted().forEach { md.update("out:$it\n".toByteArray(Charsets.UTF_8)) }
+        return md.digest().take(16).joinToString("") { "%02x".format(it) }
+    }
+
+    /**
+     * Caches the capabilities of a device and returns their digest
+     */
+    @JvmStatic
+    fun remember(deviceId: String, incoming: Set<String>, outgoing: Set<String>): String {
+        val digest = digest(incoming, outgoing)
+        synchronized(this) {
+            capabilitiesByDigest[digest] = Capabilities(incoming, outgoing)
+            digestByDeviceId[deviceId] = digest
+        }
+        return digest
+    }
+
+    /**
+     * Returns the cached capabilities for a digest, as a pair of incoming and outgoing capabilities.
+     */
+    @JvmStatic
+    fun lookup(deviceId: String, digest: String): Pair<Set<String>, Set<String>>? = synchronized(this) {
+        val capabilities = capabilitiesByDigest[digest] ?: return null
+        digestByDeviceId[deviceId] = digest
+        Pair(capabilities.incoming, capabilities.outgoing)
+    }
+
+    /**
+     * Returns the digest of the last capabilities we have seen from a device, if we still have them cached.
+     */
+    @JvmStatic
+    fun cachedDigestForDevice(deviceId: String): String? = synchronized(this) {
+        digestByDeviceId[deviceId]?.takeIf { capabilitiesByDigest.containsKey(it) }
+    }
+
+    /**
+     * Returns whether we have the capabilities a digest refers to cached.
+     */
+    @JvmStatic
+    fun isCached(digest: String?): Boolean = digest != null && synchronized(this) {
+        capabilitiesByDigest.containsKey(digest)
+    }
+}
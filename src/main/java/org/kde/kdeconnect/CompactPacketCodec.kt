@@ -0,0 +1,130 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import org.json.JSONObject
+
+/**
+ * A compact encoding for small packets we send many times per second (eg: mouse movements), so we don't
+ * have to build and parse JSON for each of them. Only used with devices that list CAPABILITY in their
+ * incoming capabilities, otherwise (and for packets that don't fit a schema) we send JSON as usual.
+ *
+ * A compact packet is a line like JSON ones, so it goes through the same links and readers:
+ * MARKER, the id of the schema and then for each field in the body SEPARATOR, the index of the field in the
+ * schema (as 'a' + index) and its value as text. Eg: a mouse movement is "\u0001m\u001Fa12.5\u001Fb-3.0\n".
+ */
+object CompactPacketCodec {
+
+    /**
+     * Bump the version when the schemas change, fields can't be added or reordered in an existing one
+     */
+    const val CAPABILITY = "kdeconnect.codec.compact.1"
+
+    private const val MARKER = '\u0001'
+    private const val SEPARATOR = '\u001F'
+
+    private enum class Kind { BOOLEAN, INT, DOUBLE, STRING }
+
+    private class Field(val name: String, val kind: Kind)
+
+    private class Schema(val id: Char, val type: String, vararg val fields: Field) {
+        val indexByName: Map<String, Int> = fields.withIndex().associate { (index, field) -> Pair(field.name, index) }
+    }
+
+    private val schemas = listOf(
+        Schema('m', "kdeconnect.mousepad.request",
+            Field("dx", Kind.DOUBLE),
+            Field("dy", Kind.DOUBLE),
+            Field("scroll", Kind.BOOLEAN),
+            Field("singleclick", Kind.BOOLEAN),
+            Field("doubleclick", Kind.BOOLEAN),
+            Field("middleclick", Kind.BOOLEAN),
+            Field("rightclick", Kind.BOOLEAN),
+            Field("singlehold", Kind.BOOLEAN),
+            Field("singlerelease", Kind.BOOLEAN),
+            Field("specialKey", Kind.INT),
+            Field("key", Kind.STRING),
+            Field("alt", Kind.BOOLEAN),
+            Field("ctrl", Kind.BOOLEAN),
+            Field("shift", Kind.BOOLEAN),
+            Field("super", Kind.BOOLEAN),
+        ),
+        Schema('p', "kdeconnect.presenter",
+            Field("dx", Kind.DOUBLE),
+            Field("dy", Kind.DOUBLE),
+            Field("stop", Kind.BOOLEAN),
+        ),
+        Schema('d', "kdeconnect.digitizer",
+            Field("active", Kind.BOOLEAN),
+            Field("touching", Kind.BOOLEAN),
+            Field("tool", Kind.STRING),
+            Field("x", Kind.INT),
+            Field("y", Kind.INT),
+            Field("pressure", Kind.DOUBLE),
+        ),
+    )
+
+    private val schemasByType = schemas.associateBy { it.type }
+    private val schemasById = schemas.associateBy { it.id }
+
+    fun isSupportedBy(deviceInfo: DeviceInfo?): Boolean =
+        deviceInfo?.incomingCapabilities?.contains(CAPABILITY) == true
+
+    fun isCompact(line: String): Boolean = line.isNotEmpty() && line[0] == MARKER
+
+    /**
+     * Returns null if the packet doesn't fit any schema and has to be sent as JSON
+     */
+    fun encode(type: String, body: JSONObject): String? {
+        val schema = schemasByType[type] ?: return null
+        val sb = StringBuilder(32)
+        sb.append(MARKER).append(schema.id)
+        for (name in body.keys()) {
+            val index = schema.indexByName[name] ?: return null
+            val value = body.get(name)
+            val text = when (schema.fields[index].kind) {
+                Kind.BOOLEAN -> (value as? Boolean ?: return null).let { if (it) "1" else "0" }
+                Kind.INT -> (value as? Int ?: return null).toString()
+                Kind.DOUBLE -> (value as? Number ?: return null).toDouble().toString()
+                Kind.STRING -> (value as? String ?: return null).takeIf { s -> s.none { it < ' ' } } ?: return null
+            }
+            sb.append(SEPARATOR).append('a' + index).append(text)
+        }
+        return sb.append('\n').toString()
+    }
+
+    /**
+     * Returns the type and body of a packet encoded with encode()
+     */
+    fun decode(line: String): Pair<String, JSONObject> {
+        val end = if (line.endsWith('\n')) line.length - 1 else line.length
+        if (end < 2 || line[0] != MARKER) {
+            throw IllegalArgumentException("Not a compact packet")
+        }
+        val schema = schemasById[line[1]] ?: throw IllegalArgumentException("Unknown compact packet schema: ${line[1]}")
+        val body = JSONObject()
+        var start = 2
+        while (start < end) {
+            if (line[start] != SEPARATOR || start + 1 >= end) {
+                throw IllegalArgumentException("Malformed compact packet")
+            }
+            val field = schema.fields.getOrNull(line[start + 1] - 'a') ?: throw IllegalArgumentException("Unknown field in compact packet")
+            var next = line.indexOf(SEPARATOR, start + 2)
+            if (next < 0 || next > end) {
+                next = end
+            }
+            val text = line.substring(start + 2, next)
+            when (field.kind) {
+                Kind.BOOLEAN -> body.put(field.name, text == "1")
+                Kind.INT -> body.put(field.name, text.toInt())
+                Kind.DOUBLE -> body.put(field.name, text.toDouble())
+                Kind.STRING -> body.put(field.name, text)
+            }
+            start = next
+        }
+        return Pair(schema.type, body)
+    }
+}
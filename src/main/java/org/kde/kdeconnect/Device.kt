@@ -30,11 +30,14 @@ import org.apache.commons.collections4.MultiValuedMap
 import org.apache.commons.collections4.multimap.ArrayListValuedHashMap
 import org.kde.kdeconnect.backends.BaseLink
 import org.kde.kdeconnect.backends.BaseLink.PacketReceiver
+import org.kde.kdeconnect.backends.LinkHealth
 import org.kde.kdeconnect.DeviceInfo.Companion.loadFromSettings
 import org.kde.kdeconnect.DeviceStats.countReceived
 import org.kde.kdeconnect.DeviceStats.countSent
 import org.kde.kdeconnect.helpers.DeviceHelper
 import org.kde.kdeconnect.helpers.NotificationHelper
+import org.kde.kdeconnect.helpers.SerialExecutor
+import org.kde.kdeconnect.helpers.ThreadHelper
 import org.kde.kdeconnect.helpers.TrustedDevices
 import org.kde.kdeconnect.PairingHandler.PairingCallback
 import org.kde.kdeconnect.plugins.Plugin
@@ -44,14 +47,31 @@ import org.kde.kdeconnect.ui.MainActivity
 import org.kde.kdeconnect_tp.R
 import java.io.IOException
 import java.security.cert.Certificate
+import java.util.Collections
 import java.util.Vector
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 class Device : PacketReceiver {
 
-    data class NetworkPacketWithCallback(val np : NetworkPacket, val callback: SendPacketStatusCallback)
+    private sealed interface QueuedSend {
+        val queuedAtNanos: Long
+
+        data class Packet(val np: NetworkPacket, val callback: SendPacketStatusCallback) : QueuedSend {
+            override val queuedAtNanos = System.nanoTime()
+        }
+
+        data class State(val key: String) : QueuedSend {
+            override val queuedAtNanos = System.nanoTime()
+        }
+    }
+
+    private class PublishedState(val np: NetworkPacket, val replayOnReconnect: Boolean)
 
     val context: Context
 
@@ -97,10 +117,45 @@ class Device : PacketReceiver {
      */
     private var pluginsByIncomingInterface: MultiValuedMap<String, String> = ArrayListValuedHashMap()
 
+    /**
+     * Enabled plugins that are created on demand (see [Plugin.isCreatedOnDemand]) and haven't been needed yet.
+     * They are already in pluginsByIncomingInterface, but not in loadedPlugins.
+     */
+    private val deferredPlugins: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Held while a plugin is created or removed, see [pluginLock]. Indexed by plugin key.
+     */
+    private val pluginLocks: ConcurrentMap<String, Any> = ConcurrentHashMap()
+
+    /**
+     * How many screens that list every plugin are shown, see [setAllPluginsShown]. No plugin is deferred while any is.
+     */
+    private val allPluginsShown = AtomicInteger()
+
+    /**
+     * Each plugin gets the packets it receives delivered in order on its own queue, so a slow plugin
+     * doesn't hold back the packets for the others. Indexed by plugin key.
+     */
+    private val pluginMailboxes = ConcurrentHashMap<String, SerialExecutor>()
+
+    private val stripedPayloads = StripedPayloads(this)
+
     private val pairingCallbacks = CopyOnWriteArrayList<PairingCallback>()
     private val pluginsChangedListeners = CopyOnWriteArrayList<PluginsChangedListener>()
 
-    private val sendChannel = Channel<NetworkPacketWithCallback>(Channel.UNLIMITED)
+    private val sendChannel = Channel<QueuedSend>(Channel.UNLIMITED)
+    private val queuedSends = AtomicInteger()
+
+    /**
+     * Latest value published for each state, see publishState. Indexed by "<plugin key>/<state key>".
+     */
+    private val publishedState = ConcurrentHashMap<String, PublishedState>()
+
+    /**
+     * States that have a QueuedSend.State in sendChannel
+     */
+    private val pendingStateKeys: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
     private var sendCoroutine : Job? = null
 
     /**
@@ -316,8 +371,17 @@ class Device : PacketReceiver {
         synchronized(sendChannel) {
             if (sendCoroutine == null) {
                 sendCoroutine = CoroutineScope(Dispatchers.IO).launch {
-                    for ((np, callback) in sendChannel) {
-                        sendPacketBlocking(np, callback)
+                    for (queued in sendChannel) {
+                        queuedSends.decrementAndGet()
+                        sendQueueWait.recordNanos(System.nanoTime() - queued.queuedAtNanos)
+                        when (queued) {
+                            is QueuedSend.Packet -> {
+                                PacketTracer.stamp(queued.np, PacketTracer.Stage.DEQUEUED)
+                                sendPacketBlocking(queued.np, queued.callback)
+                                queued.np.recycle()
+                            }
+                            is QueuedSend.State -> sendPublishedState(queued.key)
+                        }
                     }
                 }
             }
@@ -347,6 +411,10 @@ class Device : PacketReceiver {
         if (hasChanges || links.size == 1) {
             reloadPluginsFromSettings()
         }
+
+        if (links.size == 1) {
+            replayPublishedState()
+        }
     }
 
     @WorkerThread
@@ -360,6 +428,7 @@ class Device : PacketReceiver {
             "removeLink: ${link.linkProvider.name} -> $name active links: ${links.size}"
         )
         if (links.isEmpty()) {
+            stripedPayloads.onDisconnected()
             reloadPluginsFromSettings()
             synchronized(sendChannel) {
                 sendCoroutine?.cancel(CancellationException("Device disconnected"))
@@ -384,7 +453,9 @@ class Device : PacketReceiver {
         val oldOutgoingCapabilities = deviceInfo.outgoingCapabilities
         val newIncomingCapabilities = newDeviceInfo.incomingCapabilities
         val newOutgoingCapabilities = newDeviceInfo.outgoingCapabilities
+        val sameCapabilities = newDeviceInfo.capabilitiesDigest != null && newDeviceInfo.capabilitiesDigest == deviceInfo.capabilitiesDigest
         if (
+            !sameCapabilities &&
             !newIncomingCapabilities.isNullOrEmpty() &&
             !newOutgoingCapabilities.isNullOrEmpty() &&
             (
@@ -396,23 +467,35 @@ class Device : PacketReceiver {
             Log.i("updateDeviceInfo", "Updating supported plugins according to new capabilities")
             deviceInfo.outgoingCapabilities = newOutgoingCapabilities
             deviceInfo.incomingCapabilities = newIncomingCapabilities
+            deviceInfo.capabilitiesDigest = newDeviceInfo.capabilitiesDigest
             supportedPlugins = Vector(
                 PluginFactory.pluginsForCapabilities(
                     newIncomingCapabilities,
                     newOutgoingCapabilities
                 )
             )
+        } else if (
+            newDeviceInfo.capabilitiesDigest != null &&
+            oldIncomingCapabilities == newIncomingCapabilities &&
+            oldOutgoingCapabilities == newOutgoingCapabilities
+        ) {
+            // Nothing changes for the plugins, but it's the digest we'll send back in targeted identity packets
+            deviceInfo.capabilitiesDigest = newDeviceInfo.capabilitiesDigest
         }
 
         return hasChanges
     }
 
     override fun onPacketReceived(np: NetworkPacket) {
+        PacketCapture.record(deviceId, np, incoming = true)
         countReceived(deviceId, np.type)
+        TransportMetrics.countPacketReceived(np.type)
 
         if (NetworkPacket.PACKET_TYPE_PAIR == np.type) {
             Log.i("KDE/Device", "Pair packet")
             pairingHandler.packetReceived(np)
+            PacketTracer.stamp(np, PacketTracer.Stage.HANDLED)
+            PacketTracer.finish(np)
             return
         }
 
@@ -433,32 +516,90 @@ class Device : PacketReceiver {
         // The following code when `isPaired == false` is NOT USED.
         // It adds support for receiving packets from not trusted devices,
         // but as of March 2023 no plugin implements "onUnpairedDevicePacketReceived".
+        if (isPaired && stripedPayloads.onPacketReceived(np)) {
+            // A stripe of a payload, or its acknowledgement, which no plugin gets
+            PacketTracer.stamp(np, PacketTracer.Stage.HANDLED)
+            PacketTracer.finish(np)
+            return
+        }
+
         notifyPluginPacketReceived(np)
     }
 
     private fun notifyPluginPacketReceived(np: NetworkPacket) {
+        PacketTracer.stamp(np, PacketTracer.Stage.DISPATCHED)
         val targetPlugins = pluginsByIncomingInterface[np.type] // Returns an empty collection if the key doesn't exist
         if (targetPlugins.isEmpty()) {
             Log.w("Device", "Ignoring packet with type ${np.type} because no plugin can handle it")
+            PacketTracer.finish(np, failed = true)
 
             // If there is a payload close it to not leak sockets
             np.payload?.close()
             return
         }
-        targetPlugins
-            .asSequence()
-            .mapNotNull { loadedPlugins[it] }
-            .forEach { plugin ->
-                runCatching {
-                    if (isPaired) {
-                        plugin.onPacketReceived(np)
-                    } else {
-                        plugin.onUnpairedDevicePacketReceived(np)
-                    }
-                }.onFailure { e ->
-                    Log.e("Device", "Exception in ${plugin.pluginKey}'s onPacketReceived()", e)
+        val plugins = targetPlugins.mapNotNull { loadedPlugins[it] ?: loadDeferredPlugin(it) }
+        if (plugins.isEmpty()) {
+            Log.w("Device", "Ignoring packet with type ${np.type} because the plugins that can handle it aren't loaded")
+            PacketTracer.finish(np, failed = true)
+            np.payload?.close()
+            return
+        }
+        val paired = isPaired
+        plugins.forEach { plugin ->
+            if (np.type in plugin.inlinePacketTypes) {
+                deliverPacketToPlugin(plugin, np, paired)
+                return@forEach
+            }
+            // PACKET_DELIVERY starts extra threads instead of queueing when all of them are busy, so a slow
+            // plugin can't hold back the others and we never have to drop what we received
+            val mailbox = pluginMailboxes.computeIfAbsent(plugin.pluginKey) {
+                SerialExecutor(ThreadHelper.executor(ThreadHelper.Pool.PACKET_DELIVERY))
+            }
+            mailbox.execute {
+                // The plugin could have been unloaded while the packet was waiting
+                if (loadedPlugins[plugin.pluginKey] === plugin) {
+                    deliverPacketToPlugin(plugin, np, paired)
+                } else {
+                    Log.w("Device", "Dropping packet of type ${np.type} for unloaded plugin ${plugin.pluginKey}")
+                    PacketTracer.finish(np, failed = true)
+                    np.payload?.close()
                 }
             }
+        }
+    }
+
+    /**
+     * Waits until the plugins have handled the packets received so far
+     *
+     * @return false if it timed out
+     */
+    @WorkerThread
+    internal fun awaitPluginMailboxes(timeoutMillis: Long): Boolean {
+        val mailboxes = pluginMailboxes.values.toList()
+        val drained = CountDownLatch(mailboxes.size)
+        mailboxes.forEach { mailbox ->
+            try {
+                mailbox.execute(drained::countDown)
+            } catch (e: RejectedExecutionException) {
+                drained.countDown() // Nothing can be waiting in a mailbox that doesn't run
+            }
+        }
+        return drained.await(timeoutMillis, TimeUnit.MILLISECONDS)
+    }
+
+    private fun deliverPacketToPlugin(plugin: Plugin, np: NetworkPacket, paired: Boolean) {
+        runCatching {
+            if (paired) {
+                plugin.onPacketReceived(np)
+            } else {
+                plugin.onUnpairedDevicePacketReceived(np)
+            }
+        }.onFailure { e ->
+            Log.e("Device", "Exception in ${plugin.pluginKey}'s onPacketReceived()", e)
+        }.also { result ->
+            PacketTracer.stamp(np, PacketTracer.Stage.HANDLED)
+            PacketTracer.finish(np, failed = result.isFailure)
+        }
     }
 
     abstract class SendPacketStatusCallback {
@@ -479,18 +620,80 @@ class Device : PacketReceiver {
     }
 
     /**
-     * Send a packet to the device asynchronously
+     * Send a packet to the device asynchronously. If the packet was obtained from a [NetworkPacket.Pool],
+     * it's given back to it once it has been sent.
      * @param np The packet
      * @param callback A callback for success/failure
      */
     @AnyThread
     fun sendPacket(np: NetworkPacket, callback: SendPacketStatusCallback) {
-        sendChannel.trySend(NetworkPacketWithCallback(np, callback))
+        PacketTracer.stamp(np, PacketTracer.Stage.ENQUEUED)
+        enqueue(QueuedSend.Packet(np, callback))
     }
 
     @AnyThread
     fun sendPacket(np: NetworkPacket) = sendPacket(np, defaultCallback)
 
+    private fun enqueue(queued: QueuedSend) {
+        // Counted before sending, so it's already counted when it's taken from the channel
+        queuedSends.incrementAndGet()
+        if (!sendChannel.trySend(queued).isSuccess) {
+            queuedSends.decrementAndGet()
+        }
+    }
+
+    /**
+     * Packets and states waiting to be sent
+     */
+    val sendQueueDepth: Int
+        get() = queuedSends.get()
+
+    internal val connectedLinks: List<BaseLink>
+        get() = links
+
+    /**
+     * Send a packet with the current value of some state to the device asynchronously. If the previous
+     * value for the same key hasn't been sent yet, only the newest one will be.
+     * Plugins should use Plugin.publishState instead, which prefixes the key with the plugin key.
+     *
+     * @param key               "<plugin key>/<state key>"
+     * @param replayOnReconnect if true, the last value is sent again when the device reconnects
+     */
+    @AnyThread
+    fun publishState(key: String, np: NetworkPacket, replayOnReconnect: Boolean) {
+        publishedState[key] = PublishedState(np, replayOnReconnect)
+        if (pendingStateKeys.add(key)) {
+            enqueue(QueuedSend.State(key))
+        }
+    }
+
+    @WorkerThread
+    private fun sendPublishedState(key: String) {
+        // Removed before reading the value, so a value published meanwhile gets queued again instead of lost
+        pendingStateKeys.remove(key)
+        val state = publishedState[key] ?: return
+        sendPacketBlocking(state.np, defaultCallback)
+        if (!state.replayOnReconnect) {
+            publishedState.remove(key, state)
+        }
+    }
+
+    /**
+     * Queues once the last value of each state of the loaded plugins, and forgets the states of plugins
+     * that aren't loaded anymore (eg: because they were disabled).
+     */
+    private fun replayPublishedState() {
+        val iterator = publishedState.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, state) = iterator.next()
+            if (key.substringBefore('/') !in loadedPlugins) {
+                iterator.remove()
+            } else if (state.replayOnReconnect && pendingStateKeys.add(key)) {
+                enqueue(QueuedSend.State(key))
+            }
+        }
+    }
+
     @WorkerThread
     fun sendPacketBlocking(np: NetworkPacket, callback: SendPacketStatusCallback): Boolean =
         sendPacketBlocking(np, callback, false)
@@ -499,7 +702,8 @@ class Device : PacketReceiver {
     fun sendPacketBlocking(np: NetworkPacket): Boolean = sendPacketBlocking(np, defaultCallback, false)
 
     /**
-     * Send `np` over one of this device's connected [.links].
+     * Send `np` over one of this device's connected [.links]. Which one is tried first depends on
+     * the kind of packet and how well each link has been performing, see [LinkHealth.orderLinksForPacket].
      *
      * @param np                        the packet to send
      * @param callback                  a callback that can receive realtime updates
@@ -520,13 +724,52 @@ class Device : PacketReceiver {
             return false
         }
 
-        val success = links.any { link ->
+        PacketCapture.record(deviceId, np, incoming = false)
+        val started = System.nanoTime()
+        val sent = sendPacketOverBestLinks(np, callback, sendPayloadFromSameThread)
+        sendTime.recordNanos(System.nanoTime() - started)
+        if (sent) {
+            TransportMetrics.countPacketSent(np.type)
+        } else {
+            sendFailures.incrementAndGet()
+        }
+        PacketTracer.finish(np, failed = !sent)
+        return sent
+    }
+
+    @WorkerThread
+    private fun sendPacketOverBestLinks(
+        np: NetworkPacket,
+        callback: SendPacketStatusCallback,
+        sendPayloadFromSameThread: Boolean
+    ): Boolean {
+        if (np.hasPayload() && links.size > 1) {
+            stripedPayloads.trySend(np, callback, links, sendPayloadFromSameThread)?.let { sent ->
+                countSent(deviceId, np.type, sent)
+                return sent
+            }
+        }
+
+        return sendPacketOverOneLink(np, callback, sendPayloadFromSameThread)
+    }
+
+    @WorkerThread
+    internal fun sendPacketOverOneLink(
+        np: NetworkPacket,
+        callback: SendPacketStatusCallback,
+        sendPayloadFromSameThread: Boolean
+    ): Boolean {
+        // Only when the payload is sent before returning does the time it takes tell us the throughput of the link
+        val measuredPayloadBytes = if (sendPayloadFromSameThread) np.payloadSize else 0L
+        val success = LinkHealth.orderLinksForPacket(links, np).any { link ->
+            val started = link.health.sendStarted()
             try {
                 link.sendPacket(np, callback, sendPayloadFromSameThread)
             } catch (e: IOException) {
                 Log.w("KDE/sendPacket", "Failed to send packet", e)
                 false
             }.also { sent ->
+                link.health.sendFinished(started, sent, measuredPayloadBytes)
                 countSent(deviceId, np.type, sent)
             }
         }
@@ -549,13 +792,60 @@ class Device : PacketReceiver {
         return plugin?.let(pluginClass::cast)
     }
 
-    fun getPlugin(pluginKey: String): Plugin? = loadedPlugins[pluginKey]
+    fun getPlugin(pluginKey: String): Plugin? = loadedPlugins[pluginKey] ?: loadDeferredPlugin(pluginKey)
 
     fun getPluginIncludingWithoutPermissions(pluginKey: String): Plugin? {
-        return loadedPlugins[pluginKey] ?: pluginsWithoutPermissions[pluginKey]
+        return getPlugin(pluginKey) ?: pluginsWithoutPermissions[pluginKey]
+    }
+
+    /**
+     * Creates pluginKey if it was waiting to be needed, see [Plugin.isCreatedOnDemand]
+     */
+    private fun loadDeferredPlugin(pluginKey: String): Plugin? {
+        if (pluginKey !in deferredPlugins) {
+            return null
+        }
+        // Not the lock of reloadPluginsFromSettings(), so callers on the main thread only wait for this plugin
+        synchronized(pluginLock(pluginKey)) {
+            if (!deferredPlugins.remove(pluginKey)) {
+                return loadedPlugins[pluginKey] // Created (or disabled) while we waited for the lock
+            }
+            Log.i("Device", "${deviceInfo.name}: creating $pluginKey on demand")
+            pluginsCreatedOnDemand.incrementAndGet()
+            if (!addPlugin(pluginKey)) {
+                removePlugin(pluginKey)
+            }
+        }
+        onPluginsChanged()
+        return loadedPlugins[pluginKey]
     }
 
-    // Helper function for reloadPluginsFromSettings(), do not call from elsewhere
+    private fun pluginLock(pluginKey: String): Any = pluginLocks.getOrPut(pluginKey) { Any() }
+
+    /**
+     * Call with true when a screen that lists the buttons and menu entries of every plugin is shown, and with
+     * false when it's gone. While there is one, the plugins that are waiting to be needed are created, since
+     * the user is going to see them, and reloads don't defer them again.
+     */
+    fun setAllPluginsShown(shown: Boolean) {
+        if (shown) {
+            allPluginsShown.incrementAndGet()
+            launchBackgroundLoadDeferredPlugins()
+        } else {
+            allPluginsShown.decrementAndGet()
+        }
+    }
+
+    private fun launchBackgroundLoadDeferredPlugins() {
+        if (deferredPlugins.isEmpty()) {
+            return
+        }
+        CoroutineScope(Dispatchers.IO).launch {
+            deferredPlugins.toList().forEach(::loadDeferredPlugin)
+        }
+    }
+
+    // Helper function for reloadPluginsFromSettings() and loadDeferredPlugin(), call with pluginLock(pluginKey) held
     private fun addPlugin(pluginKey: String): Boolean {
         val isNewPlugin = !loadedPlugins.containsKey(pluginKey)
 
@@ -601,9 +891,11 @@ class Device : PacketReceiver {
         }.getOrDefault(false)
     }
 
-    // Helper function for reloadPluginsFromSettings(), do not call from elsewhere
+    // Helper function for reloadPluginsFromSettings() and loadDeferredPlugin(), call with pluginLock(pluginKey) held
     private fun removePlugin(pluginKey: String): Boolean {
         val plugin = loadedPlugins.remove(pluginKey) ?: return false
+        // Whatever is still waiting in it is for this instance, so it will be dropped
+        pluginMailboxes.remove(pluginKey)
 
         try {
             plugin.onDestroy()
@@ -632,7 +924,7 @@ class Device : PacketReceiver {
             // unpair a device while that device is not reachable or 2) the plugin was never initialized
             // for this device, e.g., the plugins that need additional permissions from the user, and those
             // permissions were never granted.
-            val plugin = getPlugin(pluginKey) ?: PluginFactory.instantiatePluginForDevice(context, pluginKey, this)
+            val plugin = loadedPlugins[pluginKey] ?: PluginFactory.instantiatePluginForDevice(context, pluginKey, this)
             plugin?.onDeviceUnpaired(context, deviceId)
         }
     }
@@ -655,12 +947,24 @@ class Device : PacketReceiver {
 
             val pluginEnabled = (isPaired || listenToUnpaired) && this.isReachable && isPluginEnabled(pluginKey)
 
-            if (pluginEnabled && addPlugin(pluginKey)) {
-                pluginInfo.supportedPacketTypes.forEach { packetType ->
-                    newPluginsByIncomingInterface.put(packetType, pluginKey)
+            synchronized(pluginLock(pluginKey)) {
+                // Plugins created on demand are routed to from their metadata alone, and created by the first
+                // packet for them or the first time something asks for them
+                val deferred = pluginEnabled && pluginInfo.isCreatedOnDemand && pluginKey !in loadedPlugins &&
+                    allPluginsShown.get() == 0
+                if (deferred) {
+                    deferredPlugins.add(pluginKey)
+                } else {
+                    deferredPlugins.remove(pluginKey)
+                }
+
+                if (deferred || (pluginEnabled && addPlugin(pluginKey))) {
+                    pluginInfo.supportedPacketTypes.forEach { packetType ->
+                        newPluginsByIncomingInterface.put(packetType, pluginKey)
+                    }
+                } else {
+                    removePlugin(pluginKey)
                 }
-            } else {
-                removePlugin(pluginKey)
             }
         }
 
@@ -693,4 +997,11 @@ class Device : PacketReceiver {
     override fun hashCode(): Int {
         return deviceId.hashCode()
     }
+
+    companion object {
+        private val sendQueueWait = TransportMetrics.histogram("device.sendQueueWait")
+        private val sendTime = TransportMetrics.histogram("device.send")
+        private val sendFailures = TransportMetrics.counter("device.sendFailures")
+        private val pluginsCreatedOnDemand = TransportMetrics.counter("device.pluginsCreatedOnDemand")
+    }
 }
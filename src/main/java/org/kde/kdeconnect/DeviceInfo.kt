@@ -29,6 +29,7 @@ data class DeviceInfo(
     @JvmField var protocolVersion: Int = 0,
     @JvmField var incomingCapabilities: Set<String>? = null,
     @JvmField var outgoingCapabilities: Set<String>? = null,
+    @JvmField var capabilitiesDigest: String? = null,
 ) {
 
     /**
@@ -54,15 +55,22 @@ data class DeviceInfo(
      * Serializes to a NetworkPacket, which LanLinkProvider uses to send this data over the network.
      * The serialization doesn't include the certificate, since LanLink can query that from the socket.
      * Can be deserialized using fromIdentityPacketAndCert(), given a certificate.
+     *
+     * If includeCapabilities is false, only the capabilities digest is sent. Only do that if the other
+     * device told us it already knows our capabilities for that digest (see CapabilityDigests).
      */
-    fun toIdentityPacket(): NetworkPacket =
+    @JvmOverloads
+    fun toIdentityPacket(includeCapabilities: Boolean = true): NetworkPacket =
         NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY).also { np ->
             np["deviceId"] = id
             np["deviceName"] = name
             np["protocolVersion"] = protocolVersion
             np["deviceType"] = type.toString()
-            np["incomingCapabilities"] = incomingCapabilities!!
-            np["outgoingCapabilities"] = outgoingCapabilities!!
+            capabilitiesDigest?.let { np["capabilitiesDigest"] = it }
+            if (includeCapabilities || capabilitiesDigest == null) {
+                np["incomingCapabilities"] = incomingCapabilities!!
+                np["outgoingCapabilities"] = outgoingCapabilities!!
+            }
         }
 
     companion object {
@@ -95,18 +103,34 @@ data class DeviceInfo(
         /**
          * Recreates a DeviceInfo object that was serialized using toIdentityPacket().
          * Since toIdentityPacket() doesn't serialize the certificate, this needs to be passed separately.
+         * If the packet has the capability lists they are used, and cached under their digest. If it only
+         * has a digest we have already seen, the cached capabilities are used. If the lists are missing and
+         * we don't know the digest, the capabilities will be null.
          */
         @JvmStatic
         fun fromIdentityPacketAndCert(identityPacket: NetworkPacket, certificate: Certificate) =
             with(identityPacket) {
+                val deviceId = getString("deviceId") // Redundant: We could read this from the certificate instead
+                val packetIncoming = getStringSet("incomingCapabilities")
+                val packetOutgoing = getStringSet("outgoingCapabilities")
+                val (incomingCapabilities, outgoingCapabilities, capabilitiesDigest) = if (packetIncoming != null && packetOutgoing != null) {
+                    // The lists are what the device has now, even if it also sent a digest we know
+                    Triple(packetIncoming, packetOutgoing, CapabilityDigests.remember(deviceId, packetIncoming, packetOutgoing))
+                } else {
+                    // They were left out because we told the device we have them cached
+                    val digest = getStringOrNull("capabilitiesDigest")
+                    val cached = digest?.let { CapabilityDigests.lookup(deviceId, it) }
+                    Triple(cached?.first, cached?.second, digest.takeIf { cached != null })
+                }
                 DeviceInfo(
-                    id = getString("deviceId"), // Redundant: We could read this from the certificate instead
+                    id = deviceId,
                     name = DeviceHelper.filterInvalidCharactersFromDeviceNameAndLimitLength(getString("deviceName", "unknown")),
                     type = DeviceType.fromString(getString("deviceType", "desktop")),
                     certificate = certificate,
                     protocolVersion = getInt("protocolVersion"),
-                    incomingCapabilities = getStringSet("incomingCapabilities"),
-                    outgoingCapabilities = getStringSet("outgoingCapabilities")
+                    incomingCapabilities = incomingCapabilities,
+                    outgoingCapabilities = outgoingCapabilities,
+                    capabilitiesDigest = capabilitiesDigest,
                 )
             }
 
@@ -5,12 +5,15 @@
 */
 package org.kde.kdeconnect
 
-import android.annotation.SuppressLint
 import android.os.Build
 import android.util.Log
 import androidx.annotation.RequiresApi
 import androidx.annotation.VisibleForTesting
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
 
 object DeviceStats {
     /**
@@ -19,12 +22,12 @@ object DeviceStats {
     private const val EVENT_KEEP_WINDOW_MILLIS: Long = 24 * 60 * 60 * 1000
 
     /**
-     * Delete old (>24 hours, see EVENT_KEEP_WINDOW_MILLIS) events every 6 hours
+     * Forget packet types without events in the last 24 hours (see EVENT_KEEP_WINDOW_MILLIS) every 6 hours
      */
     private const val CLEANUP_INTERVAL_MILLIS = EVENT_KEEP_WINDOW_MILLIS / 4
 
-    private val eventsByDevice: MutableMap<String, PacketStats> = HashMap<String, PacketStats>()
-    private var nextCleanup = System.currentTimeMillis() + CLEANUP_INTERVAL_MILLIS
+    private val eventsByDevice: ConcurrentMap<String, PacketStats> = ConcurrentHashMap()
+    private val nextCleanup = AtomicLong(System.currentTimeMillis() + CLEANUP_INTERVAL_MILLIS)
 
     @RequiresApi(api = Build.VERSION_CODES.N)
     fun getStatsForDevice(deviceId: String): String {
@@ -33,8 +36,8 @@ object DeviceStats {
         val packetStats = eventsByDevice[deviceId] ?: return ""
 
         return buildString {
-            val timeInMillis =
-                minOf((System.currentTimeMillis() - packetStats.createdAtMillis), EVENT_KEEP_WINDOW_MILLIS)
+            val now = System.currentTimeMillis()
+            val timeInMillis = minOf((now - packetStats.createdAtMillis), EVENT_KEEP_WINDOW_MILLIS)
             val hours = TimeUnit.MILLISECONDS.toHours(timeInMillis)
             val minutes = TimeUnit.MILLISECONDS.toMinutes(timeInMillis) % 60
             append("From last ")
@@ -43,7 +46,7 @@ object DeviceStats {
             append(minutes)
             append("m\n\n")
 
-            packetStats.summaries.stream().sorted { o1, o2 ->
+            packetStats.summaries(now - EVENT_KEEP_WINDOW_MILLIS, now).stream().sorted { o1, o2 ->
                 o2.total compareTo o1.total // Sort them by total number of events
             }.forEach { count ->
                 append(count.packetType.removePrefix("kdeconnect."))
@@ -58,80 +61,105 @@ object DeviceStats {
         }
     }
 
-    @SuppressLint("NewApi") // We use core library desugar
     fun countReceived(deviceId: String, packetType: String) {
-        synchronized(DeviceStats::class.java) {
-            eventsByDevice
-                .computeIfAbsent(deviceId) { PacketStats() }
-                .receivedByType
-                .computeIfAbsent(packetType) { ArrayList() }
-                .add(System.currentTimeMillis())
-        }
-        cleanupIfNeeded()
+        val now = System.currentTimeMillis()
+        counterFor(statsFor(deviceId).receivedByType, packetType).increment(now)
+        cleanupIfNeeded(now)
     }
 
-    @SuppressLint("NewApi") // We use core library desugar
     fun countSent(deviceId: String, packetType: String, success: Boolean) {
-        if (success) {
-            synchronized(DeviceStats::class.java) {
-                eventsByDevice
-                    .computeIfAbsent(deviceId) { PacketStats() }
-                    .sentSuccessfulByType
-                    .computeIfAbsent(packetType) { ArrayList() }
-                    .add(System.currentTimeMillis())
-            }
-        } else {
-            synchronized(DeviceStats::class.java) {
-                eventsByDevice
-                    .computeIfAbsent(deviceId) { PacketStats() }
-                    .sentFailedByType
-                    .computeIfAbsent(packetType) { ArrayList() }
-                    .add(System.currentTimeMillis())
-            }
-        }
-        cleanupIfNeeded()
+        val now = System.currentTimeMillis()
+        val stats = statsFor(deviceId)
+        counterFor(if (success) stats.sentSuccessfulByType else stats.sentFailedByType, packetType).increment(now)
+        cleanupIfNeeded(now)
     }
 
-    private fun cleanupIfNeeded() {
-        val cutoutTimestamp = System.currentTimeMillis() - EVENT_KEEP_WINDOW_MILLIS
-        if (System.currentTimeMillis() > nextCleanup) {
-            synchronized(DeviceStats::class.java) {
-                Log.i("PacketStats", "Doing periodic cleanup")
-                for (de in eventsByDevice.values) {
-                    removeOldEvents(de.receivedByType, cutoutTimestamp)
-                    removeOldEvents(de.sentFailedByType, cutoutTimestamp)
-                    removeOldEvents(de.sentSuccessfulByType, cutoutTimestamp)
-                }
-                nextCleanup = System.currentTimeMillis() + CLEANUP_INTERVAL_MILLIS
+    // Counting happens for every packet, so look up first and only create what's missing
+    private fun statsFor(deviceId: String): PacketStats =
+        eventsByDevice[deviceId] ?: PacketStats().let { eventsByDevice.putIfAbsent(deviceId, it) ?: it }
+
+    private fun counterFor(countersByType: ConcurrentMap<String, MinuteCounter>, packetType: String): MinuteCounter =
+        countersByType[packetType] ?: MinuteCounter().let { countersByType.putIfAbsent(packetType, it) ?: it }
+
+    private fun cleanupIfNeeded(now: Long = System.currentTimeMillis()) {
+        val scheduled = nextCleanup.get()
+        // Only one of the threads that get here at the same time does the cleanup
+        if (now > scheduled && nextCleanup.compareAndSet(scheduled, now + CLEANUP_INTERVAL_MILLIS)) {
+            Log.i("PacketStats", "Doing periodic cleanup")
+            val cutoutTimestamp = now - EVENT_KEEP_WINDOW_MILLIS
+            for (de in eventsByDevice.values) {
+                removeOldEvents(de.receivedByType, cutoutTimestamp)
+                removeOldEvents(de.sentFailedByType, cutoutTimestamp)
+                removeOldEvents(de.sentSuccessfulByType, cutoutTimestamp)
             }
         }
     }
 
+    /**
+     * The counters drop old events by themselves, this only forgets the packet types that had none since cutoutTimestamp
+     */
     @VisibleForTesting
-    fun removeOldEvents(eventsByType: HashMap<String, ArrayList<Long>>, cutoutTimestamp: Long) {
-        val iterator = eventsByType.entries.iterator()
+    fun removeOldEvents(eventsByType: MutableMap<String, MinuteCounter>, cutoutTimestamp: Long) {
+        val iterator = eventsByType.values.iterator()
         while (iterator.hasNext()) {
-            val entry = iterator.next()
-            val events = entry.value
+            if (!iterator.next().hasEventsSince(cutoutTimestamp)) {
+                iterator.remove()
+            }
+        }
+    }
 
-            var index = events.binarySearch(cutoutTimestamp)
-            if (index < 0) {
-                index = -(index + 1) // Convert the negative index to insertion point
+    /**
+     * Counts events per minute in a ring of buckets that covers EVENT_KEEP_WINDOW_MILLIS, so its size doesn't
+     * depend on how many events there are. Each bucket holds the minute it belongs to in its upper 32 bits and
+     * the number of events in that minute in the lower ones, so it can be updated with a single compare-and-set.
+     */
+    class MinuteCounter {
+        private val buckets = AtomicLongArray(BUCKET_COUNT)
+
+        fun increment(timestampMillis: Long) {
+            val minute = timestampMillis / MINUTE_MILLIS
+            val index = (minute % BUCKET_COUNT).toInt()
+            while (true) {
+                val bucket = buckets.get(index)
+                val next = if (bucket ushr 32 == minute) bucket + 1 else (minute shl 32) or 1L
+                if (buckets.compareAndSet(index, bucket, next)) {
+                    return
+                }
             }
+        }
 
-            if (index < events.size) {
-                events.subList(0, index).clear()
-            } else {
-                iterator.remove() // No element greater than the threshold
+        /**
+         * Events from the minute of sinceMillis to the minute of nowMillis, both included.
+         * Only minutes in the last EVENT_KEEP_WINDOW_MILLIS are kept.
+         */
+        fun count(sinceMillis: Long, nowMillis: Long): Int {
+            val firstMinute = sinceMillis / MINUTE_MILLIS
+            val lastMinute = nowMillis / MINUTE_MILLIS
+            var total = 0
+            for (index in 0 until BUCKET_COUNT) {
+                val bucket = buckets.get(index)
+                if ((bucket ushr 32) in firstMinute..lastMinute) {
+                    total += (bucket and COUNT_MASK).toInt()
+                }
             }
+            return total
+        }
+
+        fun hasEventsSince(sinceMillis: Long): Boolean = count(sinceMillis, Long.MAX_VALUE) > 0
+
+        private companion object {
+            const val MINUTE_MILLIS = 60 * 1000L
+            // One more than the minutes in the window, for the one in progress
+            const val BUCKET_COUNT = (EVENT_KEEP_WINDOW_MILLIS / MINUTE_MILLIS).toInt() + 1
+            const val COUNT_MASK = 0xFFFFFFFFL
         }
     }
 
     internal class PacketStats {
         val createdAtMillis: Long = System.currentTimeMillis()
-        val receivedByType: HashMap<String, ArrayList<Long>> = HashMap()
-        val sentSuccessfulByType: HashMap<String, ArrayList<Long>> = HashMap()
-        val sentFailedByType: HashMap<String, ArrayList<Long>> = HashMap()
+        val receivedByType: ConcurrentMap<String, MinuteCounter> = ConcurrentHashMap()
+        val sentSuccessfulByType: ConcurrentMap<String, MinuteCounter> = ConcurrentHashMap()
+        val sentFailedByType: ConcurrentMap<String, MinuteCounter> = ConcurrentHashMap()
 
         internal data class Summary(
             val packetType: String,
@@ -141,26 +169,27 @@ object DeviceStats {
             var total: Int = 0
         )
 
-        @get:SuppressLint("NewApi") // We use core library desugar
-        val summaries: Collection<Summary>
-            get() {
-                val countsByType: MutableMap<String, Summary> = HashMap()
-                for ((key, value) in receivedByType) {
-                    val summary = countsByType.computeIfAbsent(key) { packetType -> Summary(packetType) }
-                    summary.received += value.size
-                    summary.total += value.size
-                }
-                for ((key, value) in sentSuccessfulByType) {
-                    val summary = countsByType.computeIfAbsent(key) { packetType -> Summary(packetType) }
-                    summary.sentSuccessful += value.size
-                    summary.total += value.size
-                }
-                for ((key, value) in sentFailedByType) {
-                    val summary = countsByType.computeIfAbsent(key) { packetType -> Summary(packetType) }
-                    summary.sentFailed += value.size
-                    summary.total += value.size
-                }
-                return countsByType.values
+        fun summaries(sinceMillis: Long, nowMillis: Long): Collection<Summary> {
+            val countsByType: MutableMap<String, Summary> = HashMap()
+            for ((key, value) in receivedByType) {
+                val count = value.count(sinceMillis, nowMillis)
+                val summary = countsByType.getOrPut(key) { Summary(key) }
+                summary.received += count
+                summary.total += count
             }
+            for ((key, value) in sentSuccessfulByType) {
+                val count = value.count(sinceMillis, nowMillis)
+                val summary = countsByType.getOrPut(key) { Summary(key) }
+                summary.sentSuccessful += count
+                summary.total += count
+            }
+            for ((key, value) in sentFailedByType) {
+                val count = value.count(sinceMillis, nowMillis)
+                val summary = countsByType.getOrPut(key) { Summary(key) }
+                summary.sentFailed += count
+                summary.total += count
+            }
+            return countsByType.values
+        }
     }
 }
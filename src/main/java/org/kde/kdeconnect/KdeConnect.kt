@@ -43,7 +43,13 @@ class KdeConnect : Application() {
         fun onDeviceListChanged()
     }
 
-    val devices: ConcurrentHashMap<String, Device> = ConcurrentHashMap()
+    private val loadedDevices: ConcurrentHashMap<String, Device> = ConcurrentHashMap()
+
+    val devices: ConcurrentHashMap<String, Device>
+        get() {
+            AppStartup.await(AppStartup.Phase.REMEMBERED_DEVICES)
+            return loadedDevices
+        }
 
     private val deviceListChangedCallbacks = ConcurrentHashMap<String, DeviceListChangedCallback>()
 
@@ -52,14 +58,25 @@ class KdeConnect : Application() {
         _instance = this
         setupSL4JLogging()
         Log.d("KdeConnect/Application", "onCreate")
+        val started = System.nanoTime()
+        // Only what the first frame needs is done here, the rest waits behind the barriers in AppStartup
         ThemeUtil.setUserPreferredTheme(this)
         DeviceHelper.initializeDeviceId(this)
-        RsaHelper.initialiseRsaKeys(this)
-        SslHelper.initialiseCertificate(this)
-        PluginFactory.initPluginInfo(this)
+        AppStartup.start(AppStartup.Phase.CERTIFICATE) {
+            RsaHelper.initialiseRsaKeys(this)
+            SslHelper.initialiseCertificate(this)
+        }
+        AppStartup.start(AppStartup.Phase.PLUGIN_INFO) {
+            PluginFactory.initPluginInfo(this)
+        }
+        AppStartup.start(AppStartup.Phase.REMEMBERED_DEVICES) {
+            loadRememberedDevicesFromSettings()
+            // Not from this thread, since the callbacks will want to read the devices we just loaded
+            ThreadHelper.execute { onDeviceListChanged() }
+        }
         NotificationHelper.initializeChannels(this)
         LifecycleHelper.initializeObserver()
-        loadRememberedDevicesFromSettings()
+        TransportMetrics.histogram("startup.onCreate").recordNanos(System.nanoTime() - started)
 
         if (BuildConfig.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             val vmPolicyBuilder = VmPolicy.Builder(StrictMode.getVmPolicy())
@@ -137,7 +154,7 @@ class KdeConnect : Application() {
                     else if(now > x509Cert.notAfter) {
                         throw CertificateException("Certificate already expired: "+x509Cert.notAfter)
                     }
-                    devices[it] = device
+                    loadedDevices[it] = device
                     device.addPairingCallback(devicePairingCallback)
                 } catch (e: CertificateException) {
                     Log.w(
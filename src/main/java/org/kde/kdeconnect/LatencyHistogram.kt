@@ -0,0 +1,107 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import org.json.JSONObject
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A histogram of durations with a fixed size, like HdrHistogram does it: values are recorded in
+ * microseconds into buckets that double in width every SUB_BUCKETS buckets, so any value can be
+ * told apart from its neighbours with a precision of about 6%. Recording is lock free.
+ */
+class LatencyHistogram {
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val totalCount = AtomicLong()
+    private val totalMicros = AtomicLong()
+    private val maxMicros = AtomicLong()
+
+    fun recordNanos(nanos: Long) {
+        val micros = (nanos / 1000).coerceIn(0, MAX_MICROS)
+        counts.incrementAndGet(indexFor(micros))
+        totalCount.incrementAndGet()
+        totalMicros.addAndGet(micros)
+        while (true) {
+            val max = maxMicros.get()
+            if (micros <= max || maxMicros.compareAndSet(max, micros)) {
+                break
+            }
+        }
+    }
+
+    val count: Long
+        get() = totalCount.get()
+
+    /**
+     * The upper bound of the bucket where the given fraction (between 0 and 1) of the recorded values is reached
+     */
+    fun percentileMillis(fraction: Double): Double {
+        val total = totalCount.get()
+        if (total == 0L) {
+            return 0.0
+        }
+        val target = maxOf(1L, Math.ceil(total * fraction).toLong())
+        var seen = 0L
+        for (index in 0 until BUCKET_COUNT) {
+            seen += counts.get(index)
+            if (seen >= target) {
+                return minOf(lowerBound(index + 1) - 1, maxMicros.get()) / 1000.0
+            }
+        }
+        return maxMicros.get() / 1000.0
+    }
+
+    fun meanMillis(): Double {
+        val total = totalCount.get()
+        return if (total == 0L) 0.0 else totalMicros.get() / 1000.0 / total
+    }
+
+    fun maxMillis(): Double = maxMicros.get() / 1000.0
+
+    fun toJson(): JSONObject = JSONObject()
+        .put("count", count)
+        .put("meanMillis", meanMillis())
+        .put("p50Millis", percentileMillis(0.5))
+        .put("p90Millis", percentileMillis(0.9))
+        .put("p99Millis", percentileMillis(0.99))
+        .put("maxMillis", maxMillis())
+
+    override fun toString(): String =
+        "n=$count p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms".format(
+            percentileMillis(0.5), percentileMillis(0.9), percentileMillis(0.99), maxMillis()
+        )
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 4
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+
+        /**
+         * About 12 days, way more than anything we measure
+         */
+        private const val MAX_MAGNITUDE = 40
+        private const val MAX_MICROS = (1L shl MAX_MAGNITUDE) - 1
+        private const val BUCKET_COUNT = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        internal fun indexFor(micros: Long): Int {
+            if (micros < SUB_BUCKETS) {
+                return micros.toInt()
+            }
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+            val shift = magnitude - SUB_BUCKET_BITS
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (micros ushr shift).toInt() - SUB_BUCKETS
+        }
+
+        internal fun lowerBound(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+            val shift = (index - SUB_BUCKETS) / SUB_BUCKETS
+            val subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS
+            return (SUB_BUCKETS + subBucket).toLong() shl shift
+        }
+    }
+}
@@ -5,13 +5,17 @@
 */
 package org.kde.kdeconnect
 
+import android.util.JsonReader
+import android.util.JsonToken
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
 import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.io.InputStream
+import java.io.Reader
 import java.net.Socket
+import java.util.concurrent.ArrayBlockingQueue
 
 class NetworkPacket private constructor(
     val type: String,
@@ -24,7 +28,9 @@ class NetworkPacket private constructor(
         mBody = JSONObject(),
         payload = null,
         payloadTransferInfo = JSONObject()
-    )
+    ) {
+        PacketTracer.stamp(this, PacketTracer.Stage.CREATED)
+    }
 
     @Volatile
     var isCanceled: Boolean = false
@@ -34,6 +40,34 @@ class NetworkPacket private constructor(
         isCanceled = true
     }
 
+    /**
+     * The pool this packet was obtained from, if any
+     */
+    private var pool: Pool? = null
+
+    internal val isPooled: Boolean
+        get() = pool != null
+
+    /**
+     * Where this packet has been so far, only while PacketTracer is enabled
+     */
+    @Volatile
+    internal var trace: PacketTracer.Trace? = null
+
+    /**
+     * Gives a packet obtained from a [Pool] back to it, does nothing for other packets.
+     * Called by Device once the packet has been sent.
+     */
+    internal fun recycle() {
+        val pool = pool ?: return
+        // Never reuse a packet that somebody attached a payload to, something could still be reading it
+        if (payload != null || hasPayloadTransferInfo()) {
+            return
+        }
+        isCanceled = false
+        pool.recycle(this)
+    }
+
     // Most commons getters and setters defined for convenience
     fun getString(key: String): String {
         return mBody.optString(key, "")
@@ -202,6 +236,10 @@ class NetworkPacket private constructor(
         }
     }
 
+    fun remove(key: String) {
+        mBody.remove(key)
+    }
+
     fun has(key: String): Boolean {
         return mBody.has(key)
     }
@@ -228,6 +266,24 @@ class NetworkPacket private constructor(
         }
     }
 
+    /**
+     * Like serialize(), but if compact is true and the packet fits one of the schemas in CompactPacketCodec
+     * it's encoded with it instead of as JSON. Only pass true if the other device supports it.
+     */
+    @Throws(JSONException::class)
+    fun serialize(compact: Boolean): String {
+        if (compact && !hasPayload()) {
+            CompactPacketCodec.encode(type, mBody)?.let { return it }
+        }
+        return serialize()
+    }
+
+    /**
+     * Serializes only the body, in the same format used by serialize()
+     */
+    @Throws(JSONException::class)
+    internal fun serializeBody(): String = mBody.toString().replace("\\/", "/")
+
     val payloadSize: Long
         get() = payload?.payloadSize ?: 0
 
@@ -240,6 +296,31 @@ class NetworkPacket private constructor(
         return payloadTransferInfo.length() > 0
     }
 
+    /**
+     * Reusable packets for a packet type that is sent many times per second (eg: mouse movements), so
+     * that sending them doesn't create a new packet and body each time.
+     *
+     * A packet obtained from a pool has to be sent with Device.sendPacket, which gives it back to the pool
+     * once it has been sent, and mustn't be used after that. It keeps the fields it had the last time it
+     * was sent, so set the same fields every time or remove the ones that don't apply.
+     */
+    class Pool @JvmOverloads constructor(private val type: String, capacity: Int = 8) {
+        private val free = ArrayBlockingQueue<NetworkPacket>(capacity)
+
+        /**
+         * A reused packet is traced as a new one, with a new trace id, even if its last trace wasn't finished
+         */
+        fun obtain(): NetworkPacket =
+            free.poll()?.also {
+                it.trace = null
+                PacketTracer.stamp(it, PacketTracer.Stage.CREATED)
+            } ?: NetworkPacket(type).also { it.pool = this }
+
+        internal fun recycle(np: NetworkPacket) {
+            free.offer(np)
+        }
+    }
+
     class Payload {
         /**
          * **NOTE: Do not close the InputStream directly call Payload.close() instead, this is because of this [bug](https://issuetracker.google.com/issues/37018094)**
@@ -293,6 +374,14 @@ class NetworkPacket private constructor(
         @JvmStatic
         @Throws(JSONException::class)
         fun unserialize(s: String): NetworkPacket {
+            if (CompactPacketCodec.isCompact(s)) {
+                val (type, mBody) = try {
+                    CompactPacketCodec.decode(s)
+                } catch (e: IllegalArgumentException) {
+                    throw JSONException("Invalid compact packet: ${e.message}")
+                }
+                return NetworkPacket(type, mBody, null, JSONObject())
+            }
             val jo = JSONObject(s)
             val type = jo.getString("type")
             val mBody = jo.getJSONObject("body")
@@ -302,5 +391,78 @@ class NetworkPacket private constructor(
             val payload = if (hasPayload) Payload(jo.getLong("payloadSize")) else null
             return NetworkPacket(type, mBody, payload, payloadTransferInfo)
         }
+
+        /**
+         * Like unserialize(String), but parses the packet as it's read, so a big packet never has to be in
+         * memory as text. Only the fields of the packet we use are kept, the rest (eg: its id) are skipped.
+         */
+        @JvmStatic
+        @Throws(JSONException::class, IOException::class)
+        fun unserialize(reader: Reader): NetworkPacket {
+            var type: String? = null
+            var mBody: JSONObject? = null
+            var payloadSize: Long? = null
+            var payloadTransferInfo: JSONObject? = null
+            try {
+                JsonReader(reader).use { json ->
+                    json.beginObject()
+                    while (json.hasNext()) {
+                        when (json.nextName()) {
+                            "type" -> type = json.nextString()
+                            "body" -> mBody = readJSONObject(json)
+                            "payloadSize" -> payloadSize = json.nextLong()
+                            "payloadTransferInfo" -> payloadTransferInfo = readJSONObject(json)
+                            else -> json.skipValue()
+                        }
+                    }
+                    json.endObject()
+                }
+            } catch (e: IllegalStateException) {
+                // What JsonReader throws when a value isn't of the type we expect
+                throw JSONException(e.message)
+            } catch (e: NumberFormatException) {
+                throw JSONException(e.message)
+            }
+            if (type == null || mBody == null) {
+                throw JSONException("Packet without type or body")
+            }
+            val payload = payloadSize?.let { Payload(it) }
+            val transferInfo = if (payload != null) payloadTransferInfo ?: throw JSONException("Payload without payloadTransferInfo") else JSONObject()
+            return NetworkPacket(type!!, mBody!!, payload, transferInfo)
+        }
+
+        private fun readJSONObject(json: JsonReader): JSONObject {
+            val jo = JSONObject()
+            json.beginObject()
+            while (json.hasNext()) {
+                jo.put(json.nextName(), readJSONValue(json))
+            }
+            json.endObject()
+            return jo
+        }
+
+        private fun readJSONValue(json: JsonReader): Any = when (json.peek()) {
+            JsonToken.BEGIN_OBJECT -> readJSONObject(json)
+            JsonToken.BEGIN_ARRAY -> JSONArray().also { array ->
+                json.beginArray()
+                while (json.hasNext()) {
+                    array.put(readJSONValue(json))
+                }
+                json.endArray()
+            }
+            JsonToken.STRING -> json.nextString()
+            JsonToken.BOOLEAN -> json.nextBoolean()
+            JsonToken.NULL -> JSONObject.NULL.also { json.nextNull() }
+            // Numbers get the same types JSONObject(String) would give them
+            JsonToken.NUMBER -> json.nextString().let { number ->
+                val long = if (number.any { it == '.' || it == 'e' || it == 'E' }) null else number.toLongOrNull()
+                when {
+                    long == null -> number.toDouble()
+                    long in Int.MIN_VALUE..Int.MAX_VALUE -> long.toInt()
+                    else -> long
+                }
+            }
+            else -> throw JSONException("Unexpected ${json.peek()}")
+        }
     }
 }
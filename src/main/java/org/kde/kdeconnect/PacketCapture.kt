@@ -0,0 +1,142 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.util.Log
+import androidx.annotation.WorkerThread
+import org.json.JSONException
+import org.json.JSONObject
+import org.kde.kdeconnect.helpers.SerialExecutor
+import org.kde.kdeconnect.helpers.security.SslHelper
+import java.io.File
+import java.io.IOException
+import java.io.Writer
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Records the packets exchanged with one device to a file, with the time each one was sent or received
+ * and the size of its payload (but not the payload itself), so the session can be replayed later (see
+ * PacketReplay in the tests).
+ *
+ * The file has one JSON object per line: a header with the identity of the device, and then one line per
+ * packet with the nanoseconds since the capture started, whether it was incoming, and the packet. Captures
+ * contain everything in the packets (notifications, messages...), so they are only offered in debug builds.
+ */
+object PacketCapture {
+    class CapturedPacket(val offsetNanos: Long, val incoming: Boolean, private val serializedPacket: String) {
+        /**
+         * A new packet every time, since the ones we replay can be modified by whoever handles them
+         */
+        fun toPacket(): NetworkPacket = NetworkPacket.unserialize(serializedPacket)
+    }
+
+    class Capture(val deviceInfo: DeviceInfo, val startedAtMillis: Long, val packets: List<CapturedPacket>)
+
+    private class Session(val deviceId: String, val file: File, val writer: Writer) {
+        val startedNanos = System.nanoTime()
+
+        // Writes happen in the background, but in the same order packets were recorded
+        val executor = SerialExecutor()
+    }
+
+    @Volatile
+    private var session: Session? = null
+
+    fun isCapturing(deviceId: String): Boolean = session?.deviceId == deviceId
+
+    /**
+     * Starts recording the packets exchanged with device into file, replacing any capture in progress
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    fun start(device: Device, file: File) {
+        stop()
+        file.parentFile?.mkdirs()
+        val writer = file.bufferedWriter()
+        val header = JSONObject()
+            .put("startedAt", System.currentTimeMillis())
+            .put("device", JSONObject(device.deviceInfo.toIdentityPacket().serialize()))
+        writer.write(header.toString())
+        writer.write("\n")
+        session = Session(device.deviceId, file, writer)
+    }
+
+    /**
+     * Stops the capture in progress, if any
+     *
+     * @return the file it was written to, once all the packets have been written to it
+     */
+    @WorkerThread
+    fun stop(): File? {
+        val session = session ?: return null
+        this.session = null
+        val closed = CountDownLatch(1)
+        session.executor.execute {
+            try {
+                session.writer.close()
+            } catch (e: IOException) {
+                Log.e("PacketCapture", "Could not write packet capture", e)
+            }
+            closed.countDown()
+        }
+        closed.await()
+        return session.file
+    }
+
+    /**
+     * Records np if we are capturing the packets of the device with id deviceId. Must be called before the
+     * packet is sent or handed over to the plugins, since they can modify it.
+     */
+    @JvmStatic
+    fun record(deviceId: String, np: NetworkPacket, incoming: Boolean) {
+        val session = session ?: return
+        if (session.deviceId != deviceId) {
+            return
+        }
+        val offsetNanos = System.nanoTime() - session.startedNanos
+        val line = try {
+            "{\"t\":$offsetNanos,\"incoming\":$incoming,\"packet\":${np.serialize().trimEnd()}}\n"
+        } catch (e: JSONException) {
+            Log.e("PacketCapture", "Could not serialize packet of type ${np.type}", e)
+            return
+        }
+        session.executor.execute {
+            try {
+                session.writer.write(line)
+            } catch (e: IOException) {
+                Log.e("PacketCapture", "Could not write packet capture", e)
+            }
+        }
+    }
+
+    @Throws(IOException::class, JSONException::class)
+    fun read(file: File): Capture = file.bufferedReader().useLines { lines ->
+        val iterator = lines.iterator()
+        if (!iterator.hasNext()) {
+            throw IOException("Empty packet capture")
+        }
+        val header = JSONObject(iterator.next())
+        val identity = NetworkPacket.unserialize(header.getJSONObject("device").toString())
+        val packets = iterator.asSequence()
+            .filter { it.isNotBlank() }
+            .map { line ->
+                val json = JSONObject(line)
+                CapturedPacket(json.getLong("t"), json.getBoolean("incoming"), json.getJSONObject("packet").toString())
+            }
+            .toList()
+        Capture(identityToDeviceInfo(identity), header.getLong("startedAt"), packets)
+    }
+
+    private fun identityToDeviceInfo(identity: NetworkPacket): DeviceInfo = DeviceInfo(
+        id = identity.getString("deviceId"),
+        certificate = SslHelper.certificate, // Not captured, and not needed to replay
+        name = identity.getString("deviceName"),
+        type = DeviceType.fromString(identity.getString("deviceType", "desktop")),
+        protocolVersion = identity.getInt("protocolVersion"),
+        incomingCapabilities = identity.getStringSet("incomingCapabilities"),
+        outgoingCapabilities = identity.getStringSet("outgoingCapabilities"),
+    )
+}
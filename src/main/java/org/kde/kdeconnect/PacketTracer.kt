@@ -0,0 +1,162 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Optional tracing of the time each packet spends in each stage of the pipeline, from the plugin that
+ * creates it to the link that writes it, and from the link that reads it to the plugin that handles it.
+ *
+ * While enabled, packets get a [Trace] the first time they are stamped. Finished traces are kept in a
+ * ring of the last [CAPACITY] packets, which can be exported in the Trace Event format that
+ * chrome://tracing and ui.perfetto.dev open. When disabled, stamping a packet costs a field read.
+ */
+object PacketTracer {
+    enum class Stage(val incoming: Boolean) {
+        CREATED(false),
+        ENQUEUED(false),
+        DEQUEUED(false),
+        SERIALIZED(false),
+        WRITTEN(false),
+        READ(true),
+        PARSED(true),
+        DISPATCHED(true),
+        HANDLED(true),
+    }
+
+    class Trace internal constructor(val packetType: String, val incoming: Boolean) {
+        val id: Long = nextId.incrementAndGet()
+
+        /**
+         * System.nanoTime() at each stage, 0 for the stages not reached
+         */
+        private val stamps = AtomicLongArray(Stage.entries.size)
+        private val finished = AtomicBoolean()
+
+        @Volatile
+        var failed: Boolean = false
+            internal set
+
+        fun stamp(stage: Stage, nanos: Long = System.nanoTime()) {
+            stamps.set(stage.ordinal, nanos)
+        }
+
+        fun nanosAt(stage: Stage): Long = stamps.get(stage.ordinal)
+
+        /**
+         * Only true the first time, so a packet delivered to several plugins is only added to the ring once
+         */
+        internal fun markFinished(): Boolean = finished.compareAndSet(false, true)
+    }
+
+    const val CAPACITY = 1024
+
+    private val nextId = AtomicLong()
+    private val ring = AtomicReferenceArray<Trace?>(CAPACITY)
+    private val ringPosition = AtomicLong()
+
+    // Both clocks at the same moment, to turn System.nanoTime() into wall clock times in the export
+    private val baseNanos = System.nanoTime()
+    private val baseMillis = System.currentTimeMillis()
+
+    @Volatile
+    @JvmStatic
+    var isEnabled: Boolean = false
+
+    /**
+     * Records that np reached stage. Starts a trace for np if it doesn't have one and tracing is enabled.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun stamp(np: NetworkPacket, stage: Stage, nanos: Long = System.nanoTime()) {
+        val trace = np.trace ?: if (isEnabled) Trace(np.type, stage.incoming).also { np.trace = it } else return
+        trace.stamp(stage, nanos)
+    }
+
+    /**
+     * Adds the trace of np to the ring. An outgoing packet is detached from its trace, so a packet that
+     * is sent again (or given back to a pool) starts a new one. An incoming one keeps it, so the plugins
+     * that handle it after the first one still update the HANDLED stage.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun finish(np: NetworkPacket, failed: Boolean = false) {
+        val trace = np.trace ?: return
+        trace.failed = trace.failed || failed
+        if (!trace.incoming) {
+            np.trace = null
+        }
+        if (trace.markFinished()) {
+            ring.set((ringPosition.getAndIncrement() % CAPACITY).toInt(), trace)
+        }
+    }
+
+    /**
+     * The finished traces, oldest first
+     */
+    fun traces(): List<Trace> {
+        val end = ringPosition.get()
+        val start = maxOf(0, end - CAPACITY)
+        return (start until end).mapNotNull { ring.get((it % CAPACITY).toInt()) }
+    }
+
+    fun clear() {
+        for (i in 0 until CAPACITY) {
+            ring.set(i, null)
+        }
+        ringPosition.set(0)
+    }
+
+    /**
+     * The finished traces in the Trace Event format: every packet is a row, with a slice for the time
+     * between each pair of consecutive stages it went through.
+     */
+    fun toTraceEvents(): JSONObject {
+        val events = JSONArray()
+        for (trace in traces()) {
+            val stages = Stage.entries.filter { trace.nanosAt(it) != 0L }
+            val args = JSONObject()
+                .put("type", trace.packetType)
+                .put("direction", if (trace.incoming) "in" else "out")
+                .put("failed", trace.failed)
+            events.put(JSONObject()
+                .put("ph", "M")
+                .put("name", "thread_name")
+                .put("pid", 1)
+                .put("tid", trace.id)
+                .put("args", JSONObject().put("name", "#${trace.id} ${trace.packetType.removePrefix("kdeconnect.")}")))
+            for ((from, to) in stages.zipWithNext()) {
+                val fromNanos = trace.nanosAt(from)
+                events.put(JSONObject()
+                    .put("ph", "X")
+                    .put("name", "${from.name.lowercase()} → ${to.name.lowercase()}")
+                    .put("cat", if (trace.incoming) "incoming" else "outgoing")
+                    .put("pid", 1)
+                    .put("tid", trace.id)
+                    .put("ts", toWallClockMicros(fromNanos))
+                    .put("dur", (trace.nanosAt(to) - fromNanos) / 1000.0)
+                    .put("args", args))
+            }
+        }
+        return JSONObject()
+            .put("displayTimeUnit", "ms")
+            .put("traceEvents", events)
+    }
+
+    fun writeTraceFile(file: File) {
+        file.parentFile?.mkdirs()
+        file.writeText(toTraceEvents().toString())
+    }
+
+    private fun toWallClockMicros(nanos: Long): Double = baseMillis * 1000.0 + (nanos - baseNanos) / 1000.0
+}
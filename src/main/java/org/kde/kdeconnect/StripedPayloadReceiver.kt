@@ -0,0 +1,188 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.util.Log
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.util.TreeMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Puts back together a payload that a StripedPayloadSender split over several links. Each stripe is read
+ * on its own thread and the chunks are handed out in order through inputStream. We acknowledge what has
+ * been read from inputStream, which lets the sender free those chunks and send more.
+ */
+internal class StripedPayloadReceiver(
+    val id: String,
+    private val stripeCount: Int,
+    private val chunkSize: Int,
+    private val sendAck: (Long) -> Unit,
+    private val onClosed: (StripedPayloadReceiver) -> Unit,
+) {
+    private val lock = ReentrantLock()
+    private val changed = lock.newCondition()
+
+    // Guarded by lock
+    private var totalSize = -1L
+    private val chunks = TreeMap<Long, ByteArray>()
+    private val stripes = mutableListOf<NetworkPacket.Payload>()
+    private var endedStripes = 0
+    private var consumedOffset = 0L
+    private var ackedOffset = 0L
+    private var closed = false
+
+    val hasPrimaryPacket: Boolean
+        get() = lock.withLock { totalSize >= 0 }
+
+    val inputStream: InputStream = ReassembledInputStream()
+
+    /**
+     * Called when the packet the payload belongs to arrives
+     */
+    fun setTotalSize(size: Long) = lock.withLock {
+        totalSize = size
+        changed.signalAll()
+    }
+
+    fun addStripe(payload: NetworkPacket.Payload) {
+        lock.withLock {
+            if (closed) {
+                payload.close()
+                return
+            }
+            stripes.add(payload)
+        }
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK) { readStripe(payload) }
+    }
+
+    fun close() {
+        val toClose = lock.withLock {
+            if (closed) {
+                return
+            }
+            closed = true
+            chunks.clear()
+            changed.signalAll()
+            stripes.toList()
+        }
+        toClose.forEach { it.close() }
+        onClosed(this)
+    }
+
+    private fun readStripe(payload: NetworkPacket.Payload) {
+        try {
+            val input = DataInputStream(payload.inputStream)
+            while (true) {
+                val offset = try {
+                    input.readLong()
+                } catch (_: EOFException) {
+                    break
+                }
+                val length = input.readInt()
+                if (offset < 0 || offset % chunkSize != 0L || length <= 0 || length > chunkSize) {
+                    throw IOException("Invalid frame at offset $offset with length $length")
+                }
+                val data = ByteArray(length)
+                input.readFully(data)
+                lock.withLock {
+                    // The sender never has more than a window of data unacknowledged, and we've acked everything we consumed
+                    if (offset >= consumedOffset + StripedPayloads.WINDOW_SIZE + chunkSize) {
+                        throw IOException("Received offset $offset too far ahead of $consumedOffset")
+                    }
+                    // Chunks can arrive twice if they were retried over another stripe
+                    if (!closed && offset >= consumedOffset && !chunks.containsKey(offset)) {
+                        chunks[offset] = data
+                        changed.signalAll()
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            if (!lock.withLock { closed }) {
+                Log.w(LOG_TAG, "Stripe of transfer $id ended", e)
+            }
+        } finally {
+            payload.close()
+            lock.withLock {
+                endedStripes++
+                changed.signalAll()
+            }
+        }
+    }
+
+    private inner class ReassembledInputStream : InputStream() {
+        private var current: ByteArray? = null
+        private var currentPosition = 0
+
+        override fun read(): Int {
+            val single = ByteArray(1)
+            return if (read(single, 0, 1) < 0) -1 else single[0].toInt() and 0xFF
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) {
+                return 0
+            }
+            var chunk = current
+            if (chunk == null || currentPosition == chunk.size) {
+                chunk = nextChunk() ?: return -1
+                current = chunk
+                currentPosition = 0
+            }
+            val n = minOf(len, chunk.size - currentPosition)
+            System.arraycopy(chunk, currentPosition, b, off, n)
+            currentPosition += n
+            return n
+        }
+
+        override fun close() {
+            this@StripedPayloadReceiver.close()
+        }
+    }
+
+    private fun nextChunk(): ByteArray? {
+        var ack = -1L
+        var chunk: ByteArray? = null
+        lock.withLock {
+            while (chunk == null) {
+                if (closed) {
+                    throw IOException("Transfer closed")
+                }
+                if (totalSize in 0..consumedOffset) {
+                    return null
+                }
+                chunk = chunks.remove(consumedOffset)
+                if (chunk == null) {
+                    if (endedStripes == stripeCount) {
+                        throw IOException("All stripes ended after $consumedOffset bytes")
+                    }
+                    if (!changed.await(StripedPayloads.ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        throw IOException("Timed out waiting for data at offset $consumedOffset")
+                    }
+                }
+            }
+            consumedOffset += chunk!!.size
+            if (consumedOffset - ackedOffset >= StripedPayloads.ACK_INTERVAL || consumedOffset == totalSize) {
+                ackedOffset = consumedOffset
+                ack = consumedOffset
+            }
+        }
+        // Ack once we have handed the chunk out, since the sender can't send more data until we do
+        if (ack >= 0) {
+            sendAck(ack)
+        }
+        return chunk
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/StripedPayload"
+    }
+}
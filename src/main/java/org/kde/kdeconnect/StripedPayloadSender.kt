@@ -0,0 +1,280 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.util.Log
+import androidx.annotation.WorkerThread
+import org.json.JSONObject
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.TreeMap
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Sends the payload of a packet split in chunks over several links at the same time, see StripedPayloads.
+ *
+ * Each link gets a stream of frames (offset, length and data of a chunk) and takes the next chunk when it's
+ * ready for more, so faster links carry more of the payload. Chunks are kept until the other end acknowledges
+ * them, so if a link drops, the chunks it didn't deliver are sent again over the links that are left.
+ */
+internal class StripedPayloadSender(
+    private val np: NetworkPacket,
+    private val callback: Device.SendPacketStatusCallback,
+    private val links: List<BaseLink>,
+) {
+    private class Chunk(val offset: Long, val data: ByteArray, var stripe: Int)
+
+    val id: String = UUID.randomUUID().toString()
+
+    private val originalPayload = np.payload!!
+    private val source: InputStream = originalPayload.inputStream!!
+    private val totalSize = np.payloadSize
+
+    private val lock = ReentrantLock()
+    private val changed = lock.newCondition()
+
+    // Guarded by lock
+    private var nextSourceOffset = 0L
+    private var ackedOffset = 0L
+    private val unacked = TreeMap<Long, Chunk>()
+    private val retry = TreeMap<Long, Chunk>()
+    private var activeStripes = 0
+    private var secondaryStripesStarted = false
+    private var failure: IOException? = null
+    private var lastProgress = -1
+
+    /**
+     * Returns null if the first link couldn't send the packet before any of the payload was read,
+     * in which case the packet is left as it was so it can be sent without striping.
+     */
+    @WorkerThread
+    fun send(): Boolean? {
+        val stripeInfo = descriptor(0)
+        np.payloadTransferInfo.put(StripedPayloads.KEY_STRIPE, stripeInfo)
+        np.payload = NetworkPacket.Payload(StripeInputStream(0), totalSize)
+        lock.withLock { activeStripes = 1 }
+
+        val sent = sendStripe(0, np)
+
+        val (consumedAny, success) = lock.withLock {
+            while (activeStripes > 0) {
+                changed.await()
+            }
+            Pair(nextSourceOffset > 0, ackedOffset >= totalSize)
+        }
+
+        if (!consumedAny) {
+            if (!sent) {
+                np.payloadTransferInfo.remove(StripedPayloads.KEY_STRIPE)
+                np.payload = originalPayload
+                return null
+            }
+            // Like with a single link, if the other end doesn't fetch the payload we consider the packet sent
+            originalPayload.close()
+            callback.onSuccess()
+            return true
+        }
+
+        originalPayload.close()
+        if (success) {
+            Log.i(LOG_TAG, "Sent $totalSize bytes for ${np.type} over ${links.size} links")
+            callback.onSuccess()
+        } else {
+            val e = lock.withLock { failure } ?: IOException("Striped transfer failed")
+            Log.e(LOG_TAG, "Striped transfer for ${np.type} failed", e)
+            callback.onFailure(e)
+        }
+        return success
+    }
+
+    /**
+     * The other end has received and consumed everything before offset
+     */
+    fun onAcked(offset: Long) {
+        val progress = lock.withLock {
+            if (offset <= ackedOffset) {
+                return
+            }
+            ackedOffset = minOf(offset, nextSourceOffset)
+            while (unacked.isNotEmpty()) {
+                val first = unacked.firstEntry()!!.value
+                if (first.offset + first.data.size > ackedOffset) {
+                    break
+                }
+                unacked.pollFirstEntry()
+                retry.remove(first.offset)
+            }
+            changed.signalAll()
+            val percent = (100 * ackedOffset / totalSize).toInt()
+            if (percent == lastProgress) -1 else percent.also { lastProgress = it }
+        }
+        if (progress >= 0) {
+            callback.onPayloadProgressChanged(progress)
+        }
+    }
+
+    private fun descriptor(index: Int): JSONObject = JSONObject()
+        .put("id", id)
+        .put("index", index)
+        .put("count", links.size)
+        .put("chunkSize", StripedPayloads.CHUNK_SIZE)
+
+    // Called the first time the other end reads from the first stripe, so we know it got the packet
+    private fun startSecondaryStripes() {
+        for (index in 1 until links.size) {
+            val stripePacket = NetworkPacket(StripedPayloads.PACKET_TYPE_STRIPE)
+            stripePacket.payloadTransferInfo.put(StripedPayloads.KEY_STRIPE, descriptor(index))
+            stripePacket.payload = NetworkPacket.Payload(StripeInputStream(index), totalSize)
+            lock.withLock { activeStripes++ }
+            ThreadHelper.execute(ThreadHelper.Pool.PAYLOAD) {
+                sendStripe(index, stripePacket)
+            }
+        }
+    }
+
+    private fun sendStripe(index: Int, packet: NetworkPacket): Boolean {
+        val link = links[index]
+        val started = link.health.sendStarted()
+        val sent = try {
+            // Progress and the final result are reported to the callback of the whole transfer
+            link.sendPacket(packet, ignoreCallback, true)
+        } catch (e: IOException) {
+            Log.w(LOG_TAG, "Stripe $index over ${link.name} failed", e)
+            false
+        }
+        link.health.sendFinished(started, sent, 0)
+        onStripeEnded(index)
+        return sent
+    }
+
+    private fun onStripeEnded(index: Int) = lock.withLock {
+        activeStripes--
+        // Whatever this stripe didn't get acknowledged has to go through another one
+        for (chunk in unacked.values) {
+            if (chunk.stripe == index) {
+                retry[chunk.offset] = chunk
+            }
+        }
+        if (failure == null && activeStripes == 0 && ackedOffset < totalSize) {
+            failure = IOException("All the links used for the transfer failed")
+        }
+        changed.signalAll()
+    }
+
+    /**
+     * Returns the next chunk this stripe should send, or null if the whole payload has been acknowledged
+     */
+    private fun nextChunk(stripe: Int): Chunk? {
+        var startSecondary = false
+        var chunk: Chunk? = null
+        lock.withLock {
+            while (chunk == null) {
+                if (np.isCanceled) {
+                    throw IOException("Transfer canceled")
+                }
+                failure?.let { throw it }
+                chunk = retry.pollFirstEntry()?.value?.also { it.stripe = stripe }
+                if (chunk == null && nextSourceOffset < totalSize && nextSourceOffset - ackedOffset < StripedPayloads.WINDOW_SIZE) {
+                    chunk = readChunk(stripe).also { unacked[it.offset] = it }
+                    if (!secondaryStripesStarted) {
+                        secondaryStripesStarted = true
+                        startSecondary = true
+                    }
+                }
+                if (chunk == null) {
+                    if (ackedOffset >= totalSize) {
+                        break
+                    }
+                    if (!changed.await(StripedPayloads.ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        failure = IOException("Timed out waiting for the other end to acknowledge the payload")
+                        changed.signalAll()
+                    }
+                }
+            }
+        }
+        if (startSecondary) {
+            startSecondaryStripes()
+        }
+        return chunk
+    }
+
+    // Called with the lock held, so chunks are read from the source in order
+    private fun readChunk(stripe: Int): Chunk {
+        val size = minOf(StripedPayloads.CHUNK_SIZE.toLong(), totalSize - nextSourceOffset).toInt()
+        val data = ByteArray(size)
+        var read = 0
+        try {
+            while (read < size) {
+                val n = source.read(data, read, size - read)
+                if (n < 0) {
+                    throw IOException("Payload ended after ${nextSourceOffset + read} of $totalSize bytes")
+                }
+                read += n
+            }
+        } catch (e: IOException) {
+            failure = e
+            changed.signalAll()
+            throw e
+        }
+        val chunk = Chunk(nextSourceOffset, data, stripe)
+        nextSourceOffset += size
+        return chunk
+    }
+
+    /**
+     * What a link sends as the payload of a stripe: one frame per chunk the stripe takes
+     */
+    private inner class StripeInputStream(private val stripe: Int) : InputStream() {
+        private var frame: ByteBuffer? = null
+        private var finished = false
+
+        override fun read(): Int {
+            val single = ByteArray(1)
+            return if (read(single, 0, 1) < 0) -1 else single[0].toInt() and 0xFF
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) {
+                return 0
+            }
+            var current = frame
+            if (current == null || !current.hasRemaining()) {
+                if (finished) {
+                    return -1
+                }
+                val chunk = nextChunk(stripe)
+                if (chunk == null) {
+                    finished = true
+                    return -1
+                }
+                current = ByteBuffer.allocate(StripedPayloads.FRAME_HEADER_SIZE + chunk.data.size)
+                    .putLong(chunk.offset)
+                    .putInt(chunk.data.size)
+                    .put(chunk.data)
+                current.flip()
+                frame = current
+            }
+            val n = minOf(len, current.remaining())
+            current.get(b, off, n)
+            return n
+        }
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/StripedPayload"
+
+        private val ignoreCallback = object : Device.SendPacketStatusCallback() {
+            override fun onSuccess() {}
+            override fun onFailure(e: Throwable) {}
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.json.JSONObject
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.LinkHealth
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Striped payload transfers for a device: when it's connected through more than one link, a big payload
+ * is split in chunks that are sent in parallel over all of them. Only used if the other device supports it,
+ * which it announces by listing PACKET_TYPE_STRIPE in its capabilities.
+ *
+ * The packet is sent as usual over the best link, with a "stripe" entry in its payloadTransferInfo that
+ * tells the other end to expect the rest of the chunks in PACKET_TYPE_STRIPE packets over the other links.
+ * The receiver acknowledges what it has read with PACKET_TYPE_STRIPE packets without payload.
+ */
+internal class StripedPayloads @VisibleForTesting constructor(
+    private val device: Device,
+    private val abandonedTimeoutMillis: Long,
+) {
+    constructor(device: Device) : this(device, ACK_TIMEOUT_MILLIS)
+
+    private val cleanupScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    private val senders = ConcurrentHashMap<String, StripedPayloadSender>()
+    private val receivers = ConcurrentHashMap<String, StripedPayloadReceiver>()
+
+    /**
+     * Returns null if the packet wasn't sent striped and has to be sent as usual
+     */
+    @WorkerThread
+    fun trySend(np: NetworkPacket, callback: Device.SendPacketStatusCallback, links: List<BaseLink>, sendPayloadFromSameThread: Boolean): Boolean? {
+        if (np.payloadSize < MIN_PAYLOAD_SIZE || np.payload?.inputStream == null) {
+            return null
+        }
+        if (device.deviceInfo.incomingCapabilities?.contains(PACKET_TYPE_STRIPE) != true) {
+            return null
+        }
+        val stripeLinks = LinkHealth.orderLinksForPacket(links, np).filter { it.health.isHealthy() }.take(MAX_STRIPES)
+        if (stripeLinks.size < 2) {
+            return null
+        }
+
+        val sender = StripedPayloadSender(np, callback, stripeLinks)
+        val send = {
+            senders[sender.id] = sender
+            try {
+                sender.send()
+            } finally {
+                senders.remove(sender.id)
+            }
+        }
+        if (sendPayloadFromSameThread) {
+            return send()
+        }
+        // Like the links do with payloads, don't block until the payload is sent
+        ThreadHelper.execute(ThreadHelper.Pool.PAYLOAD) {
+            if (send() == null) {
+                device.sendPacketOverOneLink(np, callback, true)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Returns true if the packet was part of a striped transfer and mustn't be delivered to the plugins.
+     * Otherwise, if it's the packet a striped payload belongs to, its payload is replaced with the reassembled one.
+     */
+    fun onPacketReceived(np: NetworkPacket): Boolean {
+        if (np.type == PACKET_TYPE_STRIPE) {
+            if (np.has("acked")) {
+                senders[np.getString("id")]?.onAcked(np.getLong("acked"))
+                return true
+            }
+            val payload = np.payload ?: return true
+            val receiver = np.payloadTransferInfo.optJSONObject(KEY_STRIPE)?.let { receiverFor(it) }
+            if (receiver == null) {
+                payload.close()
+            } else {
+                receiver.addStripe(payload)
+            }
+            return true
+        }
+
+        val stripeInfo = np.payloadTransferInfo.optJSONObject(KEY_STRIPE) ?: return false
+        val payload = np.payload ?: return false
+        val receiver = receiverFor(stripeInfo)
+        if (receiver == null) {
+            payload.close()
+            np.payload = null
+            return false
+        }
+        receiver.setTotalSize(np.payloadSize)
+        receiver.addStripe(payload)
+        np.payload = NetworkPacket.Payload(receiver.inputStream, np.payloadSize)
+        return false
+    }
+
+    private fun receiverFor(stripeInfo: JSONObject): StripedPayloadReceiver? {
+        val id = stripeInfo.optString("id")
+        val count = stripeInfo.optInt("count")
+        val chunkSize = stripeInfo.optInt("chunkSize")
+        if (id.isEmpty() || count !in 1..MAX_STRIPES || chunkSize !in 1..MAX_CHUNK_SIZE) {
+            Log.w(LOG_TAG, "Ignoring invalid stripe info: $stripeInfo")
+            return null
+        }
+        return receivers.computeIfAbsent(id) {
+            StripedPayloadReceiver(id, count, chunkSize, { offset -> sendAck(id, offset) }, { receivers.remove(it.id, it) })
+                .also(::closeIfAbandoned)
+        }
+    }
+
+    // The stripes of a transfer whose packet never arrives would be kept open otherwise
+    private fun closeIfAbandoned(receiver: StripedPayloadReceiver) {
+        cleanupScope.launch {
+            delay(abandonedTimeoutMillis)
+            if (!receiver.hasPrimaryPacket) {
+                Log.w(LOG_TAG, "Closing the stripes of transfer ${receiver.id}, its packet never arrived")
+                receiver.close()
+            }
+        }
+    }
+
+    /**
+     * Called when the device has no links left, so nothing else can arrive for the transfers we are receiving
+     */
+    fun onDisconnected() {
+        receivers.values.toList().forEach { it.close() }
+    }
+
+    private fun sendAck(id: String, offset: Long) {
+        val np = NetworkPacket(PACKET_TYPE_STRIPE)
+        np["id"] = id
+        np["acked"] = offset
+        device.sendPacket(np)
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/StripedPayload"
+
+        const val PACKET_TYPE_STRIPE = "kdeconnect.payload.stripe"
+        const val KEY_STRIPE = "stripe"
+
+        const val CHUNK_SIZE = 256 * 1024
+        private const val MAX_CHUNK_SIZE = 4 * 1024 * 1024
+
+        /**
+         * How much data can be sent and not acknowledged yet. Also bounds how much the receiver has to buffer.
+         */
+        const val WINDOW_SIZE = 8L * 1024 * 1024
+        const val ACK_INTERVAL = WINDOW_SIZE / 4
+        const val ACK_TIMEOUT_MILLIS = 30_000L
+
+        private const val MIN_PAYLOAD_SIZE = 16L * 1024 * 1024
+        private const val MAX_STRIPES = 4
+
+        /**
+         * Size of the offset and the length that precede each chunk
+         */
+        const val FRAME_HEADER_SIZE = 12
+    }
+}
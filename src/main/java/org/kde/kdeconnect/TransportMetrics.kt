@@ -0,0 +1,151 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counters and latency histograms of the transport layer, shared by all the links and devices, so we
+ * can see in the field how the connections behave (see the "Transport metrics" entry in the device menu).
+ *
+ * Metrics are created the first time they are asked for. Code in hot paths should keep the returned
+ * counter or histogram instead of looking it up by name every time.
+ */
+object TransportMetrics {
+    private val counters: ConcurrentMap<String, AtomicLong> = ConcurrentHashMap()
+    private val histograms: ConcurrentMap<String, LatencyHistogram> = ConcurrentHashMap()
+    private val packetsSentByType: ConcurrentMap<String, AtomicLong> = ConcurrentHashMap()
+    private val packetsReceivedByType: ConcurrentMap<String, AtomicLong> = ConcurrentHashMap()
+
+    private val startedAtMillis = System.currentTimeMillis()
+
+    /**
+     * Prefixes of the metrics of each kind of link
+     */
+    private val linkTypes = listOf("lan", "bluetooth")
+
+    @JvmStatic
+    fun counter(name: String): AtomicLong =
+        counters[name] ?: AtomicLong().let { counters.putIfAbsent(name, it) ?: it }
+
+    @JvmStatic
+    fun histogram(name: String): LatencyHistogram =
+        histograms[name] ?: LatencyHistogram().let { histograms.putIfAbsent(name, it) ?: it }
+
+    fun countPacketSent(packetType: String) {
+        (packetsSentByType[packetType] ?: AtomicLong().let { packetsSentByType.putIfAbsent(packetType, it) ?: it }).incrementAndGet()
+    }
+
+    fun countPacketReceived(packetType: String) {
+        (packetsReceivedByType[packetType] ?: AtomicLong().let { packetsReceivedByType.putIfAbsent(packetType, it) ?: it }).incrementAndGet()
+    }
+
+    /**
+     * Everything we measure, in a format meant to be read by scripts
+     */
+    fun toJson(): JSONObject {
+        val json = JSONObject()
+        json.put("uptimeMillis", System.currentTimeMillis() - startedAtMillis)
+        json.put("counters", JSONObject().apply {
+            counters.toSortedMap().forEach { (name, value) -> put(name, value.get()) }
+        })
+        json.put("histograms", JSONObject().apply {
+            histograms.toSortedMap().forEach { (name, histogram) -> put(name, histogram.toJson()) }
+        })
+        json.put("payloadThroughput", JSONObject().apply {
+            for (link in linkTypes) {
+                put(link, payloadBytesPerSecond(link))
+            }
+        })
+        json.put("packetsSent", JSONObject().apply {
+            packetsSentByType.toSortedMap().forEach { (type, value) -> put(type, value.get()) }
+        })
+        json.put("packetsReceived", JSONObject().apply {
+            packetsReceivedByType.toSortedMap().forEach { (type, value) -> put(type, value.get()) }
+        })
+        json.put("threadPools", JSONArray().apply {
+            ThreadHelper.getStats().forEach { stats ->
+                put(JSONObject()
+                    .put("name", stats.name)
+                    .put("poolSize", stats.poolSize)
+                    .put("active", stats.activeCount)
+                    .put("queueDepth", stats.queueDepth)
+                    .put("completed", stats.completedTasks)
+                    .put("rejected", stats.rejectedTasks)
+                    .put("overflowed", stats.overflowedTasks)
+                    .put("averageWaitMillis", stats.averageWaitMillis)
+                    .put("maxWaitMillis", stats.maxWaitMillis))
+            }
+        })
+        json.put("devices", JSONArray().apply {
+            for (device in connectedDevices()) {
+                put(JSONObject()
+                    .put("id", device.deviceId)
+                    .put("name", device.name)
+                    .put("sendQueueDepth", device.sendQueueDepth)
+                    .put("links", JSONArray().apply {
+                        device.connectedLinks.forEach { link ->
+                            val health = link.health
+                            put(JSONObject()
+                                .put("name", link.name)
+                                .put("healthy", health.isHealthy())
+                                .put("queueDepth", health.queueDepth)
+                                .put("expectedLatencyMillis", health.expectedLatencyMillis())
+                                .put("throughputBytesPerSecond", health.throughputBytesPerSecond()))
+                        }
+                    }))
+            }
+        })
+        return json
+    }
+
+    /**
+     * The same as toJson(), laid out to be read by a person
+     */
+    fun dump(): String = buildString {
+        append("Uptime: ").append((System.currentTimeMillis() - startedAtMillis) / 1000).append("s\n")
+        append("\nCounters\n")
+        counters.toSortedMap().forEach { (name, value) -> append("• ").append(name).append(": ").append(value.get()).append('\n') }
+        for (link in linkTypes) {
+            append("• ").append(link).append(".payloadThroughput: ").append(payloadBytesPerSecond(link) / 1024).append(" KiB/s\n")
+        }
+        append("\nLatencies\n")
+        histograms.toSortedMap().forEach { (name, histogram) -> append("• ").append(name).append(": ").append(histogram).append('\n') }
+        append("\nThread pools\n")
+        ThreadHelper.getStats().forEach { stats ->
+            append("• ").append(stats.name).append(": ").append(stats.activeCount).append(" active, ")
+                .append(stats.queueDepth).append(" queued, ").append(stats.rejectedTasks).append(" rejected, ")
+                .append(stats.overflowedTasks).append(" overflowed\n")
+        }
+        append("\nDevices\n")
+        for (device in connectedDevices()) {
+            append("• ").append(device.name).append(": ").append(device.sendQueueDepth).append(" queued\n")
+            device.connectedLinks.forEach { link ->
+                val health = link.health
+                append("    ").append(link.name).append(if (health.isHealthy()) " healthy, " else " unhealthy, ")
+                    .append("%.1f".format(health.expectedLatencyMillis())).append("ms, ")
+                    .append(health.queueDepth).append(" in flight\n")
+            }
+        }
+        append("\nPackets sent\n")
+        packetsSentByType.toSortedMap().forEach { (type, value) -> append("• ").append(type.removePrefix("kdeconnect.")).append(": ").append(value.get()).append('\n') }
+        append("\nPackets received\n")
+        packetsReceivedByType.toSortedMap().forEach { (type, value) -> append("• ").append(type.removePrefix("kdeconnect.")).append(": ").append(value.get()).append('\n') }
+    }
+
+    private fun payloadBytesPerSecond(link: String): Long {
+        val nanos = counter("$link.payloadNanosOut").get()
+        return if (nanos > 0) (counter("$link.payloadBytesOut").get() * 1e9 / nanos).toLong() else 0
+    }
+
+    private fun connectedDevices(): List<Device> =
+        KdeConnect.getInstance().devices.values.filter { it.isReachable }
+}
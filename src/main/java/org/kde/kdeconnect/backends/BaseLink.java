@@ -28,6 +28,7 @@ public abstract class BaseLink {
     protected final Context context;
     private final BaseLinkProvider linkProvider;
     private final ArrayList<PacketReceiver> receivers = new ArrayList<>();
+    private final LinkHealth health = new LinkHealth();
 
     protected BaseLink(@NonNull Context context, @NonNull BaseLinkProvider linkProvider) {
         this.context = context;
@@ -47,6 +48,10 @@ public abstract class BaseLink {
         return linkProvider;
     }
 
+    public @NonNull LinkHealth getHealth() {
+        return health;
+    }
+
     public void addPacketReceiver(@NonNull PacketReceiver pr) {
         receivers.add(pr);
     }
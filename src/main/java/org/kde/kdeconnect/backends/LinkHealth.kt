@@ -0,0 +1,166 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends
+
+import androidx.annotation.VisibleForTesting
+import org.kde.kdeconnect.NetworkPacket
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.pow
+
+/**
+ * Keeps track of how well a link has been sending packets, so we can prefer a healthy link over a
+ * degraded one regardless of the priority of their providers.
+ *
+ * The protocol has no acknowledgements, so the latency we measure is how long sendPacket takes to
+ * write a packet: a link whose socket buffers are full because the other end isn't reading blocks there.
+ * Old measurements fade away, so a link we stopped using because it was slow gets tried again eventually.
+ */
+class LinkHealth @VisibleForTesting internal constructor(private val clock: () -> Long) {
+
+    constructor() : this(System::nanoTime)
+
+    private val inFlight = AtomicInteger()
+
+    // The last time a send started on an idle link or finished while others were in flight
+    @Volatile
+    private var busySinceNanos = 0L
+
+    // Guarded by this
+    private var latencyMillis = 0.0
+    private var errorRate = 0.0
+    private var lastSampleNanos = 0L
+    private var throughputBytesPerSecond = 0.0
+    private var lastThroughputSampleNanos = 0L
+
+    val queueDepth: Int
+        get() = inFlight.get()
+
+    /**
+     * Call before sending a packet, and pass the value it returns to sendFinished.
+     */
+    fun sendStarted(): Long {
+        val now = clock()
+        if (inFlight.getAndIncrement() == 0) {
+            busySinceNanos = now
+        }
+        return now
+    }
+
+    /**
+     * @param payloadBytes the size of the payload if it was sent before returning, or 0
+     */
+    fun sendFinished(startedNanos: Long, success: Boolean, payloadBytes: Long) {
+        val now = clock()
+        if (inFlight.decrementAndGet() > 0) {
+            busySinceNanos = now
+        }
+        val elapsedNanos = now - startedNanos
+        synchronized(this) {
+            val weight = fadingWeight(now, lastSampleNanos)
+            if (payloadBytes == 0L) {
+                latencyMillis = ewma(latencyMillis * weight, elapsedNanos / 1_000_000.0)
+            }
+            errorRate = ewma(errorRate * weight, if (success) 0.0 else 1.0)
+            lastSampleNanos = now
+            if (success && payloadBytes >= MIN_PAYLOAD_FOR_THROUGHPUT && elapsedNanos > 0) {
+                val bytesPerSecond = payloadBytes * 1_000_000_000.0 / elapsedNanos
+                throughputBytesPerSecond = if (throughputBytesPerSecond == 0.0) bytesPerSecond else ewma(throughputBytesPerSecond, bytesPerSecond)
+                lastThroughputSampleNanos = now
+            }
+        }
+    }
+
+    /**
+     * Whether a send has been blocked for a while without any other send finishing
+     */
+    fun isStalled(): Boolean = isStalled(clock())
+
+    private fun isStalled(now: Long): Boolean = inFlight.get() > 0 && now - busySinceNanos > STALL_THRESHOLD_NANOS
+
+    /**
+     * Estimation of how long it would take to send a packet without payload, in milliseconds
+     */
+    fun expectedLatencyMillis(): Double {
+        val now = clock()
+        val (latency, errors) = synchronized(this) {
+            val weight = fadingWeight(now, lastSampleNanos)
+            Pair(latencyMillis * weight, errorRate * weight)
+        }
+        var score = latency + errors * ERROR_PENALTY_MILLIS + queueDepth * latency
+        if (isStalled(now)) {
+            score += STALL_PENALTY_MILLIS
+        }
+        return score
+    }
+
+    /**
+     * Recently measured payload throughput, or 0 if we don't know
+     */
+    fun throughputBytesPerSecond(): Double {
+        val now = clock()
+        return synchronized(this) {
+            if (now - lastThroughputSampleNanos > THROUGHPUT_VALIDITY_NANOS) 0.0 else throughputBytesPerSecond
+        }
+    }
+
+    fun isHealthy(): Boolean {
+        val now = clock()
+        val errors = synchronized(this) { errorRate * fadingWeight(now, lastSampleNanos) }
+        return !isStalled(now) && errors < UNHEALTHY_ERROR_RATE
+    }
+
+    companion object {
+        private const val EWMA_ALPHA = 0.3
+        private const val HALF_LIFE_NANOS = 30_000_000_000L
+        private const val STALL_THRESHOLD_NANOS = 1_000_000_000L
+        private const val STALL_PENALTY_MILLIS = 10_000.0
+        private const val ERROR_PENALTY_MILLIS = 5_000.0
+        private const val UNHEALTHY_ERROR_RATE = 0.5
+        private const val MIN_PAYLOAD_FOR_THROUGHPUT = 64 * 1024L
+        private const val THROUGHPUT_VALIDITY_NANOS = 10 * 60_000_000_000L
+
+        /**
+         * A link with a worse expected latency than the highest priority link is only preferred over it
+         * if the difference is bigger than this, so we don't bounce between similar links.
+         */
+        private const val SWITCH_MARGIN_MILLIS = 50.0
+
+        private fun ewma(previous: Double, sample: Double) = previous + EWMA_ALPHA * (sample - previous)
+
+        private fun fadingWeight(now: Long, sampleNanos: Long): Double =
+            if (sampleNanos == 0L) 0.0 else 0.5.pow((now - sampleNanos).toDouble() / HALF_LIFE_NANOS)
+
+        /**
+         * Returns the links in the order they should be tried to send the packet. Packets with a payload go
+         * first to the link with the best throughput and the rest to the link with the lowest latency. When
+         * we can't tell, the priority of the link providers decides.
+         *
+         * @param links sorted by descending provider priority
+         */
+        @JvmStatic
+        fun orderLinksForPacket(links: List<BaseLink>, np: NetworkPacket): List<BaseLink> =
+            orderByHealth(links, np.hasPayload()) { it.health }
+
+        @VisibleForTesting
+        internal fun <T> orderByHealth(candidates: List<T>, bulk: Boolean, health: (T) -> LinkHealth): List<T> {
+            if (candidates.size < 2) {
+                return candidates
+            }
+            // Unhealthy links are only tried if all the healthy ones fail
+            val (healthy, unhealthy) = candidates.partition { health(it).isHealthy() }
+            val preferred = healthy.ifEmpty { unhealthy }
+            val best = if (bulk) {
+                preferred.maxByOrNull { health(it).throughputBytesPerSecond() }
+                    ?.takeIf { health(it).throughputBytesPerSecond() > health(preferred.first()).throughputBytesPerSecond() }
+            } else {
+                val scores = preferred.associateWith { health(it).expectedLatencyMillis() }
+                preferred.minByOrNull { scores.getValue(it) }
+                    ?.takeIf { scores.getValue(it) + SWITCH_MARGIN_MILLIS < scores.getValue(preferred.first()) }
+            } ?: preferred.first()
+            return listOf(best) + (healthy - best) + (unhealthy - best)
+        }
+    }
+}
@@ -11,11 +11,13 @@ import android.content.Context
 import android.util.Log
 import androidx.annotation.WorkerThread
 import org.json.JSONException
-import org.json.JSONObject
+import org.kde.kdeconnect.CompactPacketCodec
 import org.kde.kdeconnect.backends.BaseLink
 import org.kde.kdeconnect.Device
 import org.kde.kdeconnect.DeviceInfo
 import org.kde.kdeconnect.NetworkPacket
+import org.kde.kdeconnect.PacketTracer
+import org.kde.kdeconnect.TransportMetrics
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
@@ -66,12 +68,17 @@ class BluetoothLink(
         }
 
         private fun processMessage(message: String) {
+            bytesIn.addAndGet(message.length.toLong())
+            val parseStarted = System.nanoTime()
             val np = try {
                 NetworkPacket.unserialize(message)
             } catch (e: JSONException) {
                 Log.e("BluetoothLink/receiving", "Unable to parse message.", e)
                 return
             }
+            parseTime.recordNanos(System.nanoTime() - parseStarted)
+            PacketTracer.stamp(np, PacketTracer.Stage.READ, parseStarted)
+            PacketTracer.stamp(np, PacketTracer.Stage.PARSED)
             if (np.hasPayloadTransferInfo()) {
                 try {
                     val transferUuid = UUID.fromString(np.payloadTransferInfo.getString("uuid"))
@@ -108,8 +115,13 @@ class BluetoothLink(
 
     @Throws(JSONException::class, IOException::class)
     private fun sendMessage(np: NetworkPacket) {
-        val message = np.serialize().toByteArray(UTF_8)
+        val serializeStarted = System.nanoTime()
+        val message = np.serialize(CompactPacketCodec.isSupportedBy(theDeviceInfo)).toByteArray(UTF_8)
+        serializeTime.recordNanos(System.nanoTime() - serializeStarted)
+        PacketTracer.stamp(np, PacketTracer.Stage.SERIALIZED)
         output.write(message)
+        bytesOut.addAndGet(message.size.toLong())
+        PacketTracer.stamp(np, PacketTracer.Stage.WRITTEN)
     }
 
     @WorkerThread
@@ -121,13 +133,12 @@ class BluetoothLink(
             var transferUuid: UUID? = null
             if (np.hasPayload()) {
                 transferUuid = connection.newChannel()
-                val payloadTransferInfo = JSONObject()
-                payloadTransferInfo.put("uuid", transferUuid.toString())
-                np.payloadTransferInfo = payloadTransferInfo
+                np.payloadTransferInfo.put("uuid", transferUuid.toString())
             }
             sendMessage(np)
             if (transferUuid != null) {
                 try {
+                    val payloadStarted = System.nanoTime()
                     connection.getChannelOutputStream(transferUuid).use { payloadStream ->
                         val BUFFER_LENGTH = 1024
                         val buffer = ByteArray(BUFFER_LENGTH)
@@ -142,6 +153,8 @@ class BluetoothLink(
                             }
                         }
                         payloadStream.flush()
+                        payloadBytesOut.addAndGet(progress)
+                        payloadNanosOut.addAndGet(System.nanoTime() - payloadStarted)
                     }
                 } catch (e: Exception) {
                     callback.onFailure(e)
@@ -155,4 +168,13 @@ class BluetoothLink(
             false
         }
     }
+
+    companion object {
+        private val bytesOut = TransportMetrics.counter("bluetooth.bytesOut")
+        private val bytesIn = TransportMetrics.counter("bluetooth.bytesIn")
+        private val payloadBytesOut = TransportMetrics.counter("bluetooth.payloadBytesOut")
+        private val payloadNanosOut = TransportMetrics.counter("bluetooth.payloadNanosOut")
+        private val serializeTime = TransportMetrics.histogram("bluetooth.serialize")
+        private val parseTime = TransportMetrics.histogram("bluetooth.parse")
+    }
 }
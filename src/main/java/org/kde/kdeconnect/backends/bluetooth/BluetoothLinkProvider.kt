@@ -28,7 +28,7 @@ import org.kde.kdeconnect.DeviceInfo
 import org.kde.kdeconnect.DeviceInfo.Companion.fromIdentityPacketAndCert
 import org.kde.kdeconnect.helpers.DeviceHelper
 import org.kde.kdeconnect.helpers.security.SslHelper
-import org.kde.kdeconnect.helpers.ThreadHelper.execute
+import org.kde.kdeconnect.helpers.ThreadHelper
 import org.kde.kdeconnect.NetworkPacket
 import org.kde.kdeconnect.ui.SettingsFragment
 import org.kde.kdeconnect.extensions.getParcelableArrayExtraCompat
@@ -84,11 +84,11 @@ class BluetoothLinkProvider(private val context: Context) : BaseLinkProvider() {
 
         //This handles the case when I'm the existing device in the network and receive a hello package
         clientRunnable = ClientRunnable()
-        execute(clientRunnable!!)
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK, clientRunnable!!)
 
         // I'm on a new network, let's be polite and introduce myself
         serverRunnable = ServerRunnable()
-        execute(serverRunnable!!)
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK, serverRunnable!!)
     }
 
     override fun onNetworkChange(network: Network?) {
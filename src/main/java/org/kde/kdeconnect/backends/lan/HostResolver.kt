@@ -0,0 +1,91 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.util.Log
+import androidx.annotation.WorkerThread
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import org.kde.kdeconnect.DeviceHost
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Resolves the hosts in the custom device list concurrently, so a single host that doesn't resolve
+ * doesn't delay the others. Results are cached: successful ones for longer than failed ones.
+ */
+class HostResolver {
+
+    fun interface Callback {
+        @WorkerThread
+        fun onResolved(address: InetAddress)
+    }
+
+    private data class CacheEntry(val address: InetAddress?, val expiresAt: Long)
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val cache = ConcurrentHashMap<String, CacheEntry>()
+    private val inFlight = ConcurrentHashMap<String, Deferred<InetAddress?>>()
+
+    /**
+     * Calls the callback for each host that resolves, as soon as it resolves. Hosts that don't
+     * resolve within RESOLVE_TIMEOUT_MILLIS are skipped.
+     */
+    fun resolve(hosts: List<DeviceHost>, callback: Callback) {
+        for (host in hosts.map { it.toString() }.distinct()) {
+            scope.launch {
+                resolve(host)?.let { callback.onResolved(it) }
+            }
+        }
+    }
+
+    private suspend fun resolve(host: String): InetAddress? {
+        val now = System.currentTimeMillis()
+        val cached = cache[host]
+        if (cached != null && cached.expiresAt > now) {
+            return cached.address
+        }
+        val resolution = inFlight.computeIfAbsent(host) {
+            scope.async {
+                val address = try {
+                    InetAddress.getByName(host)
+                } catch (e: UnknownHostException) {
+                    Log.w(LOG_TAG, "Couldn't resolve $host: ${e.message}")
+                    null
+                }
+                val ttl = if (address != null) POSITIVE_TTL_MILLIS else NEGATIVE_TTL_MILLIS
+                cache[host] = CacheEntry(address, System.currentTimeMillis() + ttl)
+                inFlight.remove(host)
+                address
+            }
+        }
+        return withTimeoutOrNull(RESOLVE_TIMEOUT_MILLIS) { resolution.await() } ?: run {
+            if (resolution.isActive) {
+                Log.w(LOG_TAG, "Timed out resolving $host")
+                // Don't try again for a while, unless the resolution we left running finishes first
+                val timedOutAt = System.currentTimeMillis()
+                cache.compute(host) { _, entry ->
+                    entry?.takeIf { it.expiresAt > timedOutAt } ?: CacheEntry(null, timedOutAt + NEGATIVE_TTL_MILLIS)
+                }
+            }
+            null
+        }
+    }
+
+    companion object {
+        private const val LOG_TAG = "HostResolver"
+
+        private const val RESOLVE_TIMEOUT_MILLIS = 2_000L
+        private const val POSITIVE_TTL_MILLIS = 5 * 60 * 1000L
+        private const val NEGATIVE_TTL_MILLIS = 30 * 1000L
+    }
+}
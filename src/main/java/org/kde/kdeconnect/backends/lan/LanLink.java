@@ -6,45 +6,60 @@
 
 package org.kde.kdeconnect.backends.lan;
 
-import static org.kde.kdeconnect.helpers.BoundedLineReaderKt.readLineBounded;
-
 import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import org.apache.commons.io.IOUtils;
-import org.json.JSONObject;
+import org.json.JSONException;
+import org.kde.kdeconnect.CompactPacketCodec;
 import org.kde.kdeconnect.backends.BaseLink;
 import org.kde.kdeconnect.backends.BaseLinkProvider;
 import org.kde.kdeconnect.Device;
 import org.kde.kdeconnect.DeviceInfo;
+import org.kde.kdeconnect.LatencyHistogram;
 import org.kde.kdeconnect.helpers.security.SslHelper;
 import org.kde.kdeconnect.helpers.ThreadHelper;
 import org.kde.kdeconnect.NetworkPacket;
+import org.kde.kdeconnect.PacketTracer;
+import org.kde.kdeconnect.TransportMetrics;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.channels.NotYetConnectedException;
 import java.security.cert.CertificateException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSocket;
 
 import kotlin.text.Charsets;
 import org.kde.kdeconnect.helpers.LineTooLongException;
+import org.kde.kdeconnect.helpers.ReceivedLine;
+import org.kde.kdeconnect.helpers.SpillingLineBuffer;
 
 public class LanLink extends BaseLink {
 
     final static int MAX_PACKET_SIZE = 32 * 1024 * 1024;
 
+    private static final AtomicLong BYTES_OUT = TransportMetrics.counter("lan.bytesOut");
+    private static final AtomicLong BYTES_IN = TransportMetrics.counter("lan.bytesIn");
+    private static final AtomicLong PAYLOAD_BYTES_OUT = TransportMetrics.counter("lan.payloadBytesOut");
+    private static final AtomicLong PAYLOAD_NANOS_OUT = TransportMetrics.counter("lan.payloadNanosOut");
+    private static final LatencyHistogram SERIALIZE_TIME = TransportMetrics.histogram("lan.serialize");
+    private static final LatencyHistogram PARSE_TIME = TransportMetrics.histogram("lan.parse");
+
     public enum ConnectionStarted {
         Locally, Remotely
     }
@@ -53,8 +68,24 @@ public class LanLink extends BaseLink {
 
     private volatile SSLSocket socket = null;
 
+    // Used instead of the socket when the provider uses the NioLanEngine
+    private volatile NioConnection nioConnection = null;
+
+    // Taken to replace the socket and to decide the link is lost, so those can't race. Always after writeLock.
+    private final Object handoverLock = new Object();
+    private boolean lost = false; // Guarded by handoverLock
+    private int pendingResets = 0; // Guarded by handoverLock
+
+    private final Object writeLock = new Object();
+
     @Override
     public void disconnect() {
+        NioConnection nioConnection = this.nioConnection;
+        if (nioConnection != null) {
+            Log.i("LanLink/Disconnect","nioConnection:"+ nioConnection.hashCode());
+            nioConnection.close();
+            return;
+        }
         Log.i("LanLink/Disconnect","socket:"+ socket.hashCode());
         try {
             socket.close();
@@ -63,47 +94,157 @@ public class LanLink extends BaseLink {
         }
     }
 
-    //Returns the old socket
+    /**
+     * Replaces the socket (or connection) we use with a new one. Packets being written to the old socket are
+     * written again to the new one, as well as those queued on an old NioConnection and not sent yet.
+     *
+     * @return false if the link had already been lost, in which case the new socket isn't used
+     */
     @WorkerThread
-    public SSLSocket reset(final SSLSocket newSocket, final DeviceInfo deviceInfo) throws IOException {
-
-        this.deviceInfo = deviceInfo;
-
-        SSLSocket oldSocket = socket;
-        socket = newSocket;
+    public boolean reset(final SSLSocket newSocket, final DeviceInfo deviceInfo) throws IOException {
 
-        IOUtils.close(oldSocket); //This should cancel the readThread
+        if (!replaceTransport(newSocket, null, deviceInfo)) {
+            return false;
+        }
 
         //Log.e("LanLink", "Start listening");
         //Create a thread to take care of incoming data for the new socket
-        ThreadHelper.execute(() -> {
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK, () -> {
+            SpillingLineBuffer lineBuffer = new SpillingLineBuffer(SpillingLineBuffer.spillDir(context), MAX_PACKET_SIZE);
             try {
                 BufferedInputStream stream = new BufferedInputStream(newSocket.getInputStream());
                 while (true) {
-                    String packet;
+                    ReceivedLine line;
                     try {
-                        packet = readLineBounded(stream, MAX_PACKET_SIZE);
+                        line = lineBuffer.readLine(stream);
                     } catch (LineTooLongException | SocketTimeoutException e) {
                         continue;
                     }
-                    if (packet.isEmpty()) {
+                    if (line.getSize() <= 1) {
                         continue;
                     }
-                    NetworkPacket np = NetworkPacket.unserialize(packet);
+                    NetworkPacket np = parse(line);
                     receivedNetworkPacket(np);
                 }
             } catch (Exception e) {
                 Log.i("LanLink", "Socket closed: " + newSocket.hashCode() + ". Reason: " + e.getMessage());
-                try { Thread.sleep(300); } catch (InterruptedException ignored) {} // Wait a bit because we might receive a new socket meanwhile
-                boolean thereIsaANewSocket = (newSocket != socket);
-                if (!thereIsaANewSocket) {
-                    Log.i("LanLink", "Socket closed and there's no new socket, disconnecting device");
-                    getLinkProvider().onConnectionLost(LanLink.this);
-                }
+                lineBuffer.clear();
+                transportEnded(newSocket);
             }
         });
 
-        return oldSocket;
+        return true;
+    }
+
+    /**
+     * Like {@link #reset(SSLSocket, DeviceInfo)}, but for connections driven by the {@link NioLanEngine}.
+     * There is no reader thread: the provider passes us what the connection receives with
+     * {@link #nioLineReceived(ReceivedLine)} and lets us know when it closes with {@link #nioConnectionClosed(NioConnection)}.
+     */
+    @WorkerThread
+    public boolean reset(final NioConnection newConnection, final DeviceInfo deviceInfo) {
+        return replaceTransport(null, newConnection, deviceInfo);
+    }
+
+    /**
+     * Swaps the socket or connection and sends what the old connection had queued, all under writeLock, so no
+     * other write can get in between and reorder the packets.
+     */
+    private boolean replaceTransport(@Nullable SSLSocket newSocket, @Nullable NioConnection newConnection, DeviceInfo deviceInfo) {
+        SSLSocket oldSocket;
+        synchronized (handoverLock) {
+            if (lost) {
+                return false;
+            }
+            pendingResets++;
+            oldSocket = socket;
+        }
+
+        // Closing the old socket ends its reader, which sees a reset is pending and exits without disconnecting.
+        // It also makes a write blocked on it fail, so the writer lets go of writeLock and waits for the new socket.
+        IOUtils.closeQuietly(oldSocket);
+
+        synchronized (writeLock) {
+            NioConnection oldConnection;
+            synchronized (handoverLock) {
+                pendingResets--;
+                if (lost) {
+                    writeLock.notifyAll();
+                    return false;
+                }
+                this.deviceInfo = deviceInfo;
+                oldConnection = nioConnection;
+                socket = newSocket;
+                nioConnection = newConnection;
+            }
+            handOverUnsent(oldConnection);
+            writeLock.notifyAll();
+        }
+        return true;
+    }
+
+    // Called with writeLock held
+    private void handOverUnsent(@Nullable NioConnection oldConnection) {
+        if (oldConnection == null) {
+            return;
+        }
+        List<byte[]> unsent = oldConnection.closeAndTakeUnsent();
+        if (!unsent.isEmpty()) {
+            Log.i("LanLink", "Sending " + unsent.size() + " packets queued on the old connection over the new one");
+        }
+        for (byte[] data : unsent) {
+            try {
+                writeBytes(data);
+            } catch (IOException e) {
+                Log.w("LanLink", "Couldn't send packets queued on the old connection", e);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Called when a socket or connection we were using ends. Unless it had been replaced, there's nothing left to
+     * talk to the device over, so the link is lost. That is decided under the same lock reset() takes, so a new
+     * socket can't arrive in between and be ignored.
+     */
+    private void transportEnded(Object transport) {
+        synchronized (handoverLock) {
+            if (lost || pendingResets > 0 || (transport != socket && transport != nioConnection)) {
+                return;
+            }
+            lost = true;
+        }
+        Log.i("LanLink", "Socket closed and there's no new socket, disconnecting device");
+        getLinkProvider().onConnectionLost(LanLink.this);
+    }
+
+    /**
+     * Called sequentially, in the order they are received, for each line received by the current NioConnection.
+     */
+    @WorkerThread
+    void nioLineReceived(ReceivedLine line) {
+        try {
+            NetworkPacket np = parse(line);
+            receivedNetworkPacket(np);
+        } catch (Exception e) {
+            Log.e("LanLink", "Exception processing received packet", e);
+        }
+    }
+
+    private static NetworkPacket parse(ReceivedLine line) throws JSONException, IOException {
+        BYTES_IN.addAndGet(line.getSize());
+        long started = System.nanoTime();
+        NetworkPacket np = line.toPacket();
+        PARSE_TIME.recordNanos(System.nanoTime() - started);
+        PacketTracer.stamp(np, PacketTracer.Stage.READ, started);
+        PacketTracer.stamp(np, PacketTracer.Stage.PARSED);
+        return np;
+    }
+
+    @WorkerThread
+    void nioConnectionClosed(NioConnection connection) {
+        Log.i("LanLink", "Connection closed: " + connection.hashCode());
+        transportEnded(connection);
     }
 
     @WorkerThread
@@ -112,6 +253,12 @@ public class LanLink extends BaseLink {
         reset(socket, deviceInfo);
     }
 
+    @WorkerThread
+    public LanLink(@NonNull Context context, @NonNull DeviceInfo deviceInfo, @NonNull BaseLinkProvider linkProvider, @NonNull NioConnection connection) {
+        super(context, linkProvider);
+        reset(connection, deviceInfo);
+    }
+
     @Override
     public String getName() {
         return "LanLink";
@@ -125,7 +272,7 @@ public class LanLink extends BaseLink {
     @WorkerThread
     @Override
     public boolean sendPacket(@NonNull NetworkPacket np, @NonNull final Device.SendPacketStatusCallback callback, boolean sendPayloadFromSameThread) {
-        if (socket == null) {
+        if (socket == null && nioConnection == null) {
             Log.e("KDE/sendPacket", "Not yet connected");
             callback.onFailure(new NotYetConnectedException());
             return false;
@@ -137,9 +284,7 @@ public class LanLink extends BaseLink {
             final ServerSocket server;
             if (np.hasPayload()) {
                 server = LanLinkProvider.openServerSocketOnFreePort(LanLinkProvider.PAYLOAD_TRANSFER_MIN_PORT);
-                JSONObject payloadTransferInfo = new JSONObject();
-                payloadTransferInfo.put("port", server.getLocalPort());
-                np.setPayloadTransferInfo(payloadTransferInfo);
+                np.getPayloadTransferInfo().put("port", server.getLocalPort());
             } else {
                 server = null;
             }
@@ -148,9 +293,13 @@ public class LanLink extends BaseLink {
 
             //Send body of the network packet
             try {
-                OutputStream writer = socket.getOutputStream();
-                writer.write(np.serialize().getBytes(Charsets.UTF_8));
-                writer.flush();
+                long serializeStarted = System.nanoTime();
+                byte[] bytes = np.serialize(CompactPacketCodec.isSupportedBy(getDeviceInfo())).getBytes(Charsets.UTF_8);
+                SERIALIZE_TIME.recordNanos(System.nanoTime() - serializeStarted);
+                PacketTracer.stamp(np, PacketTracer.Stage.SERIALIZED);
+                writeBytes(bytes);
+                BYTES_OUT.addAndGet(bytes.length);
+                PacketTracer.stamp(np, PacketTracer.Stage.WRITTEN);
             } catch (Exception e) {
                 disconnect(); //main socket is broken, disconnect
                 if (server != null) {
@@ -164,7 +313,7 @@ public class LanLink extends BaseLink {
                 if (sendPayloadFromSameThread) {
                     sendPayload(np, callback, server);
                 } else {
-                    ThreadHelper.execute(() -> {
+                    ThreadHelper.execute(ThreadHelper.Pool.PAYLOAD, () -> {
                         try {
                             sendPayload(np, callback, server);
                         } catch (IOException e) {
@@ -190,6 +339,59 @@ public class LanLink extends BaseLink {
         }
     }
 
+    /**
+     * Writes to the current socket or connection. If it gets replaced while we are writing, we write again
+     * to the new one. Writes are serialized so that doesn't reorder packets.
+     */
+    private void writeBytes(byte[] data) throws IOException {
+        synchronized (writeLock) {
+            while (true) {
+                SSLSocket currentSocket = socket;
+                NioConnection currentConnection = nioConnection;
+                try {
+                    if (currentConnection != null) {
+                        currentConnection.send(data);
+                    } else {
+                        OutputStream writer = currentSocket.getOutputStream();
+                        writer.write(data);
+                        writer.flush();
+                    }
+                    return;
+                } catch (IOException e) {
+                    if (!awaitReplacement(currentSocket, currentConnection)) {
+                        throw e;
+                    }
+                    Log.i("LanLink", "Socket replaced while sending, sending again over the new one");
+                }
+            }
+        }
+    }
+
+    /**
+     * Called with writeLock held after a write fails. If a reset is replacing the socket or connection that failed,
+     * waits for it to finish (which needs writeLock, so it's released meanwhile).
+     *
+     * @return whether there's a new socket or connection to write to
+     */
+    private boolean awaitReplacement(@Nullable SSLSocket failedSocket, @Nullable NioConnection failedConnection) {
+        while (true) {
+            synchronized (handoverLock) {
+                if (socket != failedSocket || nioConnection != failedConnection) {
+                    return true;
+                }
+                if (pendingResets == 0) {
+                    return false;
+                }
+            }
+            try {
+                writeLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
     private void sendPayload(NetworkPacket np, Device.SendPacketStatusCallback callback, ServerSocket server) throws IOException {
         Socket payloadSocket = null;
         OutputStream outputStream = null;
@@ -208,6 +410,7 @@ public class LanLink extends BaseLink {
                 inputStream = np.getPayload().getInputStream();
 
                 Log.i("KDE/LanLink", "Beginning to send payload for " + np.getType());
+                long started = System.nanoTime();
                 byte[] buffer = new byte[4096];
                 int bytesRead;
                 long size = np.getPayloadSize();
@@ -226,6 +429,8 @@ public class LanLink extends BaseLink {
                     }
                 }
                 outputStream.flush();
+                PAYLOAD_BYTES_OUT.addAndGet(progress);
+                PAYLOAD_NANOS_OUT.addAndGet(System.nanoTime() - started);
                 Log.i("KDE/LanLink", "Finished sending payload (" + progress + " bytes written)");
             }
         } catch(SocketTimeoutException e) {
@@ -249,8 +454,9 @@ public class LanLink extends BaseLink {
             Socket payloadSocket = new Socket();
             try {
                 int tcpPort = np.getPayloadTransferInfo().getInt("port");
-                InetSocketAddress deviceAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
-                payloadSocket.connect(new InetSocketAddress(deviceAddress.getAddress(), tcpPort));
+                NioConnection nioConnection = this.nioConnection;
+                InetAddress deviceAddress = nioConnection != null ? nioConnection.getRemoteAddress() : socket.getInetAddress();
+                payloadSocket.connect(new InetSocketAddress(deviceAddress, tcpPort));
                 payloadSocket = SslHelper.convertToSslSocket(context, payloadSocket, getDeviceId(), true, true);
                 np.setPayload(new NetworkPacket.Payload(payloadSocket, np.getPayloadSize()));
             } catch (Exception e) {
@@ -17,22 +17,32 @@ import android.os.Build;
 import android.util.Log;
 import android.util.Pair;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
+import androidx.preference.PreferenceManager;
 
 import org.json.JSONException;
 import org.kde.kdeconnect.backends.BaseLink;
 import org.kde.kdeconnect.backends.BaseLinkProvider;
+import org.kde.kdeconnect.CapabilityDigests;
 import org.kde.kdeconnect.DeviceHost;
 import org.kde.kdeconnect.DeviceInfo;
+import org.kde.kdeconnect.LatencyHistogram;
 import org.kde.kdeconnect.helpers.DeviceHelper;
+import org.kde.kdeconnect.helpers.ReceivedLine;
+import org.kde.kdeconnect.helpers.SerialExecutor;
+import org.kde.kdeconnect.helpers.SpillingLineBuffer;
 import org.kde.kdeconnect.helpers.security.SslHelper;
 import org.kde.kdeconnect.helpers.ThreadHelper;
 import org.kde.kdeconnect.helpers.TrustedDevices;
 import org.kde.kdeconnect.helpers.TrustedNetworkHelper;
 import org.kde.kdeconnect.NetworkPacket;
+import org.kde.kdeconnect.TransportMetrics;
 import org.kde.kdeconnect.ui.CustomDevicesActivity;
+import org.kde.kdeconnect.ui.SettingsFragment;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -43,23 +53,26 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.net.SocketFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 
-import kotlin.text.Charsets;
-
 /**
  * This LanLinkProvider creates {@link LanLink}s to other devices on the same
  * WiFi network. The first packet sent over a socket must be an
  * {@link DeviceInfo#toIdentityPacket()}.
+ * <p>
+ * If enabled in the settings, the encrypted connections are driven by a {@link NioLanEngine}
+ * instead of having a reader thread each.
  *
  * @see #identityPacketReceived(NetworkPacket, Socket, LanLink.ConnectionStarted, boolean)
  */
@@ -71,10 +84,19 @@ public class LanLinkProvider extends BaseLinkProvider {
     final static int PAYLOAD_TRANSFER_MIN_PORT = 1739;
 
     final static int MAX_IDENTITY_PACKET_SIZE = 1024 * 512;
-    final static int MAX_UDP_PACKET_SIZE = 1024 * 512;
 
     final static long MILLIS_DELAY_BETWEEN_CONNECTIONS_TO_SAME_DEVICE = 1000L;
 
+    private static final LatencyHistogram HANDSHAKE_TIME = TransportMetrics.histogram("lan.handshake");
+    private static final AtomicLong HANDSHAKE_FAILURES = TransportMetrics.counter("lan.handshakeFailures");
+    private static final AtomicLong RECONNECTS = TransportMetrics.counter("lan.reconnects");
+    private static final AtomicLong RATE_LIMITED_BY_IP = TransportMetrics.counter("lan.rateLimitedByIp");
+    private static final AtomicLong RATE_LIMITED_BY_DEVICE_ID = TransportMetrics.counter("lan.rateLimitedByDeviceId");
+
+    final static int LAST_KNOWN_ADDRESS_CONNECT_TIMEOUT_MILLIS = 2000;
+    final static int CONNECT_TIMEOUT_MILLIS = 5000;
+    final static int IDENTITY_READ_TIMEOUT_MILLIS = 5000;
+
     private final Context context;
 
     final HashMap<String, LanLink> visibleDevices = new HashMap<>(); // Links by device id
@@ -85,8 +107,14 @@ public class LanLinkProvider extends BaseLinkProvider {
 
     private ServerSocket tcpServer;
     private DatagramSocket udpServer;
+    private final UdpReceivePipeline udpReceivePipeline = new UdpReceivePipeline(this::udpPacketReceived);
 
     private final MdnsDiscovery mdnsDiscovery;
+    private final LastKnownAddresses lastKnownAddresses;
+    // So we don't keep trying to connect to where a device that is no longer trusted was
+    private final TrustedDevices.UntrustedListener forgetUntrustedDevice;
+    private final HostResolver hostResolver = new HostResolver();
+    private final @Nullable NioLanEngine nioEngine;
 
     private long lastBroadcast = 0;
     private final static long delayBetweenBroadcasts = 200;
@@ -95,7 +123,10 @@ public class LanLinkProvider extends BaseLinkProvider {
 
     public void onConnectionLost(BaseLink link) {
         String deviceId = link.getDeviceId();
-        visibleDevices.remove(deviceId);
+        // A new link for the device might have been added already
+        if (visibleDevices.get(deviceId) == link) {
+            visibleDevices.remove(deviceId);
+        }
         super.onConnectionLost(link);
     }
 
@@ -159,6 +190,7 @@ public class LanLinkProvider extends BaseLinkProvider {
             //Log.e("TcpListener", "Received TCP packet: " + message);
         } catch (Exception e) {
             Log.e("KDE/LanLinkProvider", "Exception while receiving TCP packet", e);
+            try { socket.close(); } catch (IOException ignored) { }
             return;
         }
 
@@ -189,6 +221,7 @@ public class LanLinkProvider extends BaseLinkProvider {
         long now = System.currentTimeMillis();
         Long last = lastConnectionTimeByIp.get(address);
         if (last != null && (last + MILLIS_DELAY_BETWEEN_CONNECTIONS_TO_SAME_DEVICE > now)) {
+            RATE_LIMITED_BY_IP.incrementAndGet();
             return true;
         }
         lastConnectionTimeByIp.put(address, now);
@@ -202,6 +235,7 @@ public class LanLinkProvider extends BaseLinkProvider {
         long now = System.currentTimeMillis();
         Long last =  lastConnectionTimeByDeviceId.get(deviceId);
         if (last != null && (last + MILLIS_DELAY_BETWEEN_CONNECTIONS_TO_SAME_DEVICE > now)) {
+            RATE_LIMITED_BY_DEVICE_ID.incrementAndGet();
             return true;
         }
         lastConnectionTimeByDeviceId.put(deviceId, now);
@@ -213,9 +247,7 @@ public class LanLinkProvider extends BaseLinkProvider {
 
     //I've received their broadcast and should connect to their TCP socket and send my identity.
     @WorkerThread
-    private void udpPacketReceived(DatagramPacket packet) {
-
-        final InetAddress address = packet.getAddress();
+    private void udpPacketReceived(InetAddress address, String message) {
 
         if (!isPrivateAddress(address)) {
             Log.i("LanLinkProvider", "Discarding UDP packet from a non-local IP");
@@ -227,8 +259,6 @@ public class LanLinkProvider extends BaseLinkProvider {
             return;
         }
 
-        String message = new String(packet.getData(), Charsets.UTF_8);
-
         final Pair<NetworkPacket, Boolean> pair = unserializeReceivedIdentityPacket(message);
         if (pair == null) {
             return;
@@ -244,18 +274,31 @@ public class LanLinkProvider extends BaseLinkProvider {
             return;
         }
 
+        // Connecting and the handshake can block for seconds, so they don't hold up the next datagrams.
+        // When there are too many handshakes going on, drop this one. They will broadcast again.
+        boolean submitted = ThreadHelper.tryExecute(ThreadHelper.Pool.HANDSHAKE, () -> connectToBroadcastSender(address, tcpPort, identityPacket, deviceTrusted));
+        if (!submitted) {
+            Log.w("LanLinkProvider", "Too many handshakes in progress, ignoring the broadcast from " + address);
+        }
+    }
+
+    @WorkerThread
+    private void connectToBroadcastSender(InetAddress address, int tcpPort, NetworkPacket identityPacket, boolean deviceTrusted) {
         Socket socket = null;
         try {
-            socket = SocketFactory.getDefault().createSocket(address, tcpPort);
+            socket = createSocket();
+            socket.connect(new InetSocketAddress(address, tcpPort), CONNECT_TIMEOUT_MILLIS);
             configureSocket(socket);
 
-            DeviceInfo myDeviceInfo = DeviceHelper.getDeviceInfo(context);
-            NetworkPacket myIdentity = myDeviceInfo.toIdentityPacket();
-            myIdentity.set("targetDeviceId", identityPacket.getString("deviceId"));
-            myIdentity.set("targetProtocolVersion", identityPacket.getString("protocolVersion"));
+            // Let them know if we already have their capabilities, so they can skip sending them during the handshake
+            String theirCapabilitiesDigest = identityPacket.getStringOrNull("capabilitiesDigest");
+            if (!CapabilityDigests.isCached(theirCapabilitiesDigest)) {
+                theirCapabilitiesDigest = null;
+            }
+            byte[] myIdentity = DeviceHelper.getSerializedIdentityPacket(context, null, identityPacket.getString("deviceId"), identityPacket.getInt("protocolVersion"), theirCapabilitiesDigest);
 
             OutputStream out = socket.getOutputStream();
-            out.write(myIdentity.serialize().getBytes());
+            out.write(myIdentity);
             out.flush();
 
             identityPacketReceived(identityPacket, socket, LanLink.ConnectionStarted.Remotely, deviceTrusted);
@@ -267,9 +310,16 @@ public class LanLinkProvider extends BaseLinkProvider {
         }
     }
 
+    // When using the NioLanEngine, sockets need a channel so we can register them once they are encrypted
+    private Socket createSocket() throws IOException {
+        return nioEngine != null ? SocketChannel.open().socket() : new Socket();
+    }
+
     private void configureSocket(Socket socket) {
         try {
             socket.setKeepAlive(true);
+            // Until the socket is encrypted (which sets its own timeout), a peer that sends nothing would hold a handshake thread forever
+            socket.setSoTimeout(IDENTITY_READ_TIMEOUT_MILLIS);
         } catch (SocketException e) {
             Log.e("LanLink", "Exception", e);
         }
@@ -277,8 +327,9 @@ public class LanLinkProvider extends BaseLinkProvider {
 
     /**
      * Called when a new 'identity' packet is received. Those are passed here by
-     * {@link #tcpPacketReceived(Socket)} and {@link #udpPacketReceived(DatagramPacket)}.
-     * Should be called on a new thread since it blocks until the handshake is completed.
+     * {@link #tcpPacketReceived(Socket)} and {@link #connectToBroadcastSender(InetAddress, int, NetworkPacket, boolean)}.
+     * Should be called on a new thread since it blocks until the handshake is completed, unless
+     * the socket is handed over to the {@link NioLanEngine}.
      *
      * @param identityPacket    identity of a remote device
      * @param socket            a new Socket, which should be used to receive packets from the remote device
@@ -287,6 +338,7 @@ public class LanLinkProvider extends BaseLinkProvider {
      */
     @WorkerThread
     private void identityPacketReceived(final NetworkPacket identityPacket, final Socket socket, final LanLink.ConnectionStarted connectionStarted, final boolean deviceTrusted) throws IOException, CertificateException {
+        final long handshakeStarted = System.nanoTime();
         final String deviceId = identityPacket.getString("deviceId");
         final int protocolVersion = identityPacket.getInt("protocolVersion");
 
@@ -304,37 +356,33 @@ public class LanLinkProvider extends BaseLinkProvider {
 
         // If I'm the TCP server I will be the SSL client and vice-versa.
         final boolean clientMode = (connectionStarted == LanLink.ConnectionStarted.Locally);
+
+        // The port where the other device accepts connections, so we can connect to it directly next time
+        final Integer remoteTcpPort = clientMode ? identityPacket.getIntOrNull("tcpPort") : Integer.valueOf(socket.getPort());
+
+        final SocketChannel channel = socket.getChannel();
+        if (nioEngine != null && channel != null) {
+            SSLEngine sslEngine = SslHelper.createSslEngine(context, deviceId, deviceTrusted, clientMode, socket.getInetAddress().getHostAddress(), socket.getPort());
+            nioEngine.register(channel, sslEngine, new NioHandshake(identityPacket, clientMode, deviceTrusted, remoteTcpPort, handshakeStarted));
+            return;
+        }
+
         final SSLSocket sslSocket = SslHelper.convertToSslSocket(context, socket, deviceId, deviceTrusted, clientMode);
         sslSocket.addHandshakeCompletedListener(event -> {
             // Start a new thread because some Android versions don't allow calling sslSocket.getOutputStream() from the callback
-            ThreadHelper.execute(() -> {
+            ThreadHelper.execute(ThreadHelper.Pool.HANDSHAKE, () -> {
                 String mode = clientMode ? "client" : "server";
                 try {
                     NetworkPacket secureIdentityPacket;
                     if (protocolVersion >= 8) {
-                        DeviceInfo myDeviceInfo = DeviceHelper.getDeviceInfo(context);
-                        NetworkPacket myIdentity = myDeviceInfo.toIdentityPacket();
-
+                        // If they told us they know our capabilities, we can leave them out
+                        String myCapabilitiesDigestKnownByThem = clientMode ? identityPacket.getStringOrNull("targetCapabilitiesDigest") : null;
                         OutputStream writer = sslSocket.getOutputStream();
-                        writer.write(myIdentity.serialize().getBytes(Charsets.UTF_8));
+                        writer.write(DeviceHelper.getSerializedIdentityPacket(context, null, null, null, null, myCapabilitiesDigestKnownByThem));
                         writer.flush();
                         String line = readLineBounded(sslSocket.getInputStream(), MAX_IDENTITY_PACKET_SIZE);
-                        // Do not trust the identity packet we received unencrypted
                         secureIdentityPacket = NetworkPacket.unserialize(line);
-                        if (!DeviceInfo.isValidIdentityPacket(secureIdentityPacket)) {
-                            Log.e("KDE/LanLinkProvider", "Identity packet isn't valid");
-                            sslSocket.close();
-                            return;
-                        }
-                        int newProtocolVersion = secureIdentityPacket.getInt("protocolVersion");
-                        if (newProtocolVersion != protocolVersion) {
-                            Log.e("KDE/LanLinkProvider", "Protocol version changed half-way through the handshake: " + protocolVersion + " -> " + newProtocolVersion);
-                            sslSocket.close();
-                            return;
-                        }
-                        String newDeviceId = secureIdentityPacket.getString("deviceId");
-                        if (!newDeviceId.equals(deviceId)) {
-                            Log.e("KDE/LanLinkProvider", "Device ID changed half-way through the handshake: " + deviceId + " -> " + newDeviceId);
+                        if (!isValidSecureIdentityPacket(secureIdentityPacket, deviceId, protocolVersion)) {
                             sslSocket.close();
                             return;
                         }
@@ -345,11 +393,17 @@ public class LanLinkProvider extends BaseLinkProvider {
                     DeviceInfo deviceInfo = DeviceInfo.fromIdentityPacketAndCert(secureIdentityPacket, certificate);
                     Log.i("KDE/LanLinkProvider", "Handshake as " + mode + " successful with " + deviceInfo.name + " secured with " + event.getCipherSuite());
                     addOrUpdateLink(sslSocket, deviceInfo);
+                    HANDSHAKE_TIME.recordNanos(System.nanoTime() - handshakeStarted);
+                    if (deviceTrusted && remoteTcpPort != null) {
+                        rememberLastKnownAddress(deviceId, socket.getInetAddress(), remoteTcpPort);
+                    }
                 } catch (JSONException e) {
                     Log.e("KDE/LanLinkProvider", "Remote device doesn't correctly implement protocol version 8", e);
+                    HANDSHAKE_FAILURES.incrementAndGet();
                     try { sslSocket.close(); } catch (IOException ignored) { }
                 } catch (IOException e) {
                     Log.e("KDE/LanLinkProvider", "Handshake as " + mode + " failed with " + deviceId, e);
+                    HANDSHAKE_FAILURES.incrementAndGet();
                     try { sslSocket.close(); } catch (IOException ignored) { }
                 }
             });
@@ -361,6 +415,148 @@ public class LanLinkProvider extends BaseLinkProvider {
         Log.d("LanLinkProvider", "Handshake done");
     }
 
+    // Do not trust the identity packet we received unencrypted
+    private boolean isValidSecureIdentityPacket(NetworkPacket secureIdentityPacket, String deviceId, int protocolVersion) {
+        if (!DeviceInfo.isValidIdentityPacket(secureIdentityPacket)) {
+            Log.e("KDE/LanLinkProvider", "Identity packet isn't valid");
+            return false;
+        }
+        int newProtocolVersion = secureIdentityPacket.getInt("protocolVersion");
+        if (newProtocolVersion != protocolVersion) {
+            Log.e("KDE/LanLinkProvider", "Protocol version changed half-way through the handshake: " + protocolVersion + " -> " + newProtocolVersion);
+            return false;
+        }
+        String newDeviceId = secureIdentityPacket.getString("deviceId");
+        if (!newDeviceId.equals(deviceId)) {
+            Log.e("KDE/LanLinkProvider", "Device ID changed half-way through the handshake: " + deviceId + " -> " + newDeviceId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The part of {@link #identityPacketReceived} that comes after the TLS handshake, for connections driven
+     * by the {@link NioLanEngine}. The callbacks come from the selector thread, so the work is done on a
+     * {@link SerialExecutor} of its own that keeps it in the order it was received. It never rejects work, so
+     * onClosed always reaches the link.
+     */
+    private class NioHandshake implements NioConnection.Listener {
+        private final NetworkPacket identityPacket;
+        private final String deviceId;
+        private final int protocolVersion;
+        private final boolean clientMode;
+        private final boolean deviceTrusted;
+        private final @Nullable Integer remoteTcpPort;
+        private final long handshakeStarted;
+
+        private final SerialExecutor executor = new SerialExecutor(ThreadHelper.executor(ThreadHelper.Pool.PACKET_DELIVERY));
+        private LanLink link = null; // Only accessed from the executor
+
+        NioHandshake(NetworkPacket identityPacket, boolean clientMode, boolean deviceTrusted, @Nullable Integer remoteTcpPort, long handshakeStarted) {
+            this.identityPacket = identityPacket;
+            this.deviceId = identityPacket.getString("deviceId");
+            this.protocolVersion = identityPacket.getInt("protocolVersion");
+            this.clientMode = clientMode;
+            this.deviceTrusted = deviceTrusted;
+            this.remoteTcpPort = remoteTcpPort;
+            this.handshakeStarted = handshakeStarted;
+        }
+
+        private String getMode() {
+            return clientMode ? "client" : "server";
+        }
+
+        @Override
+        public void onHandshakeCompleted(@NonNull NioConnection connection) {
+            executor.execute(() -> {
+                if (protocolVersion < 8) {
+                    linkEstablished(connection, identityPacket);
+                    return;
+                }
+                // If they told us they know our capabilities, we can leave them out
+                String myCapabilitiesDigestKnownByThem = clientMode ? identityPacket.getStringOrNull("targetCapabilitiesDigest") : null;
+                try {
+                    connection.send(DeviceHelper.getSerializedIdentityPacket(context, null, null, null, null, myCapabilitiesDigestKnownByThem));
+                } catch (IOException | JSONException e) {
+                    Log.e("KDE/LanLinkProvider", "Handshake as " + getMode() + " failed with " + deviceId, e);
+                    connection.close();
+                }
+            });
+        }
+
+        @Override
+        public void onLineReceived(@NonNull NioConnection connection, @NonNull ReceivedLine line) {
+            executor.execute(() -> {
+                if (link != null) {
+                    link.nioLineReceived(line);
+                    return;
+                }
+                if (protocolVersion < 8 || connection.isClosed() || line.getSize() > MAX_IDENTITY_PACKET_SIZE) {
+                    line.discard();
+                    return;
+                }
+                try {
+                    NetworkPacket secureIdentityPacket = line.toPacket();
+                    if (!isValidSecureIdentityPacket(secureIdentityPacket, deviceId, protocolVersion)) {
+                        connection.close();
+                        return;
+                    }
+                    linkEstablished(connection, secureIdentityPacket);
+                } catch (JSONException | IOException e) {
+                    Log.e("KDE/LanLinkProvider", "Remote device doesn't correctly implement protocol version 8", e);
+                    connection.close();
+                }
+            });
+        }
+
+        @Override
+        public void onClosed(@NonNull NioConnection connection, @Nullable Exception cause) {
+            executor.execute(() -> {
+                if (link != null) {
+                    link.nioConnectionClosed(connection);
+                } else {
+                    Log.e("KDE/LanLinkProvider", "Handshake as " + getMode() + " failed with " + deviceId, cause);
+                    HANDSHAKE_FAILURES.incrementAndGet();
+                }
+            });
+        }
+
+        @WorkerThread
+        private void linkEstablished(NioConnection connection, NetworkPacket secureIdentityPacket) {
+            try {
+                Certificate certificate = connection.getPeerCertificates()[0];
+                DeviceInfo deviceInfo = DeviceInfo.fromIdentityPacketAndCert(secureIdentityPacket, certificate);
+                Log.i("KDE/LanLinkProvider", "Handshake as " + getMode() + " successful with " + deviceInfo.name + " secured with " + connection.getCipherSuite());
+                link = addOrUpdateLink(connection, deviceInfo);
+                if (link == null) {
+                    connection.close();
+                    return;
+                }
+                connection.markEstablished();
+                HANDSHAKE_TIME.recordNanos(System.nanoTime() - handshakeStarted);
+                if (deviceTrusted && remoteTcpPort != null) {
+                    rememberLastKnownAddress(deviceId, connection.getRemoteAddress(), remoteTcpPort);
+                }
+            } catch (Exception e) {
+                Log.e("KDE/LanLinkProvider", "Handshake as " + getMode() + " failed with " + deviceId, e);
+                HANDSHAKE_FAILURES.incrementAndGet();
+                connection.close();
+            }
+        }
+    }
+
+    @WorkerThread
+    private void rememberLastKnownAddress(String deviceId, InetAddress address, int tcpPort) {
+        if (tcpPort < MIN_PORT || tcpPort > MAX_PORT) {
+            return;
+        }
+        String networkKey = LastKnownAddresses.getCurrentNetworkKey(context);
+        if (networkKey == null) {
+            return;
+        }
+        lastKnownAddresses.recordSuccess(networkKey, deviceId, new LastKnownAddresses.Endpoint(address, tcpPort));
+    }
+
     private boolean isProtocolDowngrade(String deviceId, int protocolVersion) {
         int lastKnownProtocolVersion = DeviceInfo.loadProtocolVersionFromSettings(context, deviceId);
         return lastKnownProtocolVersion > protocolVersion;
@@ -383,20 +579,56 @@ public class LanLinkProvider extends BaseLinkProvider {
             }
             // Update existing link
             Log.d("KDE/LanLinkProvider", "Reusing same link for device " + deviceInfo.id);
-            link.reset(socket, deviceInfo);
-            onDeviceInfoUpdated(deviceInfo);
-        } else {
-            // Create a new link
-            Log.d("KDE/LanLinkProvider", "Creating a new link for device " + deviceInfo.id);
-            link = new LanLink(context, deviceInfo, this, socket);
-            visibleDevices.put(deviceInfo.id, link);
-            onConnectionReceived(link);
+            if (link.reset(socket, deviceInfo)) {
+                RECONNECTS.incrementAndGet();
+                onDeviceInfoUpdated(deviceInfo);
+                return;
+            }
+            Log.d("KDE/LanLinkProvider", "The link was lost meanwhile");
         }
+        // Create a new link
+        Log.d("KDE/LanLinkProvider", "Creating a new link for device " + deviceInfo.id);
+        link = new LanLink(context, deviceInfo, this, socket);
+        visibleDevices.put(deviceInfo.id, link);
+        onConnectionReceived(link);
+    }
+
+    /**
+     * Same as {@link #addOrUpdateLink(SSLSocket, DeviceInfo)}, for connections driven by the {@link NioLanEngine}.
+     *
+     * @return the link, or null if the certificate doesn't match the one of the existing link
+     */
+    @WorkerThread
+    private @Nullable LanLink addOrUpdateLink(NioConnection connection, DeviceInfo deviceInfo) {
+        LanLink link = visibleDevices.get(deviceInfo.id);
+        if (link != null) {
+            if (!link.getDeviceInfo().certificate.equals(deviceInfo.certificate)) {
+                Log.e("LanLinkProvider", "LanLink was asked to replace a connection but the certificate doesn't match, aborting");
+                return null;
+            }
+            Log.d("KDE/LanLinkProvider", "Reusing same link for device " + deviceInfo.id);
+            if (link.reset(connection, deviceInfo)) {
+                RECONNECTS.incrementAndGet();
+                onDeviceInfoUpdated(deviceInfo);
+                return link;
+            }
+            Log.d("KDE/LanLinkProvider", "The link was lost meanwhile");
+        }
+        Log.d("KDE/LanLinkProvider", "Creating a new link for device " + deviceInfo.id);
+        link = new LanLink(context, deviceInfo, this, connection);
+        visibleDevices.put(deviceInfo.id, link);
+        onConnectionReceived(link);
+        return link;
     }
 
     public LanLinkProvider(Context context) {
         this.context = context;
         this.mdnsDiscovery = new MdnsDiscovery(context, this);
+        this.lastKnownAddresses = new LastKnownAddresses(context);
+        this.forgetUntrustedDevice = lastKnownAddresses::forgetDevice;
+        boolean useNioEngine = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SettingsFragment.KEY_LAN_NIO_ENGINE, false);
+        this.nioEngine = useNioEngine ? new NioLanEngine(SpillingLineBuffer.spillDir(context)) : null;
+        SpillingLineBuffer.deleteSpilledLines(context);
     }
 
     private void setupUdpListener() {
@@ -417,24 +649,18 @@ public class LanLinkProvider extends BaseLinkProvider {
             }
             return;
         }
-        ThreadHelper.execute(() -> {
+        udpReceivePipeline.start();
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK, () -> {
             Log.i("UdpListener", "Starting UDP listener");
             while (!isStopped) {
                 try {
-                    DatagramPacket packet = new DatagramPacket(new byte[MAX_UDP_PACKET_SIZE], MAX_UDP_PACKET_SIZE);
-                    udpServer.receive(packet);
-                    ThreadHelper.execute(() -> {
-                        try {
-                            udpPacketReceived(packet);
-                        } catch (Exception e) {
-                            Log.e("LanLinkProvider", "Unhandled exception receiving incoming UDP connection", e);
-                        }
-                    });
+                    udpReceivePipeline.receive(udpServer);
                 } catch (IOException e) {
                     Log.e("LanLinkProvider", "UdpReceive exception", e);
                     onNetworkChange(null); // Trigger a UDP broadcast to try to get them to connect to us instead
                 }
             }
+            udpReceivePipeline.stop();
             Log.w("UdpListener", "Stopping UDP listener");
         });
     }
@@ -444,17 +670,18 @@ public class LanLinkProvider extends BaseLinkProvider {
             return;
         }
         try {
-            tcpServer = openServerSocketOnFreePort(MIN_PORT);
+            tcpServer = openServerSocketOnFreePort(MIN_PORT, nioEngine != null);
         } catch (IOException e) {
             Log.e("LanLinkProvider", "Error creating tcp server", e);
             throw new RuntimeException(e);
         }
-        ThreadHelper.execute(() -> {
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK, () -> {
             while (!isStopped) {
                 try {
                     Socket socket = tcpServer.accept();
                     configureSocket(socket);
-                    ThreadHelper.execute(() -> {
+                    // When there are too many connections to handle, drop the new ones. They will connect again.
+                    boolean submitted = ThreadHelper.tryExecute(ThreadHelper.Pool.HANDSHAKE, () -> {
                         try {
                             tcpPacketReceived(socket);
                         } catch (IOException | CertificateException e) {
@@ -462,6 +689,9 @@ public class LanLinkProvider extends BaseLinkProvider {
                             Log.e("LanLinkProvider", "Exception receiving incoming TCP connection", e);
                         }
                     });
+                    if (!submitted) {
+                        socket.close();
+                    }
                 } catch (Exception e) {
                     Log.e("LanLinkProvider", "TcpReceive exception", e);
                 }
@@ -472,10 +702,17 @@ public class LanLinkProvider extends BaseLinkProvider {
     }
 
     static ServerSocket openServerSocketOnFreePort(int minPort) throws IOException {
+        return openServerSocketOnFreePort(minPort, false);
+    }
+
+    /**
+     * @param withChannel whether the sockets accepted by the server should have a channel, see {@link #createSocket()}
+     */
+    static ServerSocket openServerSocketOnFreePort(int minPort, boolean withChannel) throws IOException {
         int tcpPort = minPort;
         while (tcpPort <= MAX_PORT) {
             try {
-                ServerSocket candidateServer = new ServerSocket(tcpPort);
+                ServerSocket candidateServer = withChannel ? bindServerSocketChannel(tcpPort) : new ServerSocket(tcpPort);
                 Log.i("KDE/LanLink", "Using port " + tcpPort);
                 return candidateServer;
             } catch (IOException e) {
@@ -489,6 +726,17 @@ public class LanLinkProvider extends BaseLinkProvider {
         throw new RuntimeException("This should not be reachable");
     }
 
+    private static ServerSocket bindServerSocketChannel(int tcpPort) throws IOException {
+        ServerSocket server = ServerSocketChannel.open().socket();
+        try {
+            server.bind(new InetSocketAddress(tcpPort));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
     private void broadcastUdpIdentityPacket(@Nullable Network network) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.CINNAMON_BUN && ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_LOCAL_NETWORK) != PERMISSION_GRANTED) {
             Log.w("LanLinkProvider", "Will not UDP broadcast, missing ACCESS_LOCAL_NETWORK permission");
@@ -504,21 +752,78 @@ public class LanLinkProvider extends BaseLinkProvider {
                 Log.i("LanLinkProvider", "Current network isn't trusted, not broadcasting");
             }
 
-            ArrayList<InetAddress> ipList = new ArrayList<>();
-            for (DeviceHost host : hostList) {
-                try {
-                    ipList.add(InetAddress.getByName(host.toString()));
-                } catch (UnknownHostException e) {
-                    e.printStackTrace();
+            // Send to each host as soon as it resolves, so one slow host doesn't delay the rest
+            hostResolver.resolve(hostList, address -> sendUdpIdentityPacket(Collections.singletonList(address), network));
+        });
+    }
+
+    /**
+     * Connects directly to trusted devices at the addresses where we last reached them on the current
+     * network, in parallel with the UDP broadcast and mDNS, which can be slow or filtered on some networks.
+     */
+    private void connectToLastKnownAddresses(@Nullable Network network) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.CINNAMON_BUN && ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_LOCAL_NETWORK) != PERMISSION_GRANTED) {
+            Log.w("LanLinkProvider", "Will not connect to last known addresses, missing ACCESS_LOCAL_NETWORK permission");
+            return;
+        }
+        ThreadHelper.execute(() -> {
+            String networkKey = LastKnownAddresses.getCurrentNetworkKey(context);
+            if (networkKey == null) {
+                return;
+            }
+            for (String deviceId : TrustedDevices.getAllTrustedDevices(context)) {
+                if (visibleDevices.containsKey(deviceId)) {
+                    continue;
+                }
+                // Before protocol version 8 we need the full identity of the other device to start the handshake
+                int protocolVersion = DeviceInfo.loadProtocolVersionFromSettings(context, deviceId);
+                if (protocolVersion < 8) {
+                    continue;
+                }
+                for (LastKnownAddresses.Endpoint endpoint : lastKnownAddresses.getEndpointsToTry(networkKey, deviceId)) {
+                    ThreadHelper.execute(ThreadHelper.Pool.HANDSHAKE, () -> connectToLastKnownAddress(networkKey, deviceId, protocolVersion, endpoint, network));
                 }
             }
+        });
+    }
 
-            if (ipList.isEmpty()) {
-                return;
+    @WorkerThread
+    private void connectToLastKnownAddress(String networkKey, String deviceId, int protocolVersion, LastKnownAddresses.Endpoint endpoint, @Nullable Network network) {
+        if (visibleDevices.containsKey(deviceId)) {
+            return; // Another endpoint or the broadcast got there first
+        }
+        Socket socket;
+        try {
+            socket = createSocket();
+        } catch (IOException e) {
+            Log.e("KDE/LanLinkProvider", "Couldn't create socket", e);
+            return;
+        }
+        try {
+            if (network != null) {
+                network.bindSocket(socket);
             }
+            socket.connect(new InetSocketAddress(endpoint.getAddress(), endpoint.getPort()), LAST_KNOWN_ADDRESS_CONNECT_TIMEOUT_MILLIS);
+            configureSocket(socket);
 
-            sendUdpIdentityPacket(ipList, network);
-        });
+            byte[] myIdentity = DeviceHelper.getSerializedIdentityPacket(context, null, deviceId, protocolVersion, CapabilityDigests.cachedDigestForDevice(deviceId));
+
+            OutputStream out = socket.getOutputStream();
+            out.write(myIdentity);
+            out.flush();
+
+            // The full identity is exchanged once the socket is encrypted, what we remember is enough to start the handshake
+            NetworkPacket rememberedIdentity = new NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY);
+            rememberedIdentity.set("deviceId", deviceId);
+            rememberedIdentity.set("protocolVersion", protocolVersion);
+
+            Log.i("KDE/LanLinkProvider", "Connected to last known address of " + deviceId);
+            identityPacketReceived(rememberedIdentity, socket, LanLink.ConnectionStarted.Remotely, true);
+        } catch (IOException | CertificateException | JSONException e) {
+            Log.i("KDE/LanLinkProvider", "Couldn't connect to last known address of " + deviceId + ": " + e.getMessage());
+            lastKnownAddresses.recordFailure(networkKey, deviceId, endpoint);
+            try { socket.close(); } catch (IOException ignored) { }
+        }
     }
 
     @WorkerThread
@@ -530,13 +835,9 @@ public class LanLinkProvider extends BaseLinkProvider {
 
         // TODO: In protocol version 8 this packet doesn't need to contain identity info
         //       since it will be exchanged after the socket is encrypted.
-        DeviceInfo myDeviceInfo = DeviceHelper.getDeviceInfo(context);
-        NetworkPacket identity = myDeviceInfo.toIdentityPacket();
-        identity.set("tcpPort", tcpServer.getLocalPort());
-
         byte[] bytes;
         try {
-            bytes = identity.serialize().getBytes(Charsets.UTF_8);
+            bytes = DeviceHelper.getSerializedIdentityPacket(context, tcpServer.getLocalPort());
         } catch (JSONException e) {
             Log.e("KDE/LanLinkProvider", "Failed to serialize identity packet", e);
             return;
@@ -572,13 +873,22 @@ public class LanLinkProvider extends BaseLinkProvider {
         socket.close();
     }
 
-    @Override
-    public void onStart() {
-        //Log.i("KDE/LanLinkProvider", "onStart");
+    /**
+     * Starts accepting UDP identity packets and TCP connections, without announcing ourselves
+     */
+    @VisibleForTesting
+    void startListening() {
         isStopped = false;
 
         setupUdpListener();
         setupTcpListener();
+    }
+
+    @Override
+    public void onStart() {
+        //Log.i("KDE/LanLinkProvider", "onStart");
+        TrustedDevices.addUntrustedListener(forgetUntrustedDevice);
+        startListening();
 
         synchronized (mdnsDiscovery) {
             mdnsDiscovery.startDiscovering();
@@ -588,6 +898,7 @@ public class LanLinkProvider extends BaseLinkProvider {
         }
 
         broadcastUdpIdentityPacket(null);
+        connectToLastKnownAddresses(null);
     }
 
     @Override
@@ -603,6 +914,7 @@ public class LanLinkProvider extends BaseLinkProvider {
         setupTcpListener();
 
         broadcastUdpIdentityPacket(network);
+        connectToLastKnownAddresses(network);
         synchronized (mdnsDiscovery) {
             if (TrustedNetworkHelper.isTrustedNetwork(context)) {
                 mdnsDiscovery.startAnnouncing(); // noop if already announcing
@@ -618,6 +930,7 @@ public class LanLinkProvider extends BaseLinkProvider {
     public void onStop() {
         //Log.i("KDE/LanLinkProvider", "onStop");
         isStopped = true;
+        TrustedDevices.removeUntrustedListener(forgetUntrustedDevice);
         synchronized (mdnsDiscovery) {
             mdnsDiscovery.stopAnnouncing();
             mdnsDiscovery.stopDiscovering();
@@ -0,0 +1,183 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import androidx.core.content.edit
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import org.kde.kdeconnect.helpers.TrustedNetworkHelper
+import org.kde.kdeconnect.helpers.getLocalIpAddress
+import java.net.InetAddress
+import java.net.NetworkInterface
+import java.net.SocketException
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the IP:port endpoints where trusted devices were last reachable, per network,
+ * so LanLinkProvider can connect to them directly instead of waiting for a broadcast or mDNS.
+ */
+class LastKnownAddresses @VisibleForTesting internal constructor(
+    private val preferences: SharedPreferences,
+    private val clock: () -> Long,
+) {
+    constructor(context: Context) : this(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE), System::currentTimeMillis)
+
+    data class Endpoint(val address: InetAddress, val port: Int)
+
+    private data class Entry(val endpoint: Endpoint, val lastSuccess: Long, val failures: Int)
+
+    /**
+     * Earliest time at which we are allowed to try each endpoint again. Not persisted: after a restart we always try once.
+     */
+    private val nextAttemptAt = ConcurrentHashMap<String, Long>()
+
+    /**
+     * Returns the endpoints to try for the given device on the given network, most recently successful first.
+     * Endpoints that are in their backoff period are skipped.
+     */
+    @Synchronized
+    fun getEndpointsToTry(networkKey: String, deviceId: String): List<Endpoint> {
+        val now = clock()
+        return load(networkKey, deviceId)
+            .filter { (nextAttemptAt[attemptKey(networkKey, deviceId, it.endpoint)] ?: 0L) <= now }
+            .map { it.endpoint }
+    }
+
+    @Synchronized
+    fun recordSuccess(networkKey: String, deviceId: String, endpoint: Endpoint) {
+        nextAttemptAt.remove(attemptKey(networkKey, deviceId, endpoint))
+        val entries = load(networkKey, deviceId).filter { it.endpoint != endpoint }.toMutableList()
+        entries.add(0, Entry(endpoint, clock(), 0))
+        store(networkKey, deviceId, entries.take(MAX_ENDPOINTS_PER_DEVICE))
+    }
+
+    @Synchronized
+    fun recordFailure(networkKey: String, deviceId: String, endpoint: Endpoint) {
+        val entries = load(networkKey, deviceId)
+        val entry = entries.firstOrNull { it.endpoint == endpoint } ?: return
+        val failures = entry.failures + 1
+        if (failures >= MAX_CONSECUTIVE_FAILURES) {
+            Log.i(LOG_TAG, "Forgetting $endpoint for $deviceId after $failures failed attempts")
+            nextAttemptAt.remove(attemptKey(networkKey, deviceId, endpoint))
+            store(networkKey, deviceId, entries.filter { it.endpoint != endpoint })
+            return
+        }
+        val backoff = minOf(BASE_BACKOFF_MILLIS shl (failures - 1), MAX_BACKOFF_MILLIS)
+        nextAttemptAt[attemptKey(networkKey, deviceId, endpoint)] = clock() + backoff
+        store(networkKey, deviceId, entries.map { if (it == entry) it.copy(failures = failures) else it })
+    }
+
+    /**
+     * Called when the device stops being trusted, we won't connect to it on our own anymore
+     */
+    @Synchronized
+    fun forgetDevice(deviceId: String) {
+        val suffix = KEY_SEPARATOR + deviceId
+        nextAttemptAt.keys.removeAll { it.contains(suffix + KEY_SEPARATOR) }
+        preferences.edit {
+            preferences.all.keys.filter { it.endsWith(suffix) }.forEach { remove(it) }
+        }
+    }
+
+    private fun load(networkKey: String, deviceId: String): List<Entry> {
+        val serialized = preferences.getString(preferencesKey(networkKey, deviceId), null) ?: return emptyList()
+        val expiry = clock() - EXPIRY_MILLIS
+        return try {
+            val array = JSONArray(serialized)
+            (0 until array.length())
+                .map { array.getJSONObject(it) }
+                .mapNotNull { json ->
+                    try {
+                        Entry(
+                            Endpoint(InetAddress.getByName(json.getString("address")), json.getInt("port")),
+                            json.getLong("lastSuccess"),
+                            json.optInt("failures", 0),
+                        )
+                    } catch (_: UnknownHostException) {
+                        null
+                    }
+                }
+                .filter { it.lastSuccess >= expiry }
+        } catch (e: JSONException) {
+            Log.w(LOG_TAG, "Discarding unreadable last known addresses for $deviceId", e)
+            emptyList()
+        }
+    }
+
+    private fun store(networkKey: String, deviceId: String, entries: List<Entry>) {
+        val key = preferencesKey(networkKey, deviceId)
+        if (entries.isEmpty()) {
+            preferences.edit { remove(key) }
+            return
+        }
+        val array = JSONArray()
+        entries.forEach {
+            array.put(JSONObject().apply {
+                put("address", it.endpoint.address.hostAddress)
+                put("port", it.endpoint.port)
+                put("lastSuccess", it.lastSuccess)
+                put("failures", it.failures)
+            })
+        }
+        preferences.edit { putString(key, array.toString()) }
+    }
+
+    private fun preferencesKey(networkKey: String, deviceId: String) = networkKey + KEY_SEPARATOR + deviceId
+
+    private fun attemptKey(networkKey: String, deviceId: String, endpoint: Endpoint) =
+        preferencesKey(networkKey, deviceId) + KEY_SEPARATOR + endpoint.address.hostAddress + ":" + endpoint.port
+
+    companion object {
+        private const val LOG_TAG = "LastKnownAddresses"
+        private const val PREFERENCES_NAME = "lan_last_known_addresses"
+        private const val KEY_SEPARATOR = "/"
+
+        private const val MAX_ENDPOINTS_PER_DEVICE = 3
+        private const val MAX_CONSECUTIVE_FAILURES = 5
+        private const val EXPIRY_MILLIS = 14L * 24 * 60 * 60 * 1000
+        private const val BASE_BACKOFF_MILLIS = 2_000L
+        private const val MAX_BACKOFF_MILLIS = 5 * 60 * 1000L
+
+        /**
+         * Identifies the network we are currently connected to: the Wi-Fi SSID if we are allowed
+         * to read it, or else the subnet of our local address. Returns null if we have no network.
+         */
+        @JvmStatic
+        fun getCurrentNetworkKey(context: Context): String? {
+            val ssid = TrustedNetworkHelper(context).getCurrentSSID()
+            if (ssid != null) {
+                return "ssid:$ssid"
+            }
+            val localAddress = getLocalIpAddress() ?: return null
+            val prefixLength = try {
+                NetworkInterface.getByInetAddress(localAddress)
+                    ?.interfaceAddresses
+                    ?.firstOrNull { it.address == localAddress }
+                    ?.networkPrefixLength
+                    ?.toInt()
+            } catch (_: SocketException) {
+                null
+            } ?: return null
+            return "subnet:" + maskAddress(localAddress, prefixLength).hostAddress + "/" + prefixLength
+        }
+
+        @VisibleForTesting
+        internal fun maskAddress(address: InetAddress, prefixLength: Int): InetAddress {
+            val bytes = address.address
+            for (i in bytes.indices) {
+                val bitsInThisByte = (prefixLength - i * 8).coerceIn(0, 8)
+                bytes[i] = (bytes[i].toInt() and (0xFF shl (8 - bitsInThisByte))).toByte()
+            }
+            return InetAddress.getByAddress(bytes)
+        }
+    }
+}
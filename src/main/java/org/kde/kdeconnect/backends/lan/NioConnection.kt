@@ -0,0 +1,466 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.util.Log
+import org.kde.kdeconnect.helpers.LineTooLongException
+import org.kde.kdeconnect.helpers.ReceivedLine
+import org.kde.kdeconnect.helpers.SpillingLineBuffer
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.io.EOFException
+import java.io.IOException
+import java.net.InetAddress
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.security.cert.Certificate
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import javax.net.ssl.SSLEngine
+import javax.net.ssl.SSLEngineResult.HandshakeStatus
+import javax.net.ssl.SSLEngineResult.Status
+import javax.net.ssl.SSLException
+
+/**
+ * A TLS connection over a non-blocking SocketChannel, driven by a NioLanEngine. What we receive is split
+ * in lines (each one a serialized NetworkPacket) and what we send is queued and written when the socket
+ * is ready, so no thread is ever blocked on it.
+ *
+ * Everything except send() and close() runs on the selector thread.
+ */
+class NioConnection internal constructor(
+    private val engine: NioLanEngine,
+    private val channel: SocketChannel,
+    private val sslEngine: SSLEngine,
+    private val listener: Listener,
+) {
+
+    /**
+     * Called from the selector thread, so implementations must not block.
+     */
+    interface Listener {
+        fun onHandshakeCompleted(connection: NioConnection)
+        /**
+         * Big lines are written to a file as they arrive, so the listener must either parse or discard the line.
+         */
+        fun onLineReceived(connection: NioConnection, line: ReceivedLine)
+        fun onClosed(connection: NioConnection, cause: Exception?)
+    }
+
+    val remoteAddress: InetAddress = channel.socket().inetAddress
+    val remotePort: Int = channel.socket().port
+
+    val peerCertificates: Array<Certificate>
+        get() = sslEngine.session.peerCertificates
+
+    val cipherSuite: String
+        get() = sslEngine.session.cipherSuite
+
+    @Volatile
+    var isClosed = false
+        private set
+
+    @Volatile
+    private var established = false
+    private val setupDeadline = System.currentTimeMillis() + SETUP_TIMEOUT_MILLIS
+
+    /**
+     * A packet queued with send(), which we keep until its last byte has been written to the socket
+     */
+    private class PendingPacket(val data: ByteArray) {
+        val plainText: ByteBuffer = ByteBuffer.wrap(data)
+
+        // The value of netBytesWritten once the packet is on the wire, known once it's completely encrypted
+        var writtenAtNetBytes = 0L
+    }
+
+    // Guards the two queues below, the counters and writing to the channel, so closeAndTakeUnsent() can take
+    // the packets that weren't completely written knowing nothing else will be written
+    private val pendingLock = Any()
+    // Not completely encrypted yet, in the order they were queued
+    private val queued = ArrayDeque<PendingPacket>()
+    // Completely encrypted, but not completely written yet
+    private val encrypted = ArrayDeque<PendingPacket>()
+    private var netBytesProduced = 0L
+    private var netBytesWritten = 0L
+    private var handedOver = false
+
+    private var key: SelectionKey? = null
+    private var handshakeCompleted = false
+    private var runningDelegatedTasks = false
+
+    // Network buffers hold encrypted data, application buffers plain text. All of them are kept in write mode.
+    private var netIn: ByteBuffer = ByteBuffer.allocate(sslEngine.session.packetBufferSize)
+    private var netOut: ByteBuffer = ByteBuffer.allocate(sslEngine.session.packetBufferSize)
+    private var appIn: ByteBuffer = ByteBuffer.allocate(sslEngine.session.applicationBufferSize)
+
+    private val line = SpillingLineBuffer(engine.spillDir, LanLink.MAX_PACKET_SIZE.toLong())
+    private var discardingLine = false
+
+    /**
+     * Queues data to be encrypted and sent. Can be called from any thread.
+     */
+    @Throws(IOException::class)
+    fun send(data: ByteArray) {
+        synchronized(pendingLock) {
+            if (isClosed || handedOver) {
+                throw IOException("Connection closed")
+            }
+            queued.addLast(PendingPacket(data))
+        }
+        engine.runOnSelectorThread {
+            if (handshakeCompleted) {
+                processSafely()
+            }
+        }
+    }
+
+    /**
+     * Can be called from any thread. The listener will get onClosed.
+     */
+    fun close() {
+        engine.runOnSelectorThread { closeWithError(null) }
+    }
+
+    /**
+     * Closes the connection and returns the packets queued with send() whose last byte wasn't written to the
+     * socket, in order, so they can be sent over the connection that replaces this one. A packet that was
+     * partially written is returned whole: the other end discards the incomplete line when this connection
+     * closes. Can be called from any thread except the selector's.
+     */
+    fun closeAndTakeUnsent(): List<ByteArray> {
+        val unsent = synchronized(pendingLock) {
+            // From now on nothing else is written, so what we take is exactly what the other end won't get
+            handedOver = true
+            (encrypted + queued).map { it.data }.also {
+                encrypted.clear()
+                queued.clear()
+            }
+        }
+        val done = CountDownLatch(1)
+        engine.runOnSelectorThread {
+            closeWithError(null)
+            done.countDown()
+        }
+        if (!done.await(HANDOVER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            // The packets are already ours, just make sure the socket is closed
+            Log.w(LOG_TAG, "Timed out closing connection for handover")
+            try {
+                channel.close()
+            } catch (_: IOException) {
+            }
+        }
+        return unsent
+    }
+
+    /**
+     * Until this is called, the connection gets closed if it isn't set up after SETUP_TIMEOUT_MILLIS.
+     * Can be called from any thread.
+     */
+    fun markEstablished() {
+        established = true
+    }
+
+    internal fun onRegistered(key: SelectionKey) {
+        this.key = key
+        try {
+            sslEngine.beginHandshake()
+        } catch (e: SSLException) {
+            closeWithError(e)
+            return
+        }
+        processSafely()
+    }
+
+    internal fun onSelected(key: SelectionKey) {
+        try {
+            if (key.isValid && key.isWritable && flushNetOut()) {
+                process()
+            }
+            if (key.isValid && key.isReadable) {
+                if (!netIn.hasRemaining()) {
+                    netIn = enlarge(netIn, sslEngine.session.packetBufferSize)
+                }
+                if (channel.read(netIn) < 0) {
+                    closeWithError(EOFException("Connection closed by peer"))
+                    return
+                }
+                process()
+            }
+        } catch (e: Exception) {
+            closeWithError(e)
+        }
+    }
+
+    internal fun checkSetupTimeout(now: Long) {
+        if (!established && now > setupDeadline) {
+            closeWithError(SocketTimeoutException("Connection not established after $SETUP_TIMEOUT_MILLIS ms"))
+        }
+    }
+
+    internal fun closeWithError(cause: Exception?) {
+        if (isClosed) {
+            return
+        }
+        isClosed = true
+        try {
+            // Best effort to let the other end know, we won't wait for the socket to be writable. What was
+            // encrypted but not written is discarded, and its packets can still be taken by closeAndTakeUnsent().
+            sslEngine.closeOutbound()
+            netOut.clear()
+            sslEngine.wrap(EMPTY_BUFFER, netOut)
+            netOut.flip()
+            synchronized(pendingLock) {
+                if (!handedOver) {
+                    channel.write(netOut)
+                }
+            }
+        } catch (_: Exception) {
+        }
+        key?.cancel()
+        try {
+            channel.close()
+        } catch (_: IOException) {
+        }
+        line.clear()
+        listener.onClosed(this, cause)
+    }
+
+    private fun processSafely() {
+        try {
+            process()
+        } catch (e: Exception) {
+            closeWithError(e)
+        }
+    }
+
+    /**
+     * Makes as much progress as possible without blocking: first the handshake, then decrypting what
+     * we have received and encrypting what we have queued to send.
+     */
+    @Throws(IOException::class)
+    private fun process() {
+        while (!isClosed) {
+            val progressed = when (sslEngine.handshakeStatus) {
+                HandshakeStatus.NEED_TASK -> {
+                    runDelegatedTasks()
+                    false
+                }
+                HandshakeStatus.NEED_WRAP -> wrap(EMPTY_BUFFER)
+                HandshakeStatus.NEED_UNWRAP -> unwrap()
+                else -> {
+                    if (!handshakeCompleted) {
+                        handshakeCompleted = true
+                        listener.onHandshakeCompleted(this)
+                    }
+                    val unwrapped = unwrap()
+                    val wrapped = wrapOutgoing()
+                    unwrapped || wrapped
+                }
+            }
+            if (!progressed) {
+                break
+            }
+        }
+    }
+
+    // The handshake tasks are CPU intensive (eg: verifying certificates), so we don't want them on the selector thread
+    private fun runDelegatedTasks() {
+        if (runningDelegatedTasks) {
+            return
+        }
+        runningDelegatedTasks = true
+        ThreadHelper.execute(ThreadHelper.Pool.HANDSHAKE) {
+            try {
+                while (true) {
+                    val task = sslEngine.delegatedTask ?: break
+                    task.run()
+                }
+            } finally {
+                engine.runOnSelectorThread {
+                    runningDelegatedTasks = false
+                    processSafely()
+                }
+            }
+        }
+    }
+
+    private fun wrapOutgoing(): Boolean {
+        val packet = synchronized(pendingLock) { queued.firstOrNull() } ?: return false
+        val progressed = wrap(packet.plainText)
+        if (!packet.plainText.hasRemaining()) {
+            synchronized(pendingLock) {
+                // Unless closeAndTakeUnsent() took it in the meantime
+                if (queued.firstOrNull() === packet) {
+                    queued.removeFirst()
+                    // A TLS record never mixes two calls to wrap(), so the packet ends where the encrypted data does
+                    packet.writtenAtNetBytes = netBytesProduced
+                    encrypted.addLast(packet)
+                    forgetWrittenPackets()
+                }
+            }
+        }
+        return progressed
+    }
+
+    // Must hold pendingLock
+    private fun forgetWrittenPackets() {
+        while (encrypted.isNotEmpty() && encrypted.first().writtenAtNetBytes <= netBytesWritten) {
+            encrypted.removeFirst()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun wrap(src: ByteBuffer): Boolean {
+        // Don't encrypt more until what we already encrypted has been written
+        if (netOut.position() > 0 && !flushNetOut()) {
+            return false
+        }
+        val result = sslEngine.wrap(src, netOut)
+        synchronized(pendingLock) {
+            netBytesProduced += result.bytesProduced()
+        }
+        return when (result.status) {
+            Status.OK -> {
+                flushNetOut()
+                result.bytesConsumed() > 0 || result.bytesProduced() > 0
+            }
+            Status.BUFFER_OVERFLOW -> {
+                netOut = enlarge(netOut, sslEngine.session.packetBufferSize)
+                true
+            }
+            Status.CLOSED -> {
+                closeWithError(null)
+                false
+            }
+            else -> throw SSLException("Unexpected wrap result: " + result.status)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun unwrap(): Boolean {
+        netIn.flip()
+        val result = try {
+            sslEngine.unwrap(netIn, appIn)
+        } finally {
+            netIn.compact()
+        }
+        if (appIn.position() > 0) {
+            deliverReceivedData()
+        }
+        return when (result.status) {
+            Status.OK -> result.bytesConsumed() > 0 || result.bytesProduced() > 0
+            Status.BUFFER_UNDERFLOW -> {
+                // We need more data from the network. Make sure it fits, since a TLS record can't be split.
+                if (!netIn.hasRemaining()) {
+                    netIn = enlarge(netIn, sslEngine.session.packetBufferSize)
+                }
+                false
+            }
+            Status.BUFFER_OVERFLOW -> {
+                appIn = enlarge(appIn, sslEngine.session.applicationBufferSize)
+                true
+            }
+            Status.CLOSED -> {
+                closeWithError(EOFException("TLS connection closed by peer"))
+                false
+            }
+            else -> throw SSLException("Unexpected unwrap result: " + result.status)
+        }
+    }
+
+    /**
+     * Returns whether everything encrypted so far has been written. If not, we wait for the socket to be writable.
+     */
+    @Throws(IOException::class)
+    private fun flushNetOut(): Boolean {
+        netOut.flip()
+        try {
+            synchronized(pendingLock) {
+                if (handedOver) {
+                    throw IOException("Connection handed over")
+                }
+                netBytesWritten += channel.write(netOut)
+                forgetWrittenPackets()
+            }
+        } finally {
+            netOut.compact()
+        }
+        val flushed = netOut.position() == 0
+        key?.takeIf { it.isValid }?.interestOps(if (flushed) SelectionKey.OP_READ else SelectionKey.OP_READ or SelectionKey.OP_WRITE)
+        return flushed
+    }
+
+    private fun deliverReceivedData() {
+        appIn.flip()
+        val bytes = appIn.array()
+        var start = appIn.arrayOffset() + appIn.position()
+        val end = appIn.arrayOffset() + appIn.limit()
+        for (i in start until end) {
+            if (bytes[i] == NEWLINE) {
+                appendToLine(bytes, start, i + 1 - start)
+                completeLine()
+                start = i + 1
+            }
+        }
+        appendToLine(bytes, start, end - start)
+        appIn.clear()
+    }
+
+    private fun appendToLine(bytes: ByteArray, offset: Int, length: Int) {
+        if (discardingLine || length == 0) {
+            return
+        }
+        try {
+            line.write(bytes, offset, length)
+        } catch (e: LineTooLongException) {
+            Log.w(LOG_TAG, "Discarding a packet bigger than ${LanLink.MAX_PACKET_SIZE} bytes")
+            discardingLine = true
+        } catch (e: IOException) {
+            Log.e(LOG_TAG, "Discarding a packet that couldn't be written to disk", e)
+            line.clear()
+            discardingLine = true
+        }
+    }
+
+    private fun completeLine() {
+        if (!discardingLine && line.size > 1) {
+            val received = try {
+                line.take()
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Discarding a packet that couldn't be written to disk", e)
+                line.clear()
+                null
+            }
+            received?.let { listener.onLineReceived(this, it) }
+        } else {
+            line.clear()
+        }
+        discardingLine = false
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/NioConnection"
+
+        /**
+         * Like the read timeout we set on blocking sockets during the handshake
+         */
+        private const val SETUP_TIMEOUT_MILLIS = 10_000L
+
+        private const val HANDOVER_TIMEOUT_MILLIS = 2_000L
+
+        private const val NEWLINE = '\n'.code.toByte()
+        private val EMPTY_BUFFER: ByteBuffer = ByteBuffer.allocate(0)
+
+        private fun enlarge(buffer: ByteBuffer, minCapacity: Int): ByteBuffer {
+            val enlarged = ByteBuffer.allocate(maxOf(minCapacity, buffer.capacity() * 2))
+            buffer.flip()
+            enlarged.put(buffer)
+            return enlarged
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.util.Log
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.io.File
+import java.io.IOException
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import javax.net.ssl.SSLEngine
+
+/**
+ * Drives all the LAN control connections from a single thread with a Selector, instead of having a blocking
+ * reader thread per connection. Each connection does TLS with its own SSLEngine, see NioConnection.
+ * Payloads are not handled here: they keep using their own blocking sockets (see LanLink).
+ */
+class NioLanEngine(
+    /**
+     * Where big packets are written while they are received, see SpillingLineBuffer
+     */
+    internal val spillDir: File,
+) {
+
+    // Guards selector and adding to pendingTasks, so the selector thread can't stop while a task is being added
+    private val lock = Any()
+    // Only set while the selector thread runs, which is only while there are connections
+    private var selector: Selector? = null
+    private val pendingTasks = ConcurrentLinkedQueue<Runnable>()
+
+    /**
+     * Switches an already connected channel to non-blocking mode and starts the TLS handshake on it.
+     * The listener is called from the selector thread.
+     */
+    @Throws(IOException::class)
+    fun register(channel: SocketChannel, sslEngine: SSLEngine, listener: NioConnection.Listener): NioConnection {
+        channel.configureBlocking(false)
+        val connection = NioConnection(this, channel, sslEngine, listener)
+        synchronized(lock) {
+            val selector = selector ?: Selector.open().also { selector ->
+                this.selector = selector
+                ThreadHelper.execute(ThreadHelper.Pool.NETWORK) { selectorLoop(selector) }
+            }
+            pendingTasks.add(Runnable {
+                try {
+                    connection.onRegistered(channel.register(selector, SelectionKey.OP_READ, connection))
+                } catch (e: IOException) {
+                    connection.closeWithError(e)
+                }
+            })
+            selector.wakeup()
+        }
+        return connection
+    }
+
+    internal fun runOnSelectorThread(task: Runnable) {
+        val queued = synchronized(lock) {
+            selector?.let {
+                pendingTasks.add(task)
+                it.wakeup()
+            } != null
+        }
+        if (!queued) {
+            // The selector thread stops once there are no connections left, so this is about a closed connection
+            // and there's no other thread that could be running tasks at the same time
+            task.run()
+        }
+    }
+
+    /**
+     * Runs until there are no connections left, and then closes the selector
+     */
+    private fun selectorLoop(selector: Selector) {
+        Log.i(LOG_TAG, "Starting selector thread")
+        var nextTimeoutCheck = 0L
+        while (true) {
+            try {
+                selector.select(TIMEOUT_CHECK_INTERVAL_MILLIS)
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Select failed", e)
+                continue
+            }
+
+            while (true) {
+                val task = pendingTasks.poll() ?: break
+                try {
+                    task.run()
+                } catch (e: Exception) {
+                    Log.e(LOG_TAG, "Unhandled exception in selector task", e)
+                }
+            }
+
+            val selectedKeys = selector.selectedKeys().iterator()
+            while (selectedKeys.hasNext()) {
+                val key = selectedKeys.next()
+                selectedKeys.remove()
+                try {
+                    (key.attachment() as NioConnection).onSelected(key)
+                } catch (e: Exception) {
+                    Log.e(LOG_TAG, "Unhandled exception handling a connection", e)
+                }
+            }
+
+            val now = System.currentTimeMillis()
+            if (now >= nextTimeoutCheck) {
+                selector.keys().toList().forEach { (it.attachment() as NioConnection).checkSetupTimeout(now) }
+                nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL_MILLIS
+            }
+
+            // The keys of closed connections are removed by the next select(), so this runs one loop after the last closes
+            val stopping = synchronized(lock) {
+                (pendingTasks.isEmpty() && selector.keys().isEmpty()).also { if (it) this.selector = null }
+            }
+            if (stopping) {
+                break
+            }
+        }
+        try {
+            selector.close()
+        } catch (e: IOException) {
+            Log.e(LOG_TAG, "Error closing the selector", e)
+        }
+        Log.i(LOG_TAG, "Stopping selector thread, there are no connections left")
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/NioLanEngine"
+        private const val TIMEOUT_CHECK_INTERVAL_MILLIS = 1000L
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import org.kde.kdeconnect.helpers.ThreadHelper
+import java.io.IOException
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Receives UDP identity broadcasts into a small pool of reusable buffers and hands them to a single
+ * consumer thread through a bounded queue, instead of allocating a buffer and a thread per datagram.
+ * A datagram with the same source and contents as one received shortly before is dropped before parsing.
+ */
+class UdpReceivePipeline @VisibleForTesting internal constructor(
+    private val consumer: Consumer,
+    private val clock: () -> Long,
+) {
+    constructor(consumer: Consumer) : this(consumer, System::currentTimeMillis)
+
+    /**
+     * Runs on the consumer thread, so it shouldn't block: the datagrams behind it wait, and are dropped once every slot is pending
+     */
+    fun interface Consumer {
+        @WorkerThread
+        fun onDatagramReceived(address: InetAddress, message: String)
+    }
+
+    private class Slot {
+        val buffer = ByteArray(BUFFER_SIZE)
+        val packet = DatagramPacket(buffer, BUFFER_SIZE)
+    }
+
+    private data class RecentDatagram(val hash: Int, val timestamp: Long)
+
+    private val freeSlots = ArrayBlockingQueue<Slot>(POOL_SIZE)
+    private val pendingSlots = ArrayBlockingQueue<Slot>(POOL_SIZE)
+
+    /**
+     * Used to drain the socket when every slot is waiting to be processed. What we receive into it is dropped.
+     */
+    private val overflowSlot = Slot()
+
+    /**
+     * Only accessed from the receiving thread
+     */
+    private val recentDatagrams = HashMap<InetAddress, RecentDatagram>()
+
+    // Guarded by this
+    private var running = false
+
+    /**
+     * Changes every time we start or stop, so a consumer thread that was started before knows it has to exit
+     * even if we were started again before it noticed
+     */
+    private val generation = AtomicInteger()
+
+    init {
+        repeat(POOL_SIZE) { freeSlots.add(Slot()) }
+    }
+
+    @Synchronized
+    fun start() {
+        if (running) {
+            return
+        }
+        running = true
+        val consumerGeneration = generation.incrementAndGet()
+        ThreadHelper.execute(ThreadHelper.Pool.NETWORK) {
+            while (generation.get() == consumerGeneration) {
+                val slot = try {
+                    pendingSlots.poll(1, TimeUnit.SECONDS) ?: continue
+                } catch (_: InterruptedException) {
+                    continue
+                }
+                if (generation.get() != consumerGeneration) {
+                    pendingSlots.offer(slot) // For the consumer that replaces us, if any
+                    break
+                }
+                try {
+                    val message = String(slot.buffer, 0, slot.packet.length, Charsets.UTF_8)
+                    consumer.onDatagramReceived(slot.packet.address, message)
+                } catch (e: Exception) {
+                    Log.e(LOG_TAG, "Unhandled exception processing UDP datagram", e)
+                } finally {
+                    freeSlots.offer(slot)
+                }
+            }
+            // Whatever is still pending is left for the next consumer
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        running = false
+        generation.incrementAndGet()
+    }
+
+    /**
+     * Blocks until a datagram is received on the socket, then queues it to be processed.
+     * Must always be called from the same thread.
+     */
+    @WorkerThread
+    @Throws(IOException::class)
+    fun receive(socket: DatagramSocket) {
+        val slot = freeSlots.poll() ?: overflowSlot
+        slot.packet.setData(slot.buffer, 0, BUFFER_SIZE)
+        try {
+            socket.receive(slot.packet)
+        } catch (e: IOException) {
+            if (slot !== overflowSlot) freeSlots.offer(slot)
+            throw e
+        }
+
+        if (slot === overflowSlot) {
+            Log.w(LOG_TAG, "Too many UDP datagrams pending, dropping one from ${slot.packet.address}")
+            return
+        }
+
+        if (isRepeated(slot.packet.address, hash(slot.buffer, slot.packet.length), clock())) {
+            freeSlots.offer(slot)
+            return
+        }
+
+        pendingSlots.offer(slot)
+    }
+
+    private fun isRepeated(address: InetAddress, hash: Int, now: Long): Boolean {
+        val previous = recentDatagrams.put(address, RecentDatagram(hash, now))
+        if (recentDatagrams.size > MAX_RECENT_ENTRIES) {
+            recentDatagrams.entries.removeIf { it.value.timestamp + REPEATED_DATAGRAM_WINDOW_MILLIS < now }
+        }
+        return previous != null && previous.hash == hash && previous.timestamp + REPEATED_DATAGRAM_WINDOW_MILLIS > now
+    }
+
+    companion object {
+        private const val LOG_TAG = "UdpReceivePipeline"
+
+        /**
+         * Identity packets are a few KiB. Larger datagrams get truncated and will fail to parse.
+         */
+        private const val BUFFER_SIZE = 16 * 1024
+        private const val POOL_SIZE = 4
+
+        private val REPEATED_DATAGRAM_WINDOW_MILLIS = LanLinkProvider.MILLIS_DELAY_BETWEEN_CONNECTIONS_TO_SAME_DEVICE
+        private val MAX_RECENT_ENTRIES = LanLinkProvider.MAX_RATE_LIMIT_ENTRIES
+
+        private fun hash(data: ByteArray, length: Int): Int {
+            var result = 1
+            for (i in 0 until length) {
+                result = 31 * result + data[i]
+            }
+            return result
+        }
+    }
+}
@@ -15,14 +15,35 @@ import org.kde.kdeconnect.helpers.DeviceHelper.getDeviceInfo
 import org.kde.kdeconnect.NetworkPacket
 
 class LoopbackLink : BaseLink {
-    constructor(context: Context, linkProvider: BaseLinkProvider) : super(context, linkProvider)
+    /**
+     * The device this link pretends to connect to, or null to connect to ourselves
+     */
+    private val remoteDeviceInfo: DeviceInfo?
+
+    constructor(context: Context, linkProvider: BaseLinkProvider) : super(context, linkProvider) {
+        this.remoteDeviceInfo = null
+    }
+
+    /**
+     * A link to a device that isn't there, used to replay captured packets (see PacketReplay in the tests).
+     * What's sent over it is dropped instead of looped back.
+     */
+    constructor(context: Context, linkProvider: BaseLinkProvider, remoteDeviceInfo: DeviceInfo) : super(context, linkProvider) {
+        this.remoteDeviceInfo = remoteDeviceInfo
+    }
 
     override fun getName(): String = "LoopbackLink"
-    override fun getDeviceInfo(): DeviceInfo = getDeviceInfo(context)
+    override fun getDeviceInfo(): DeviceInfo = remoteDeviceInfo ?: getDeviceInfo(context)
 
     @WorkerThread
     override fun sendPacket(packet: NetworkPacket, callback: Device.SendPacketStatusCallback, sendPayloadFromSameThread: Boolean): Boolean {
-        packetReceived(packet)
+        if (remoteDeviceInfo != null) {
+            packet.payload?.close()
+            callback.onSuccess()
+            return true
+        }
+        // Pooled packets are reused once sent, so the receiving end needs its own copy
+        packetReceived(if (packet.isPooled) NetworkPacket.unserialize(packet.serialize()) else packet)
         if (packet.hasPayload()) {
             callback.onPayloadProgressChanged(0)
             packet.payload = packet.payload // this triggers logic in the setter
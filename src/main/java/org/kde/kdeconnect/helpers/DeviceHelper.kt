@@ -15,8 +15,11 @@ import androidx.core.content.edit
 import com.univocity.parsers.common.TextParsingException
 import com.univocity.parsers.csv.CsvParser
 import com.univocity.parsers.csv.CsvParserSettings
+import org.json.JSONException
+import org.json.JSONObject
 import org.kde.kdeconnect.DeviceInfo
 import org.kde.kdeconnect.DeviceType
+import org.kde.kdeconnect.NetworkPacket
 import org.kde.kdeconnect.helpers.security.SslHelper
 import org.kde.kdeconnect.plugins.PluginFactory
 import java.io.BufferedReader
@@ -143,15 +146,105 @@ object DeviceHelper {
     }
 
     @JvmStatic
-    fun getDeviceInfo(context: Context): DeviceInfo {
+    fun getDeviceInfo(context: Context): DeviceInfo = getDeviceInfo(context, getDeviceName(context))
+
+    private fun getDeviceInfo(context: Context, deviceName: String): DeviceInfo {
         return DeviceInfo(
             getDeviceId(context),
             SslHelper.certificate,
-            getDeviceName(context),
+            deviceName,
             deviceType,
             PROTOCOL_VERSION,
             PluginFactory.incomingCapabilities,
-            PluginFactory.outgoingCapabilities
+            PluginFactory.outgoingCapabilities,
+            PluginFactory.capabilitiesDigest,
+        )
+    }
+
+    private class CachedIdentityPacket(
+        val deviceName: String,
+        val incomingCapabilities: Set<String>,
+        val outgoingCapabilities: Set<String>,
+        // Everything after the "id" field, without closing the body
+        val bytesAfterId: ByteArray,
+        val bytesAfterIdWithoutCapabilities: ByteArray,
+    )
+
+    @Volatile
+    private var cachedIdentityPacket: CachedIdentityPacket? = null
+
+    /**
+     * Returns my identity packet serialized in the same format as NetworkPacket.serialize(), ready to be
+     * written to a socket. It's only rebuilt when the device name or the plugins change: the fields that
+     * depend on who we are sending it to are appended to the cached bytes.
+     *
+     * See CapabilityDigests: targetCapabilitiesDigest is the digest of the target's capabilities that we have
+     * cached, and capabilitiesDigestKnownByTarget the digest of our capabilities that the target told us it has
+     * cached. If the latter matches our current digest, the capability lists are left out.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(JSONException::class)
+    fun getSerializedIdentityPacket(
+        context: Context,
+        tcpPort: Int? = null,
+        targetDeviceId: String? = null,
+        targetProtocolVersion: Int? = null,
+        targetCapabilitiesDigest: String? = null,
+        capabilitiesDigestKnownByTarget: String? = null,
+    ): ByteArray {
+        val deviceName = getDeviceName(context)
+        val cached = cachedIdentityPacket?.takeIf {
+            it.deviceName == deviceName &&
+                it.incomingCapabilities === PluginFactory.incomingCapabilities &&
+                it.outgoingCapabilities === PluginFactory.outgoingCapabilities
+        } ?: buildCachedIdentityPacket(context, deviceName).also { cachedIdentityPacket = it }
+
+        val bytesAfterId = if (capabilitiesDigestKnownByTarget != null && capabilitiesDigestKnownByTarget == PluginFactory.capabilitiesDigest) {
+            cached.bytesAfterIdWithoutCapabilities
+        } else {
+            cached.bytesAfterId
+        }
+
+        val head = "{\"id\":" + System.currentTimeMillis()
+        val tail = buildString {
+            if (tcpPort != null) {
+                append(",\"tcpPort\":").append(tcpPort)
+            }
+            if (targetDeviceId != null) {
+                append(",\"targetDeviceId\":").append(JSONObject.quote(targetDeviceId))
+            }
+            if (targetProtocolVersion != null) {
+                append(",\"targetProtocolVersion\":").append(targetProtocolVersion)
+            }
+            if (targetCapabilitiesDigest != null) {
+                append(",\"targetCapabilitiesDigest\":").append(JSONObject.quote(targetCapabilitiesDigest))
+            }
+            append("}}\n")
+        }
+        val headBytes = head.toByteArray(StandardCharsets.UTF_8)
+        val tailBytes = tail.toByteArray(StandardCharsets.UTF_8)
+        val result = ByteArray(headBytes.size + bytesAfterId.size + tailBytes.size)
+        headBytes.copyInto(result)
+        bytesAfterId.copyInto(result, headBytes.size)
+        tailBytes.copyInto(result, headBytes.size + bytesAfterId.size)
+        return result
+    }
+
+    @Throws(JSONException::class)
+    private fun buildCachedIdentityPacket(context: Context, deviceName: String): CachedIdentityPacket {
+        val deviceInfo = getDeviceInfo(context, deviceName)
+        fun bytesAfterId(includeCapabilities: Boolean): ByteArray {
+            val body = deviceInfo.toIdentityPacket(includeCapabilities).serializeBody()
+            val json = ",\"type\":" + JSONObject.quote(NetworkPacket.PACKET_TYPE_IDENTITY) + ",\"body\":" + body.removeSuffix("}")
+            return json.toByteArray(StandardCharsets.UTF_8)
+        }
+        return CachedIdentityPacket(
+            deviceName,
+            deviceInfo.incomingCapabilities!!,
+            deviceInfo.outgoingCapabilities!!,
+            bytesAfterId(true),
+            bytesAfterId(false),
         )
     }
 
@@ -0,0 +1,195 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.helpers
+
+import android.util.Log
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A bounded thread pool with named threads that keeps track of how busy it is.
+ *
+ * Threads are started as needed up to maxThreads, and stop after being idle for a while. When all of them
+ * are busy, tasks wait in a queue that fits queueCapacity of them (with a capacity of 0 they don't wait at
+ * all). What happens once the queue is full depends on how the task was submitted:
+ * - [tryExecute] rejects it, for work that can be dropped when we are overloaded.
+ * - [execute] never loses it: it waits in an overflow queue that the pool threads drain after their tasks,
+ *   or if tasks can't wait in this pool (a capacity of 0), it runs on an extra thread. There are at most
+ *   maxThreads extra threads, past that those tasks wait in the overflow queue too. Both are counted as
+ *   overflowed tasks, since they mean the limits of the pool are too low for the work it gets.
+ */
+class InstrumentedExecutor(val name: String, private val maxThreads: Int, private val queueCapacity: Int) : Executor {
+
+    data class Stats(
+        val name: String,
+        val poolSize: Int,
+        val activeCount: Int,
+        val queueDepth: Int,
+        val completedTasks: Long,
+        val rejectedTasks: Long,
+        val overflowedTasks: Long,
+        val averageWaitMillis: Double,
+        val maxWaitMillis: Double,
+        val averageRunMillis: Double,
+        val maxRunMillis: Double,
+    )
+
+    private val threadCount = AtomicInteger()
+    private val queue: BlockingQueue<Runnable> = if (queueCapacity > 0) ArrayBlockingQueue(queueCapacity) else SynchronousQueue()
+    private val pool = ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue) { runnable ->
+        Thread(runnable, "kdeconnect-$name-${threadCount.incrementAndGet()}")
+    }.apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    private val overflow = ConcurrentLinkedQueue<Runnable>()
+    private val extraThreadCount = AtomicInteger()
+    private val runningExtraThreads = AtomicInteger()
+
+    private val completedTasks = AtomicLong()
+    private val rejectedTasks = AtomicLong()
+    private val overflowedTasks = AtomicLong()
+    private val totalWaitNanos = AtomicLong()
+    private val maxWaitNanos = AtomicLong()
+    private val totalRunNanos = AtomicLong()
+    private val maxRunNanos = AtomicLong()
+
+    /**
+     * Returns false if the task was rejected because the pool is full.
+     */
+    fun tryExecute(command: Runnable): Boolean {
+        if (submit(command, System.nanoTime())) {
+            return true
+        }
+        rejectedTasks.incrementAndGet()
+        Log.e(LOG_TAG, "Rejected task in pool $name (threads: ${pool.poolSize}, queued: ${queue.size})")
+        return false
+    }
+
+    /**
+     * Runs the command even if the pool is full, see the class documentation
+     */
+    override fun execute(command: Runnable) {
+        val submittedAt = System.nanoTime()
+        if (submit(command, submittedAt)) {
+            return
+        }
+        overflowedTasks.incrementAndGet()
+        if (queueCapacity == 0 && startExtraThread(command, submittedAt)) {
+            return
+        }
+        // The pool (and the extra threads, if any) are busy, and the threads running them will drain this
+        Log.w(LOG_TAG, "Pool $name is full (threads: ${pool.poolSize}, extra: ${runningExtraThreads.get()}, queued: ${queue.size}), queueing in the overflow")
+        overflow.add(Runnable { runInstrumented(command, submittedAt) })
+    }
+
+    /**
+     * Returns false if there are already maxThreads extra threads running
+     */
+    private fun startExtraThread(command: Runnable, submittedAt: Long): Boolean {
+        while (true) {
+            val running = runningExtraThreads.get()
+            if (running >= maxThreads) {
+                return false
+            }
+            if (runningExtraThreads.compareAndSet(running, running + 1)) {
+                break
+            }
+        }
+        Log.w(LOG_TAG, "Pool $name is full (threads: ${pool.poolSize}), starting an extra thread")
+        Thread({
+            try {
+                runInstrumented(command, submittedAt)
+            } finally {
+                try {
+                    drainOverflow()
+                } finally {
+                    runningExtraThreads.decrementAndGet()
+                }
+            }
+        }, "kdeconnect-$name-extra-${extraThreadCount.incrementAndGet()}").start()
+        return true
+    }
+
+    private fun submit(command: Runnable, submittedAt: Long): Boolean = try {
+        pool.execute {
+            try {
+                runInstrumented(command, submittedAt)
+            } finally {
+                drainOverflow()
+            }
+        }
+        true
+    } catch (_: RejectedExecutionException) {
+        false
+    }
+
+    private fun drainOverflow() {
+        while (true) {
+            val next = overflow.poll() ?: return
+            try {
+                next.run()
+            } catch (e: Exception) {
+                // Not rethrown, the thread still has the rest of the overflow to run
+                Log.e(LOG_TAG, "Unhandled exception in pool $name", e)
+            }
+        }
+    }
+
+    private fun runInstrumented(command: Runnable, submittedAt: Long) {
+        val startedAt = System.nanoTime()
+        try {
+            command.run()
+        } finally {
+            val finishedAt = System.nanoTime()
+            record(totalWaitNanos, maxWaitNanos, startedAt - submittedAt)
+            record(totalRunNanos, maxRunNanos, finishedAt - startedAt)
+            completedTasks.incrementAndGet()
+        }
+    }
+
+    fun getStats(): Stats {
+        val completed = completedTasks.get()
+        return Stats(
+            name = name,
+            poolSize = pool.poolSize,
+            activeCount = pool.activeCount,
+            queueDepth = queue.size + overflow.size,
+            completedTasks = completed,
+            rejectedTasks = rejectedTasks.get(),
+            overflowedTasks = overflowedTasks.get(),
+            averageWaitMillis = if (completed > 0) nanosToMillis(totalWaitNanos.get()) / completed else 0.0,
+            maxWaitMillis = nanosToMillis(maxWaitNanos.get()),
+            averageRunMillis = if (completed > 0) nanosToMillis(totalRunNanos.get()) / completed else 0.0,
+            maxRunMillis = nanosToMillis(maxRunNanos.get()),
+        )
+    }
+
+    companion object {
+        private const val LOG_TAG = "InstrumentedExecutor"
+        private const val KEEP_ALIVE_SECONDS = 30L
+
+        private fun record(total: AtomicLong, max: AtomicLong, nanos: Long) {
+            total.addAndGet(nanos)
+            while (true) {
+                val currentMax = max.get()
+                if (nanos <= currentMax || max.compareAndSet(currentMax, nanos)) {
+                    return
+                }
+            }
+        }
+
+        private fun nanosToMillis(nanos: Long): Double = nanos / 1_000_000.0
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.helpers
+
+import android.util.Log
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Runs the tasks submitted to it one after the other, in submission order, on the threads of another
+ * executor. No thread is held while there is nothing to run.
+ */
+class SerialExecutor(private val executor: Executor = ThreadHelper.executor(ThreadHelper.Pool.BACKGROUND)) : Executor {
+
+    private val tasks = ArrayDeque<Runnable>()
+    private var running = false
+
+    override fun execute(command: Runnable) {
+        synchronized(tasks) {
+            tasks.add(command)
+            if (running) {
+                return
+            }
+            running = true
+        }
+        try {
+            executor.execute(::drain)
+        } catch (e: RejectedExecutionException) {
+            synchronized(tasks) {
+                tasks.removeLastOccurrence(command)
+                running = false
+            }
+            throw e
+        }
+    }
+
+    private fun drain() {
+        while (true) {
+            val task = synchronized(tasks) {
+                tasks.poll() ?: run {
+                    running = false
+                    return
+                }
+            }
+            try {
+                task.run()
+            } catch (e: Exception) {
+                Log.e("SerialExecutor", "Unhandled exception", e)
+            }
+        }
+    }
+}
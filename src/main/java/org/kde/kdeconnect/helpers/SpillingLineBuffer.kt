@@ -0,0 +1,175 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.helpers
+
+import android.content.Context
+import android.util.Log
+import org.json.JSONException
+import org.kde.kdeconnect.NetworkPacket
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * A complete line received from the network, that is, a serialized packet. Big lines are kept in a
+ * temporary file instead of in memory, see SpillingLineBuffer. The size is the number of bytes received,
+ * including the \n, not the length of the text.
+ */
+class ReceivedLine private constructor(private val text: String?, private val file: File?, val size: Long) {
+
+    internal constructor(text: String, size: Long) : this(text, null, size)
+
+    internal constructor(file: File, size: Long) : this(null, file, size)
+
+    /**
+     * Parses the packet in the line. Lines kept in a file are parsed as a stream and the file is deleted.
+     */
+    @Throws(JSONException::class, IOException::class)
+    fun toPacket(): NetworkPacket {
+        if (text != null) {
+            return NetworkPacket.unserialize(text)
+        }
+        try {
+            return file!!.bufferedReader(Charsets.UTF_8).use { NetworkPacket.unserialize(it) }
+        } finally {
+            discard()
+        }
+    }
+
+    /**
+     * Deletes the temporary file of a line that won't be parsed
+     */
+    fun discard() {
+        file?.delete()
+    }
+}
+
+/**
+ * Collects the bytes of a line as they are received. Up to spillThreshold bytes are kept in memory,
+ * past that they are written to a temporary file in spillDir, so a big packet doesn't have to fit in
+ * memory first as bytes and then as a String before it can be parsed. Not thread safe.
+ */
+class SpillingLineBuffer @JvmOverloads constructor(
+    private val spillDir: File,
+    private val maxLineSize: Long,
+    private val spillThreshold: Int = DEFAULT_SPILL_THRESHOLD,
+) {
+    private var memory = ByteArrayOutputStream(1024)
+    private var spillFile: File? = null
+    private var spillOutput: OutputStream? = null
+
+    var size = 0L
+        private set
+
+    /**
+     * Adds bytes to the line. If it gets longer than maxLineSize, it's discarded and LineTooLongException is thrown.
+     */
+    @Throws(IOException::class)
+    fun write(bytes: ByteArray, offset: Int, length: Int) {
+        if (size + length > maxLineSize) {
+            clear()
+            throw LineTooLongException()
+        }
+        val output = spillOutput ?: if (memory.size() + length > spillThreshold) spill() else memory
+        output.write(bytes, offset, length)
+        size += length
+    }
+
+    /**
+     * Returns the line written so far and empties the buffer
+     */
+    @Throws(IOException::class)
+    fun take(): ReceivedLine {
+        val file = spillFile
+        val line = if (file != null) {
+            spillOutput!!.close()
+            ReceivedLine(file, size)
+        } else {
+            ReceivedLine(memory.toString(Charsets.UTF_8.name()), size)
+        }
+        spillFile = null
+        spillOutput = null
+        resetMemory()
+        return line
+    }
+
+    /**
+     * Throws away the line written so far
+     */
+    fun clear() {
+        try {
+            spillOutput?.close()
+        } catch (_: IOException) {
+        }
+        spillFile?.delete()
+        spillFile = null
+        spillOutput = null
+        resetMemory()
+    }
+
+    /**
+     * Reads until a \n is found, like readLineBounded
+     */
+    @Throws(IOException::class)
+    fun readLine(inputStream: InputStream): ReceivedLine {
+        val chunk = ByteArray(1)
+        while (true) {
+            val b = inputStream.read()
+            if (b == -1) {
+                clear()
+                throw IOException("Stream closed")
+            }
+            chunk[0] = b.toByte()
+            write(chunk, 0, 1)
+            if (b == '\n'.code) {
+                return take()
+            }
+        }
+    }
+
+    private fun spill(): OutputStream {
+        spillDir.mkdirs()
+        val file = File.createTempFile("packet", ".json", spillDir)
+        val output = BufferedOutputStream(file.outputStream(), SPILL_BUFFER_SIZE)
+        spillFile = file
+        spillOutput = output
+        memory.writeTo(output)
+        Log.i(LOG_TAG, "Writing a packet bigger than $spillThreshold bytes to ${file.name}")
+        return output
+    }
+
+    private fun resetMemory() {
+        size = 0
+        // Don't keep a big buffer around after receiving a big packet
+        if (memory.size() > MAX_RETAINED_BUFFER) {
+            memory = ByteArrayOutputStream(1024)
+        } else {
+            memory.reset()
+        }
+    }
+
+    companion object {
+        private const val LOG_TAG = "KDE/SpillingLineBuffer"
+
+        const val DEFAULT_SPILL_THRESHOLD = 1024 * 1024
+        private const val MAX_RETAINED_BUFFER = 64 * 1024
+        private const val SPILL_BUFFER_SIZE = 64 * 1024
+
+        @JvmStatic
+        fun spillDir(context: Context): File = File(context.cacheDir, "received_packets")
+
+        /**
+         * Deletes the files of lines that were being received when the app was killed
+         */
+        @JvmStatic
+        fun deleteSpilledLines(context: Context) {
+            spillDir(context).listFiles()?.forEach { it.delete() }
+        }
+    }
+}
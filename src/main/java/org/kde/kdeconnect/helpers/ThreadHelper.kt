@@ -9,15 +9,64 @@ package org.kde.kdeconnect.helpers
 import android.os.Looper
 import android.util.Log
 import org.kde.kdeconnect_tp.BuildConfig
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import java.util.EnumMap
+import java.util.concurrent.Executor
 
 object ThreadHelper {
 
-    private val executor: ExecutorService = Executors.newCachedThreadPool()
+    /**
+     * Each kind of work gets its own bounded pool, so a burst of one of them (eg: many devices connecting
+     * at once) can't spawn an unbounded number of threads or starve the others.
+     */
+    enum class Pool(val maxThreads: Int, val queueCapacity: Int) {
+        /** Loops that accept connections or block reading a socket or stream for as long as it's open. They never wait in a queue. */
+        NETWORK(64, 0),
+        /** Handshakes with devices that connect to us or that we connect to */
+        HANDSHAKE(8, 32),
+        /**
+         * Handing received packets over to the links and plugins, always through a SerialExecutor (one per connection
+         * or plugin) so they keep their order. They never wait in a queue, so a slow plugin can't hold back the others.
+         */
+        PACKET_DELIVERY(32, 0),
+        /** Sending payloads */
+        PAYLOAD(8, 64),
+        /** Work that plugins do in the background, eg: answering a request */
+        PLUGIN(8, 256),
+        /** Anything else */
+        BACKGROUND(8, 256),
+    }
+
+    private val executors = EnumMap<Pool, InstrumentedExecutor>(Pool::class.java).apply {
+        Pool.entries.forEach { put(it, InstrumentedExecutor(it.name.lowercase(), it.maxThreads, it.queueCapacity)) }
+    }
+
+    /**
+     * Runs the command in the BACKGROUND pool
+     */
+    @JvmStatic
+    fun execute(command: Runnable) = execute(Pool.BACKGROUND, command)
+
+    /**
+     * Runs the command in the pool, even if it's full (see [InstrumentedExecutor.execute])
+     */
+    @JvmStatic
+    fun execute(pool: Pool, command: Runnable) = executors.getValue(pool).execute(command)
+
+    /**
+     * For work we can drop when we are overloaded, eg: yet another incoming connection.
+     * Returns false if the pool is full and the command was dropped.
+     */
+    @JvmStatic
+    fun tryExecute(pool: Pool, command: Runnable): Boolean = executors.getValue(pool).tryExecute(command)
+
+    /**
+     * Like [execute], the returned Executor runs the commands even if the pool is full
+     */
+    @JvmStatic
+    fun executor(pool: Pool): Executor = executors.getValue(pool)
 
     @JvmStatic
-    fun execute(command: Runnable) = executor.execute(command)
+    fun getStats(): List<InstrumentedExecutor.Stats> = executors.values.map { it.getStats() }
 
     fun assertMainThread() {
         if (BuildConfig.DEBUG) {
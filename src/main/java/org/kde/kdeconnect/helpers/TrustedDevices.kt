@@ -8,9 +8,25 @@ import android.util.Log
 import androidx.core.content.edit
 import org.kde.kdeconnect.helpers.security.SslHelper.parseCertificate
 import java.security.cert.Certificate
+import java.util.concurrent.CopyOnWriteArrayList
 
 object TrustedDevices {
 
+    /**
+     * Lets whoever keeps data about trusted devices (eg: the backends) forget it when a device stops being trusted
+     */
+    fun interface UntrustedListener {
+        fun onDeviceUntrusted(deviceId: String)
+    }
+
+    private val untrustedListeners = CopyOnWriteArrayList<UntrustedListener>()
+
+    @JvmStatic
+    fun addUntrustedListener(listener: UntrustedListener) = untrustedListeners.add(listener)
+
+    @JvmStatic
+    fun removeUntrustedListener(listener: UntrustedListener) = untrustedListeners.remove(listener)
+
     @JvmStatic
     fun isTrustedDevice(context: Context, deviceId: String): Boolean {
         val preferences: SharedPreferences = context.getSharedPreferences("trusted_devices", MODE_PRIVATE)
@@ -27,7 +43,7 @@ object TrustedDevices {
         preferences.edit { remove(deviceId) }
         val deviceSettings = context.getSharedPreferences(deviceId, MODE_PRIVATE)
         deviceSettings.edit { clear() }
-
+        untrustedListeners.forEach { it.onDeviceUntrusted(deviceId) }
     }
 
     fun getAllTrustedDevices(context: Context): List<String> {
@@ -41,6 +57,7 @@ object TrustedDevices {
             .forEach {
                 Log.d("KdeConnect", "Removing devices: $it")
                 preferences.edit { remove(it) }
+                untrustedListeners.forEach { listener -> listener.onDeviceUntrusted(it) }
             }
     }
 
@@ -12,6 +12,7 @@ import android.security.keystore.KeyProperties
 import android.util.Base64
 import android.util.Log
 import androidx.core.content.edit
+import org.kde.kdeconnect.AppStartup
 import java.security.KeyFactory
 import java.security.KeyPair
 import java.security.KeyPairGenerator
@@ -59,6 +60,7 @@ object RsaHelper {
 
     @JvmStatic
     fun getPublicKey(context: Context): PublicKey {
+        AppStartup.await(AppStartup.Phase.CERTIFICATE)
         val settings = PreferenceManager.getDefaultSharedPreferences(context)
         val publicKeyBytes = Base64.decode(settings.getString("publicKey", ""), 0)
         return KeyFactory.getInstance(algorithmFromSettings(settings)).generatePublic(X509EncodedKeySpec(publicKeyBytes))
@@ -66,6 +68,7 @@ object RsaHelper {
 
     @JvmStatic
     fun getPrivateKey(context: Context): PrivateKey {
+        AppStartup.await(AppStartup.Phase.CERTIFICATE)
         val settings = PreferenceManager.getDefaultSharedPreferences(context)
         val privateKeyBytes = Base64.decode(settings.getString("privateKey", ""), 0)
         return KeyFactory.getInstance(algorithmFromSettings(settings)).generatePrivate(PKCS8EncodedKeySpec(privateKeyBytes))
@@ -18,6 +18,7 @@ import org.bouncycastle.asn1.x500.style.IETFUtils
 import org.bouncycastle.cert.X509v3CertificateBuilder
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder
+import org.kde.kdeconnect.AppStartup
 import org.kde.kdeconnect.helpers.DeviceHelper.getDeviceId
 import org.kde.kdeconnect.helpers.RandomHelper
 import org.kde.kdeconnect.helpers.security.RsaHelper.getPrivateKey
@@ -40,13 +41,23 @@ import java.util.Formatter
 import java.util.Locale
 import javax.net.ssl.KeyManagerFactory
 import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLEngine
 import javax.net.ssl.SSLSocket
 import javax.net.ssl.TrustManager
 import javax.net.ssl.TrustManagerFactory
 import javax.net.ssl.X509TrustManager
 
 object SslHelper {
-    lateinit var certificate: Certificate //my device's certificate
+    private lateinit var myCertificate: Certificate
+
+    var certificate: Certificate //my device's certificate
+        get() {
+            AppStartup.await(AppStartup.Phase.CERTIFICATE)
+            return myCertificate
+        }
+        private set(value) {
+            myCertificate = value
+        }
     private val factory: CertificateFactory = CertificateFactory.getInstance("X.509")
 
     @SuppressLint("CustomX509TrustManager", "TrustAllX509TrustManager")
@@ -195,6 +206,27 @@ object SslHelper {
         return sslSocket
     }
 
+    /**
+     * Returns an SSLEngine configured like the sockets returned by convertToSslSocket, for connections
+     * driven by a Selector. There is no read timeout here: the caller has to enforce its own.
+     */
+    @JvmStatic
+    @Throws(java.security.cert.CertificateException::class)
+    fun createSslEngine(context: Context, deviceId: String, isDeviceTrusted: Boolean, clientMode: Boolean, peerHost: String, peerPort: Int): SSLEngine {
+        val engine = getSslContextForDevice(context, deviceId, isDeviceTrusted).createSSLEngine(peerHost, peerPort)
+        if (clientMode) {
+            engine.useClientMode = true
+        } else {
+            engine.useClientMode = false
+            if (isDeviceTrusted) {
+                engine.needClientAuth = true
+            } else {
+                engine.wantClientAuth = true
+            }
+        }
+        return engine
+    }
+
     fun getCertificateHash(certificate: Certificate): String {
         val hash = MessageDigest.getInstance("SHA-256").digest(certificate.encoded)
         val formatter = Formatter()
@@ -109,6 +109,13 @@ abstract class Plugin {
      */
     open val isEnabledByDefault: Boolean = true
 
+    /**
+     * Return true if this plugin does nothing until it receives a packet or the user opens it: it doesn't
+     * register listeners or send packets in onCreate(), and doesn't need to ask for permissions. Such plugins
+     * are only created for a device the first time they receive a packet or something calls Device.getPlugin().
+     */
+    open val isCreatedOnDemand: Boolean = false
+
     /**
      * Return true if this plugin needs a specific UI settings.
      */
@@ -172,11 +179,34 @@ abstract class Plugin {
      * Called when a plugin receives a packet.
      * By convention, we return true when we have done something in response to the packet or false otherwise,
      * even though that value is unused as of now.
+     *
+     * Packets are delivered in the order they were received, on a worker thread of this plugin, so a slow
+     * handler only delays the packets for this plugin. See [inlinePacketTypes] for the exception.
      */
     open fun onPacketReceived(np: NetworkPacket): Boolean {
         return false
     }
 
+    /**
+     * Packet types that are delivered directly from the thread that received them, which can save a
+     * thread switch for latency-critical packets. Their handler must not block, since it delays every
+     * packet received from the device, and they can overtake packets still waiting for this plugin's worker.
+     */
+    open val inlinePacketTypes: Set<String> = emptySet()
+
+    /**
+     * Sends np as the current value of some state of this plugin, instead of sending every change: if the
+     * previous value is still waiting to be sent, only the newest one is. See [Device.publishState].
+     *
+     * @param key               identifies the state, by default the packet type
+     * @param replayOnReconnect whether to send the last value again when the device reconnects. Use false
+     *                          for requests that change something on the other device.
+     */
+    @JvmOverloads
+    protected fun publishState(np: NetworkPacket, key: String = np.type, replayOnReconnect: Boolean = true) {
+        device.publishState("$pluginKey/$key", np, replayOnReconnect)
+    }
+
     /**
      * Should return the list of NetworkPacket types that this plugin can handle
      */
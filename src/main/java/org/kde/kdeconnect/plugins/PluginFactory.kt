@@ -7,32 +7,71 @@ package org.kde.kdeconnect.plugins
 
 import android.content.Context
 import android.util.Log
+import org.kde.kdeconnect.AppStartup
+import org.kde.kdeconnect.CapabilityDigests
+import org.kde.kdeconnect.CompactPacketCodec
 import org.kde.kdeconnect.Device
+import org.kde.kdeconnect.StripedPayloads
 
 object PluginFactory {
     annotation class LoadablePlugin  //Annotate plugins with this so PluginFactory finds them
 
-    private var pluginInfo: Map<String, PluginInfo> = mapOf()
+    /**
+     * A plugin found at build time, see GeneratedPluginRegistry (written by the plugin-registry-processor module)
+     */
+    class PluginRegistration(val pluginKey: String, val create: () -> Plugin)
 
-    fun initPluginInfo(context: Context) {
-        try {
-            pluginInfo = com.albertvaka.classindexksp.LoadablePlugin
-                .asSequence()
-                .map { it.java.getDeclaredConstructor().newInstance() as Plugin }
-                .onEach { it.setContext(context, null) }
-                .associate { Pair(it.pluginKey, PluginInfo(it)) }
-        } catch (e: Exception) {
-            throw RuntimeException(e)
+    private var loadedPluginInfo: Map<String, PluginInfo> = mapOf()
+
+    private val pluginInfo: Map<String, PluginInfo>
+        get() {
+            AppStartup.await(AppStartup.Phase.PLUGIN_INFO)
+            return loadedPluginInfo
+        }
+
+    /**
+     * @param registrations the plugins to load, tests can pass their own
+     */
+    fun initPluginInfo(context: Context, registrations: List<PluginRegistration> = GeneratedPluginRegistry.plugins) {
+        // The names and descriptions are translated resources and the packet types are set when plugins are
+        // constructed, so we still need an instance of each one to read them, but no reflection to create it
+        val loaded = registrations.associate { registration ->
+            val plugin = registration.create().apply { setContext(context, null) }
+            Pair(registration.pluginKey, PluginInfo(plugin, registration.create))
         }
-        Log.i("PluginFactory", "Loaded " + pluginInfo.size + " plugins")
+        // Striped payloads and the compact codec aren't plugins, but this is how we let other devices know we support them
+        val protocolCapabilities = setOf(StripedPayloads.PACKET_TYPE_STRIPE, CompactPacketCodec.CAPABILITY)
+        val incoming = loaded.values.flatMap { plugin -> plugin.supportedPacketTypes }.toSet() + protocolCapabilities
+        val outgoing = loaded.values.flatMap { plugin -> plugin.outgoingPacketTypes }.toSet() + protocolCapabilities
+        loadedPluginInfo = loaded
+        incomingCapabilities = incoming
+        outgoingCapabilities = outgoing
+        capabilitiesDigest = CapabilityDigests.digest(incoming, outgoing)
+        Log.i("PluginFactory", "Loaded " + loaded.size + " plugins")
     }
 
     val availablePlugins: Set<String>
         get() = pluginInfo.keys
-    val incomingCapabilities: Set<String>
-        get() = pluginInfo.values.flatMap { plugin -> plugin.supportedPacketTypes }.toSet()
-    val outgoingCapabilities: Set<String>
-        get() = pluginInfo.values.flatMap { plugin -> plugin.outgoingPacketTypes }.toSet()
+
+    // Only change in initPluginInfo(), so they are computed once there instead of on every identity packet
+    var incomingCapabilities: Set<String> = setOf()
+        get() {
+            AppStartup.await(AppStartup.Phase.PLUGIN_INFO)
+            return field
+        }
+        private set
+    var outgoingCapabilities: Set<String> = setOf()
+        get() {
+            AppStartup.await(AppStartup.Phase.PLUGIN_INFO)
+            return field
+        }
+        private set
+    var capabilitiesDigest: String = CapabilityDigests.digest(setOf(), setOf())
+        get() {
+            AppStartup.await(AppStartup.Phase.PLUGIN_INFO)
+            return field
+        }
+        private set
 
     @JvmStatic
     fun getPluginInfo(pluginKey: String): PluginInfo = pluginInfo[pluginKey]!!
@@ -44,7 +83,7 @@ object PluginFactory {
 
     fun instantiatePluginForDevice(context: Context, pluginKey: String, device: Device): Plugin? {
         try {
-            val plugin = pluginInfo[pluginKey]?.instantiableClass?.getDeclaredConstructor()?.newInstance()?.apply { setContext(context, device) }
+            val plugin = pluginInfo[pluginKey]?.create?.invoke()?.apply { setContext(context, device) }
             return plugin
         } catch (e: Exception) {
             Log.e("PluginFactory", "Could not instantiate plugin: $pluginKey", e)
@@ -72,13 +111,14 @@ object PluginFactory {
         val isEnabledByDefault: Boolean,
         val hasSettings: Boolean,
         val listenToUnpaired: Boolean,
+        val isCreatedOnDemand: Boolean,
         supportedPacketTypes: Array<String>,
         outgoingPacketTypes: Array<String>,
-        val instantiableClass: Class<out Plugin>,
+        internal val create: () -> Plugin,
     ) {
-        internal constructor(p: Plugin) : this(p.displayName, p.description,
-            p.isEnabledByDefault, p.hasSettings(), p.listensToUnpairedDevices(),
-            p.supportedPacketTypes, p.outgoingPacketTypes, p.javaClass)
+        internal constructor(p: Plugin, create: () -> Plugin) : this(p.displayName, p.description,
+            p.isEnabledByDefault, p.hasSettings(), p.listensToUnpairedDevices(), p.isCreatedOnDemand,
+            p.supportedPacketTypes, p.outgoingPacketTypes, create)
 
         val supportedPacketTypes: Set<String> = supportedPacketTypes.toSet()
         val outgoingPacketTypes: Set<String> = outgoingPacketTypes.toSet()
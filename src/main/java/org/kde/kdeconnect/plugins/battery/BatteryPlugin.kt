@@ -76,7 +76,7 @@ class BatteryPlugin : Plugin() {
                 batteryInfo["currentCharge"] = currentCharge
                 batteryInfo["isCharging"] = isCharging
                 batteryInfo["thresholdEvent"] = thresholdEvent
-                device.sendPacket(batteryInfo)
+                publishState(batteryInfo)
 
                 // We just send a possible threshold event so reset it so we not create notifications on each change
                 thresholdEvent = THRESHOLD_EVENT_NONE
@@ -64,7 +64,7 @@ class ConnectivityReportPlugin : Plugin() {
                 }
             }
             connectivityInfo["signalStrengths"] = signalStrengths
-            device.sendPacket(connectivityInfo)
+            publishState(connectivityInfo)
         }
     }
 
@@ -14,6 +14,7 @@ import org.kde.kdeconnect.NetworkPacket
 import org.kde.kdeconnect.plugins.Plugin
 import org.kde.kdeconnect.plugins.PluginFactory
 import org.kde.kdeconnect.ui.PluginSettingsFragment
+import org.kde.kdeconnect_tp.BuildConfig
 import org.kde.kdeconnect_tp.R
 
 @PluginFactory.LoadablePlugin
@@ -60,16 +61,21 @@ class DigitizerPlugin : Plugin() {
         device.sendPacket(np)
     }
 
+    private val eventPackets = NetworkPacket.Pool(PACKET_TYPE_DIGITIZER)
+
     fun reportEvent(event: ToolEvent) {
-        Log.d(TAG, "reportEvent: $event")
-
-        val np = NetworkPacket(PACKET_TYPE_DIGITIZER).also { packet ->
-            event.active?.let { packet["active"] = it }
-            event.touching?.let { packet["touching"] = it }
-            event.tool?.let { packet["tool"] = it.name }
-            event.x?.let { packet["x"] = it }
-            event.y?.let { packet["y"] = it }
-            event.pressure?.let { packet["pressure"] = it }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "reportEvent: $event")
+        }
+
+        // Pooled packets keep the fields of the last event they were sent with, so remove the ones not in this one
+        val np = eventPackets.obtain().also { packet ->
+            if (event.active != null) packet["active"] = event.active else packet.remove("active")
+            if (event.touching != null) packet["touching"] = event.touching else packet.remove("touching")
+            if (event.tool != null) packet["tool"] = event.tool.name else packet.remove("tool")
+            if (event.x != null) packet["x"] = event.x else packet.remove("x")
+            if (event.y != null) packet["y"] = event.y else packet.remove("y")
+            if (event.pressure != null) packet["pressure"] = event.pressure else packet.remove("pressure")
         }
         device.sendPacket(np)
     }
@@ -78,6 +84,8 @@ class DigitizerPlugin : Plugin() {
     override fun getSettingsFragment(activity: Activity): PluginSettingsFragment =
         PluginSettingsFragment.newInstance(pluginKey, R.xml.digitizer_preferences)
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes: Array<String>
         get() = arrayOf()
 
@@ -27,6 +27,8 @@ class FindRemoteDevicePlugin : Plugin() {
         }
     )
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes: Array<String> = emptyArray()
 
     override val outgoingPacketTypes: Array<String> = arrayOf(FindMyPhonePlugin.PACKET_TYPE_FINDMYPHONE_REQUEST)
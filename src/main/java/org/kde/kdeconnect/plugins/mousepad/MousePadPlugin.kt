@@ -74,8 +74,10 @@ class MousePadPlugin : Plugin() {
         }
     }
 
+    private val mouseDeltaPackets = NetworkPacket.Pool(PACKET_TYPE_MOUSEPAD_REQUEST)
+
     fun sendMouseDelta(dx: Float, dy: Float) {
-        val np = NetworkPacket(PACKET_TYPE_MOUSEPAD_REQUEST)
+        val np = mouseDeltaPackets.obtain()
         np["dx"] = dx.toDouble()
         np["dy"] = dy.toDouble()
         sendPacket(np)
@@ -189,6 +191,8 @@ class MousePadPlugin : Plugin() {
         device.sendPacket(np)
     }
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes = arrayOf(PACKET_TYPE_MOUSEPAD_KEYBOARDSTATE)
     override val outgoingPacketTypes = arrayOf(PACKET_TYPE_MOUSEPAD_REQUEST)
 
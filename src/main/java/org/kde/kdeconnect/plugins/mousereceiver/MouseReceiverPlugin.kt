@@ -135,6 +135,9 @@ class MouseReceiverPlugin : Plugin() {
 
     override val supportedPacketTypes: Array<String> = arrayOf(PACKET_TYPE_MOUSEPAD_REQUEST)
 
+    // Moving the pointer only dispatches a gesture to the accessibility service, which doesn't block
+    override val inlinePacketTypes: Set<String> = setOf(PACKET_TYPE_MOUSEPAD_REQUEST)
+
     override val outgoingPacketTypes: Array<String> = emptyArray()
 
     companion object {
@@ -356,7 +356,7 @@ class MprisPlugin : Plugin() {
             // Playback was too short
             return
         }
-        ThreadHelper.execute {
+        ThreadHelper.execute(ThreadHelper.Pool.PLUGIN) {
             Thread.sleep(500)
             if (playerStatus.isPlaying) {
                 // Pause was too short. Probably just the gap between songs
@@ -124,7 +124,7 @@ public class MprisReceiverPlugin extends Plugin {
                 return false;
             }
             // run it on a different thread to avoid blocking
-            ThreadHelper.execute(() -> sendAlbumArt(playerName, cb, artUrl));
+            ThreadHelper.execute(ThreadHelper.Pool.PLUGIN, () -> sendAlbumArt(playerName, cb, artUrl));
             return true;
         }
 
@@ -220,7 +220,7 @@ public class MprisReceiverPlugin extends Plugin {
         NetworkPacket np = new NetworkPacket(PACKET_TYPE_MPRIS);
         np.set("playerList", players.keySet());
         np.set("supportAlbumArtPayload", true);
-        getDevice().sendPacket(np);
+        publishState(np, "playerList");
     }
 
     void sendAlbumArt(String playerName, @NonNull MprisReceiverCallback cb, @Nullable String requestedUrl) {
@@ -281,7 +281,7 @@ public class MprisReceiverPlugin extends Plugin {
             }
         }
         np.set("albumArtUrl", artUrl);
-        getDevice().sendPacket(np);
+        publishState(np, "metadata/" + player.getName());
     }
 
     @Override
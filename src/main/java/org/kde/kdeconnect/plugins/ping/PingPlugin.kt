@@ -88,6 +88,8 @@ class PingPlugin : Plugin() {
         }
     )
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes: Array<String> = arrayOf(PACKET_TYPE_PING)
 
     override val outgoingPacketTypes: Array<String> = arrayOf(PACKET_TYPE_PING)
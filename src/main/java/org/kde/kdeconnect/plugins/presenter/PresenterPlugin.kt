@@ -46,6 +46,8 @@ class PresenterPlugin : Plugin() {
             parentActivity.startActivity(intent)
         })
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes: Array<String> = emptyArray()
 
     override val outgoingPacketTypes: Array<String> = arrayOf(PACKET_TYPE_MOUSEPAD_REQUEST, PACKET_TYPE_PRESENTER)
@@ -74,8 +76,10 @@ class PresenterPlugin : Plugin() {
         device.sendPacket(np)
     }
 
+    private val pointerPackets = NetworkPacket.Pool(PACKET_TYPE_PRESENTER)
+
     fun sendPointer(xDelta: Float, yDelta: Float) {
-        val np = NetworkPacket(PACKET_TYPE_PRESENTER)
+        val np = pointerPackets.obtain()
         np["dx"] = xDelta.toDouble()
         np["dy"] = yDelta.toDouble()
         device.sendPacket(np)
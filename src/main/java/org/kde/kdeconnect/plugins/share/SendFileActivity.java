@@ -70,7 +70,7 @@ public class SendFileActivity extends AppCompatActivity {
                         Log.w("SendFileActivity", "No files to send?");
                         finish();
                     } else {
-                        ThreadHelper.execute(() -> {
+                        ThreadHelper.execute(ThreadHelper.Pool.PAYLOAD, () -> {
                             try {
                                 SharePlugin plugin = KdeConnect.getInstance().getDevicePlugin(mDeviceId, SharePlugin.class);
                                 if (plugin != null) {
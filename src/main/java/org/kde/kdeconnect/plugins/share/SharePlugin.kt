@@ -262,7 +262,7 @@ class SharePlugin : Plugin() {
         val streams = IntentHelper.streamsFromIntent(intent)
         if (streams.isNotEmpty()) {
             Log.i(TAG, "Intent contains files to share")
-            ThreadHelper.execute { sendFiles(streams) }
+            ThreadHelper.execute(ThreadHelper.Pool.PAYLOAD) { sendFiles(streams) }
             return
         }
         val urls = IntentHelper.parseIntentUrls(intent)
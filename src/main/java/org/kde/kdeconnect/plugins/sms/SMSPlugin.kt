@@ -23,6 +23,7 @@ import android.preference.PreferenceManager
 import android.provider.Telephony
 import android.telephony.PhoneNumberUtils
 import android.telephony.SmsMessage
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import androidx.core.content.ContextCompat
 import com.klinker.android.logger.Log
@@ -40,7 +41,7 @@ import org.kde.kdeconnect.helpers.SMSHelper.getMessagesInThread
 import org.kde.kdeconnect.helpers.SMSHelper.getNewestMessageTimestamp
 import org.kde.kdeconnect.helpers.SMSHelper.jsonArrayToAddressList
 import org.kde.kdeconnect.helpers.SMSHelper.jsonArrayToAttachmentsList
-import org.kde.kdeconnect.helpers.ThreadHelper.execute
+import org.kde.kdeconnect.helpers.ThreadHelper
 import org.kde.kdeconnect.NetworkPacket
 import org.kde.kdeconnect.plugins.Plugin
 import org.kde.kdeconnect.plugins.PluginFactory.LoadablePlugin
@@ -257,13 +258,13 @@ class SMSPlugin : Plugin() {
 
     override fun onPacketReceived(np: NetworkPacket): Boolean = when (np.type) {
         PACKET_TYPE_SMS_REQUEST_CONVERSATIONS -> {
-            execute {
+            ThreadHelper.execute(ThreadHelper.Pool.PLUGIN) {
                 this.handleRequestAllConversations(np)
             }
             true
         }
         PACKET_TYPE_SMS_REQUEST_CONVERSATION -> {
-            execute {
+            ThreadHelper.execute(ThreadHelper.Pool.PLUGIN) {
                 this.handleRequestSingleConversation(np)
             }
             true
@@ -506,7 +507,8 @@ class SMSPlugin : Plugin() {
          * @param messages Messages to include in the packet
          * @return NetworkPacket of type [PACKET_TYPE_SMS_MESSAGE]
          */
-        private fun constructBulkMessagePacket(messages: Iterable<SMSHelper.Message>): NetworkPacket {
+        @VisibleForTesting
+        internal fun constructBulkMessagePacket(messages: Iterable<SMSHelper.Message>): NetworkPacket {
             val reply = NetworkPacket(PACKET_TYPE_SMS_MESSAGE)
 
             val body = JSONArray()
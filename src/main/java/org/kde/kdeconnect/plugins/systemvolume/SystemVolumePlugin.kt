@@ -70,14 +70,15 @@ class SystemVolumePlugin : Plugin() {
         val np = NetworkPacket(PACKET_TYPE_SYSTEMVOLUME_REQUEST)
         np["volume"] = volume
         np["name"] = name
-        device.sendPacket(np)
+        // Dragging a slider sends many of these, only the last one matters
+        publishState(np, "volume/$name", replayOnReconnect = false)
     }
 
     internal fun sendMute(name: String, mute: Boolean) {
         val np = NetworkPacket(PACKET_TYPE_SYSTEMVOLUME_REQUEST)
         np["muted"] = mute
         np["name"] = name
-        device.sendPacket(np)
+        publishState(np, "muted/$name", replayOnReconnect = false)
     }
 
     internal fun sendEnable(name: String) {
@@ -87,6 +88,8 @@ class SystemVolumePlugin : Plugin() {
         device.sendPacket(np)
     }
 
+    override val isCreatedOnDemand: Boolean = true
+
     override val supportedPacketTypes: Array<String> = arrayOf(PACKET_TYPE_SYSTEMVOLUME)
     override val outgoingPacketTypes: Array<String> = arrayOf(PACKET_TYPE_SYSTEMVOLUME_REQUEST)
 
@@ -173,6 +173,7 @@ class DeviceFragment : BaseFragment<ActivityDeviceBinding>() {
             addPairingCallback(pairingCallback)
             removePluginsChangedListener(pluginsChangedListener)
             addPluginsChangedListener(pluginsChangedListener)
+            setAllPluginsShown(true) // We are going to show their buttons
         } ?: run { // device is null
             Log.e(TAG, "Trying to display a device fragment but the device is not present")
             (mActivity as? MainActivity)?.onDeviceSelected(null)
@@ -201,6 +202,7 @@ class DeviceFragment : BaseFragment<ActivityDeviceBinding>() {
 
     override fun onDestroyView() {
         device?.apply {
+            setAllPluginsShown(false)
             removePluginsChangedListener(pluginsChangedListener)
             removePairingCallback(pairingCallback)
         }
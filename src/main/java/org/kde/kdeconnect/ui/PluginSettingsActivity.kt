@@ -5,21 +5,35 @@
  */
 package org.kde.kdeconnect.ui
 
+import android.content.Intent
 import android.os.Build
 import android.os.Bundle
+import android.util.Log
 import android.view.Menu
 import android.view.MenuItem
 import android.view.View
 import android.widget.TextView
 import androidx.activity.enableEdgeToEdge
+import androidx.core.content.FileProvider
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import org.kde.kdeconnect.Device
 import org.kde.kdeconnect.DeviceStats
 import org.kde.kdeconnect.KdeConnect.Companion.getInstance
+import org.kde.kdeconnect.PacketCapture
+import org.kde.kdeconnect.PacketTracer
+import org.kde.kdeconnect.TransportMetrics
 import org.kde.kdeconnect.base.BaseActivity
 import org.kde.kdeconnect.plugins.Plugin
 import org.kde.kdeconnect.ui.PluginPreference.PluginPreferenceCallback
+import org.kde.kdeconnect_tp.BuildConfig
 import org.kde.kdeconnect_tp.R
 import org.kde.kdeconnect_tp.databinding.ActivityPluginSettingsBinding
+import java.io.File
+import java.io.IOException
 
 class PluginSettingsActivity : BaseActivity<ActivityPluginSettingsBinding>(), PluginPreferenceCallback {
 
@@ -82,8 +96,39 @@ class PluginSettingsActivity : BaseActivity<ActivityPluginSettingsBinding>(), Pl
     override fun onPrepareOptionsMenu(menu: Menu): Boolean {
         super.onPrepareOptionsMenu(menu)
         menu.clear()
+        menu.add(R.string.transport_metrics)
+            .setOnMenuItemClickListener {
+                showTransportMetrics()
+                true
+            }
+        menu.add(R.string.trace_packets)
+            .setCheckable(true)
+            .setChecked(PacketTracer.isEnabled)
+            .setOnMenuItemClickListener { item ->
+                PacketTracer.isEnabled = !PacketTracer.isEnabled
+                item.isChecked = PacketTracer.isEnabled
+                true
+            }
+        if (PacketTracer.traces().isNotEmpty()) {
+            menu.add(R.string.export_packet_traces)
+                .setOnMenuItemClickListener {
+                    exportPacketTraces()
+                    true
+                }
+        }
+        val device = getInstance().getDevice(settingsDeviceId)
+        // Captures contain the contents of messages and notifications, so they aren't offered in release builds
+        if (BuildConfig.DEBUG && device != null && (device.isReachable || PacketCapture.isCapturing(device.deviceId))) {
+            menu.add(R.string.capture_packets)
+                .setCheckable(true)
+                .setChecked(PacketCapture.isCapturing(device.deviceId))
+                .setOnMenuItemClickListener {
+                    togglePacketCapture(device)
+                    true
+                }
+        }
         if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.N) {
-            return false // PacketStats not working in API < 24
+            return true // PacketStats not working in API < 24
         }
         menu.add(R.string.plugin_stats)
             .setOnMenuItemClickListener {
@@ -104,6 +149,68 @@ class PluginSettingsActivity : BaseActivity<ActivityPluginSettingsBinding>(), Pl
         return true
     }
 
+    private fun showTransportMetrics() {
+        val alertDialog = MaterialAlertDialogBuilder(this)
+            .setTitle(R.string.transport_metrics)
+            .setPositiveButton(R.string.ok) { dialog, _ ->
+                dialog.dismiss()
+            }
+            .setNeutralButton(R.string.share) { _, _ ->
+                // JSON, so it can be compared between runs and devices
+                val intent = Intent(Intent.ACTION_SEND)
+                    .setType("application/json")
+                    .putExtra(Intent.EXTRA_TEXT, TransportMetrics.toJson().toString(2))
+                startActivity(Intent.createChooser(intent, getString(R.string.transport_metrics)))
+            }
+            .setMessage(TransportMetrics.dump())
+            .show()
+        val messageView = alertDialog.findViewById<View?>(android.R.id.message)
+        if (messageView is TextView) {
+            messageView.setTextIsSelectable(true)
+        }
+    }
+
+    private fun exportPacketTraces() {
+        val file = File(File(cacheDir, "traces"), "kdeconnect-packets-${System.currentTimeMillis()}.json")
+        try {
+            PacketTracer.writeTraceFile(file)
+        } catch (e: IOException) {
+            Log.e("PluginSettingsActivity", "Could not write packet traces", e)
+            return
+        }
+        val uri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".fileprovider", file)
+        val intent = Intent(Intent.ACTION_SEND)
+            .setType("application/json")
+            .putExtra(Intent.EXTRA_STREAM, uri)
+            .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        startActivity(Intent.createChooser(intent, getString(R.string.export_packet_traces)))
+    }
+
+    /**
+     * Starts capturing the packets of device, or stops and shares the capture if it was already running
+     */
+    private fun togglePacketCapture(device: Device) = lifecycleScope.launch {
+        // Opening the file, and waiting for the pending packets to be written to it, happen off the main thread
+        if (!PacketCapture.isCapturing(device.deviceId)) {
+            val file = File(File(cacheDir, "captures"), "kdeconnect-capture-${System.currentTimeMillis()}.jsonl")
+            withContext(Dispatchers.IO) {
+                try {
+                    PacketCapture.start(device, file)
+                } catch (e: IOException) {
+                    Log.e("PluginSettingsActivity", "Could not start packet capture", e)
+                }
+            }
+            return@launch
+        }
+        val file = withContext(Dispatchers.IO) { PacketCapture.stop() } ?: return@launch
+        val uri = FileProvider.getUriForFile(this@PluginSettingsActivity, BuildConfig.APPLICATION_ID + ".fileprovider", file)
+        val intent = Intent(Intent.ACTION_SEND)
+            .setType("application/json")
+            .putExtra(Intent.EXTRA_STREAM, uri)
+            .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        startActivity(Intent.createChooser(intent, getString(R.string.capture_packets)))
+    }
+
     override fun onStartPluginSettingsFragment(plugin: Plugin) {
         setTitle(getString(R.string.plugin_settings_with_name, plugin.displayName))
 
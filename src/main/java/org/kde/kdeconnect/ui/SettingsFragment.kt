@@ -67,6 +67,7 @@ class SettingsFragment : PreferenceFragmentCompat() {
             trustedNetworkPref(context),
             devicesByIpPref(context),
             bluetoothSupportPref(context),
+            nioEnginePref(context),
             exportLogsPref(context),
             moreSettingsPref(context),
         ).forEach(screen::addPreference)
@@ -222,6 +223,13 @@ class SettingsFragment : PreferenceFragmentCompat() {
         }
     }
 
+    private fun nioEnginePref(context: Context) = SwitchPreference(context).apply {
+        setDefaultValue(false)
+        key = KEY_LAN_NIO_ENGINE
+        setTitle(R.string.settings_lan_nio_engine)
+        setSummary(R.string.settings_lan_nio_engine_summary)
+    }
+
     private fun exportLogsPref(context: Context) = Preference(context).apply {
         isPersistent = false
         setTitle(R.string.settings_export_logs)
@@ -257,5 +265,6 @@ class SettingsFragment : PreferenceFragmentCompat() {
     companion object {
         const val KEY_BLUETOOTH_ENABLED: String = "bluetooth_enabled"
         const val KEY_APP_THEME: String = "theme_pref"
+        const val KEY_LAN_NIO_ENGINE: String = "lan_nio_engine"
     }
 }
@@ -17,6 +17,11 @@ public class Log {
         return 0;
     }
 
+    public static int w(String tag, String msg, Throwable e) {
+        System.out.println("WARN: " + tag + ": " + msg + ": " + e);
+        return 0;
+    }
+
     public static int e(String tag, String msg) {
         System.out.println("ERROR: " + tag + ": " + msg);
         return 0;
@@ -0,0 +1,71 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import io.mockk.mockk
+import org.junit.Assert
+import org.junit.Test
+
+class CapabilityDigestsTest {
+    private val deviceId = "27456e3c_fe5c_4208_96a7_c0caeec5e5a0"
+    private val incoming = setOf("kdeconnect.ping", "kdeconnect.battery")
+    private val outgoing = setOf("kdeconnect.ping", "kdeconnect.battery.request")
+
+    @Test
+    fun digestIgnoresOrder() {
+        val reversed = CapabilityDigests.digest(linkedSetOf("kdeconnect.battery", "kdeconnect.ping"), outgoing)
+        Assert.assertEquals(CapabilityDigests.digest(incoming, outgoing), reversed)
+    }
+
+    @Test
+    fun digestDistinguishesDirection() {
+        Assert.assertNotEquals(CapabilityDigests.digest(incoming, outgoing), CapabilityDigests.digest(outgoing, incoming))
+    }
+
+    @Test
+    fun rememberAndLookup() {
+        val digest = CapabilityDigests.remember(deviceId, incoming, outgoing)
+        Assert.assertTrue(CapabilityDigests.isCached(digest))
+        Assert.assertEquals(digest, CapabilityDigests.cachedDigestForDevice(deviceId))
+        Assert.assertEquals(Pair(incoming, outgoing), CapabilityDigests.lookup(deviceId, digest))
+        Assert.assertNull(CapabilityDigests.lookup(deviceId, "unknown"))
+    }
+
+    @Test
+    fun identityPacketWithoutCapabilities() {
+        val np = NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY)
+        np["deviceId"] = deviceId
+        np["capabilitiesDigest"] = CapabilityDigests.remember(deviceId, incoming, outgoing)
+        val deviceInfo = DeviceInfo.fromIdentityPacketAndCert(np, mockk())
+        Assert.assertEquals(incoming, deviceInfo.incomingCapabilities)
+        Assert.assertEquals(outgoing, deviceInfo.outgoingCapabilities)
+    }
+
+    @Test
+    fun capabilitiesInThePacketWinOverTheDigest() {
+        val np = NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY)
+        np["deviceId"] = deviceId
+        np["capabilitiesDigest"] = CapabilityDigests.remember(deviceId, incoming, outgoing)
+        val newIncoming = incoming + "kdeconnect.share.request"
+        np["incomingCapabilities"] = newIncoming
+        np["outgoingCapabilities"] = outgoing
+        val deviceInfo = DeviceInfo.fromIdentityPacketAndCert(np, mockk())
+        Assert.assertEquals(newIncoming, deviceInfo.incomingCapabilities)
+        Assert.assertEquals(outgoing, deviceInfo.outgoingCapabilities)
+        Assert.assertEquals(CapabilityDigests.digest(newIncoming, outgoing), deviceInfo.capabilitiesDigest)
+        Assert.assertEquals(deviceInfo.capabilitiesDigest, CapabilityDigests.cachedDigestForDevice(deviceId))
+    }
+
+    @Test
+    fun identityPacketWithAnUnknownDigestAndNoCapabilities() {
+        val np = NetworkPacket(NetworkPacket.PACKET_TYPE_IDENTITY)
+        np["deviceId"] = deviceId
+        np["capabilitiesDigest"] = "unknown"
+        val deviceInfo = DeviceInfo.fromIdentityPacketAndCert(np, mockk())
+        Assert.assertNull(deviceInfo.incomingCapabilities)
+        Assert.assertNull(deviceInfo.capabilitiesDigest)
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.BaseLinkProvider
+import org.kde.kdeconnect.helpers.DeviceHelper
+import org.kde.kdeconnect.helpers.TrustedDevices
+import org.kde.kdeconnect.helpers.security.RsaHelper
+import org.kde.kdeconnect.helpers.security.SslHelper
+import org.kde.kdeconnect.plugins.Plugin
+import org.kde.kdeconnect.plugins.PluginFactory
+import java.io.ByteArrayInputStream
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * How a Device hands the packets it receives to its plugins
+ */
+@RunWith(AndroidJUnit4::class)
+class DevicePluginDeliveryTest {
+    private lateinit var context: Context
+    private lateinit var device: Device
+
+    class SlowPlugin : Plugin() {
+        val received: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+        val unblock = CountDownLatch(1)
+        override val displayName = "Slow"
+        override val description = "Slow"
+        override val supportedPacketTypes = arrayOf(PACKET_TYPE_SLOW)
+        override val outgoingPacketTypes = emptyArray<String>()
+
+        override fun onPacketReceived(np: NetworkPacket): Boolean {
+            unblock.await(10, TimeUnit.SECONDS)
+            received.add(np.getInt("index"))
+            return true
+        }
+    }
+
+    class FastPlugin : Plugin() {
+        val received: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+        @Volatile
+        var inlineThread: Thread? = null
+        override val displayName = "Fast"
+        override val description = "Fast"
+        override val supportedPacketTypes = arrayOf(PACKET_TYPE_FAST, PACKET_TYPE_INLINE)
+        override val outgoingPacketTypes = emptyArray<String>()
+        override val inlinePacketTypes = setOf(PACKET_TYPE_INLINE)
+
+        override fun onPacketReceived(np: NetworkPacket): Boolean {
+            if (np.type == PACKET_TYPE_INLINE) {
+                inlineThread = Thread.currentThread()
+            } else {
+                received.add(np.getInt("index"))
+            }
+            return true
+        }
+    }
+
+    class OnDemandPlugin : Plugin() {
+        val received: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+        override val displayName = "OnDemand"
+        override val description = "OnDemand"
+        override val supportedPacketTypes = arrayOf(PACKET_TYPE_ON_DEMAND)
+        override val outgoingPacketTypes = emptyArray<String>()
+        override val isCreatedOnDemand = true
+
+        override fun onCreate(): Boolean {
+            created.incrementAndGet()
+            return true
+        }
+
+        override fun onPacketReceived(np: NetworkPacket): Boolean {
+            received.add(np.getInt("index"))
+            return true
+        }
+    }
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext<Application>()
+        DeviceHelper.initializeDeviceId(context)
+        RsaHelper.initialiseRsaKeys(context)
+        SslHelper.initialiseCertificate(context)
+        PluginFactory.initPluginInfo(context, listOf(
+            PluginFactory.PluginRegistration("SlowPlugin") { SlowPlugin() },
+            PluginFactory.PluginRegistration("FastPlugin") { FastPlugin() },
+            PluginFactory.PluginRegistration("OnDemandPlugin") { OnDemandPlugin() },
+        ))
+
+        created.set(0)
+
+        val deviceInfo = DeviceInfo("testDevice", SslHelper.certificate, "Test", DeviceType.DESKTOP, DeviceHelper.PROTOCOL_VERSION)
+        deviceInfo.saveInSettings(context)
+        TrustedDevices.addTrustedDevice(context, deviceInfo.id)
+        device = Device(context, deviceInfo.id)
+
+        val linkProvider = mockk<BaseLinkProvider>(relaxed = true)
+        val link = mockk<BaseLink>(relaxed = true)
+        every { link.linkProvider } returns linkProvider
+        every { link.deviceInfo } returns deviceInfo
+        device.addLink(link)
+    }
+
+    private fun packet(type: String, index: Int) = NetworkPacket(type).apply { this["index"] = index }
+
+    @Test
+    fun eachPluginGetsItsPacketsInOrderWithoutWaitingForTheOthers() {
+        val slow = device.getPlugin(SlowPlugin::class.java)!!
+        val fast = device.getPlugin(FastPlugin::class.java)!!
+
+        repeat(50) {
+            device.onPacketReceived(packet(PACKET_TYPE_SLOW, it))
+            device.onPacketReceived(packet(PACKET_TYPE_FAST, it))
+        }
+
+        // The fast plugin gets everything while the slow one is still stuck on its first packet
+        val deadline = System.currentTimeMillis() + 10_000
+        while (fast.received.size < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        Assert.assertEquals((0 until 50).toList(), fast.received.toList())
+        Assert.assertTrue(slow.received.isEmpty())
+
+        slow.unblock.countDown()
+        Assert.assertTrue(device.awaitPluginMailboxes(10_000))
+        Assert.assertEquals((0 until 50).toList(), slow.received.toList())
+    }
+
+    @Test
+    fun inlinePacketTypesAreDeliveredOnTheReceivingThread() {
+        val fast = device.getPlugin(FastPlugin::class.java)!!
+        device.onPacketReceived(packet(PACKET_TYPE_INLINE, 0))
+        Assert.assertSame(Thread.currentThread(), fast.inlineThread)
+    }
+
+    @Test
+    fun packetsForAPluginThatWasUnloadedAreNotDelivered() {
+        val slow = device.getPlugin(SlowPlugin::class.java)!!
+        val payloadClosed = CountDownLatch(1)
+        val payload = object : ByteArrayInputStream(ByteArray(1)) {
+            override fun close() = payloadClosed.countDown()
+        }
+        device.onPacketReceived(packet(PACKET_TYPE_SLOW, 0))
+        device.onPacketReceived(packet(PACKET_TYPE_SLOW, 1).apply { this.payload = NetworkPacket.Payload(payload, 1) })
+
+        device.setPluginEnabled("SlowPlugin", false)
+        slow.unblock.countDown()
+        Assert.assertTrue(device.awaitPluginMailboxes(10_000))
+        // The first one was already being handled when the plugin was unloaded
+        Assert.assertTrue(slow.received.size <= 1)
+        Assert.assertNull(device.getPlugin(SlowPlugin::class.java))
+        // The payload of the one that was dropped isn't left open
+        Assert.assertTrue(payloadClosed.await(0, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun pluginsCreatedOnDemandAreCreatedByTheFirstPacketForThem() {
+        Assert.assertFalse("OnDemandPlugin" in device.loadedPlugins)
+        Assert.assertEquals(0, created.get())
+
+        device.onPacketReceived(packet(PACKET_TYPE_ON_DEMAND, 0))
+        device.onPacketReceived(packet(PACKET_TYPE_ON_DEMAND, 1))
+        Assert.assertTrue(device.awaitPluginMailboxes(10_000))
+
+        val plugin = device.loadedPlugins["OnDemandPlugin"] as OnDemandPlugin
+        Assert.assertEquals(listOf(0, 1), plugin.received.toList())
+        Assert.assertEquals(1, created.get())
+        // A reload keeps the instance we created instead of deferring it again
+        device.reloadPluginsFromSettings()
+        Assert.assertSame(plugin, device.getPlugin(OnDemandPlugin::class.java))
+        Assert.assertEquals(1, created.get())
+    }
+
+    @Test
+    fun pluginsCreatedOnDemandAreCreatedWhenAskedFor() {
+        val plugin = device.getPlugin(OnDemandPlugin::class.java)
+        Assert.assertNotNull(plugin)
+        Assert.assertEquals(1, created.get())
+        Assert.assertSame(plugin, device.getPlugin(OnDemandPlugin::class.java))
+    }
+
+    @Test
+    fun pluginsCreatedOnDemandAreNotDeferredWhileAllPluginsAreShown() {
+        device.setAllPluginsShown(true)
+        device.reloadPluginsFromSettings()
+        Assert.assertTrue("OnDemandPlugin" in device.loadedPlugins)
+        Assert.assertEquals(1, created.get())
+        device.setAllPluginsShown(false)
+    }
+
+    companion object {
+        private const val PACKET_TYPE_ON_DEMAND = "kdeconnect.test.ondemand"
+        private val created = AtomicInteger()
+
+        private const val PACKET_TYPE_SLOW = "kdeconnect.test.slow"
+        private const val PACKET_TYPE_FAST = "kdeconnect.test.fast"
+        private const val PACKET_TYPE_INLINE = "kdeconnect.test.inline"
+    }
+}
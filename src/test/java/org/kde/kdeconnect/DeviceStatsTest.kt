@@ -5,45 +5,46 @@ import org.junit.Test
 import org.kde.kdeconnect.DeviceStats.removeOldEvents
 
 class DeviceStatsTest {
+    private val minute = 60 * 1000L
+
+    private fun counterWithEventsAt(vararg minutes: Long) = DeviceStats.MinuteCounter().apply {
+        minutes.forEach { increment(it * minute) }
+    }
+
     @Test
     fun removeOldEvents_cutoutExists() {
         val key = "kdeconnect.ping"
-        val eventsByType = HashMap<String, ArrayList<Long>>().apply {
-            val events = arrayListOf(10L, 20L, 30L)
-            put(key, events)
+        val eventsByType = HashMap<String, DeviceStats.MinuteCounter>().apply {
+            put(key, counterWithEventsAt(10L, 20L, 30L))
         }
-        val cutout = 20L
+        val cutout = 20L * minute
         removeOldEvents(eventsByType, cutout)
         val eventsAfter = eventsByType[key]!!
         Assert.assertNotNull(eventsAfter)
-        Assert.assertEquals(2, eventsAfter.size.toLong())
-        Assert.assertEquals(eventsAfter[0], 20L)
-        Assert.assertEquals(eventsAfter[1], 30L)
+        Assert.assertEquals(2, eventsAfter.count(cutout, 30L * minute))
+        Assert.assertEquals(3, eventsAfter.count(0, 30L * minute))
     }
 
     @Test
     fun removeOldEvents_cutoutDoesntExist() {
         val key = "kdeconnect.ping"
-        val eventsByType = HashMap<String, ArrayList<Long>>().apply {
-            val events = arrayListOf(10L, 20L, 30L)
-            put(key, events)
+        val eventsByType = HashMap<String, DeviceStats.MinuteCounter>().apply {
+            put(key, counterWithEventsAt(10L, 20L, 30L))
         }
-        val cutout = 25L
+        val cutout = 25L * minute
         removeOldEvents(eventsByType, cutout)
         val eventsAfter = eventsByType[key]!!
         Assert.assertNotNull(eventsAfter)
-        Assert.assertEquals(1, eventsAfter.size.toLong())
-        Assert.assertEquals(eventsAfter[0], 30L)
+        Assert.assertEquals(1, eventsAfter.count(cutout, 30L * minute))
     }
 
     @Test
     fun removeOldEvents_OnlyOldEvents() {
         val key = "kdeconnect.ping"
-        val eventsByType = HashMap<String, ArrayList<Long>>().apply {
-            val events = arrayListOf(10L, 20L)
-            put(key, events)
+        val eventsByType = HashMap<String, DeviceStats.MinuteCounter>().apply {
+            put(key, counterWithEventsAt(10L, 20L))
         }
-        val cutout = 25L
+        val cutout = 25L * minute
         removeOldEvents(eventsByType, cutout)
         val eventsAfter = eventsByType[key]
         Assert.assertNull(eventsAfter)
@@ -52,15 +53,25 @@ class DeviceStatsTest {
     @Test
     fun removeOldEvents_OnlyNewEvents() {
         val key = "kdeconnect.ping"
-        val eventsByType = HashMap<String, ArrayList<Long>>().apply {
-            val events = arrayListOf(10L)
-            put(key, events)
+        val eventsByType = HashMap<String, DeviceStats.MinuteCounter>().apply {
+            put(key, counterWithEventsAt(10L))
         }
-        val cutout = 5L
+        val cutout = 5L * minute
         removeOldEvents(eventsByType, cutout)
         val eventsAfter = eventsByType[key]!!
         Assert.assertNotNull(eventsAfter)
-        Assert.assertEquals(1, eventsAfter.size.toLong())
-        Assert.assertEquals(eventsAfter[0], 10L)
+        Assert.assertEquals(1, eventsAfter.count(cutout, 10L * minute))
+    }
+
+    @Test
+    fun minuteCounter_forgetsEventsOlderThanADay() {
+        val day = 24 * 60L
+        val counter = counterWithEventsAt(10L, 10L, 11L)
+        Assert.assertEquals(3, counter.count(0, 11L * minute))
+        // Lands in the same bucket as minute 10, which is more than 24 hours older and gets replaced
+        val now = (10L + day + 1) * minute
+        counter.increment(now)
+        Assert.assertEquals(2, counter.count(0, now))
+        Assert.assertEquals(1, counter.count(12L * minute, now))
     }
 }
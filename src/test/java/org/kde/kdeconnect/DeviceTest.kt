@@ -242,19 +242,49 @@ class DeviceTest {
         TrustedDevices.removeTrustedDevice(context, device.deviceId)
     }
 
+    @Test
+    @Throws(CertificateException::class)
+    fun testUpdateDeviceInfoKeepsTheLatestDigest() {
+        val device = Device(context, "testDevice")
+        val incoming = setOf("kdeconnect.ping")
+        val outgoing = setOf("kdeconnect.ping")
+
+        val withoutDigest = loadFromSettings(context, "testDevice")
+        withoutDigest.incomingCapabilities = incoming
+        withoutDigest.outgoingCapabilities = outgoing
+        Assert.assertTrue(device.updateDeviceInfo(withoutDigest))
+        Assert.assertNull(device.deviceInfo.capabilitiesDigest)
+
+        // Same capabilities, now with a digest: no changes for the plugins, but we keep the digest
+        val withDigest = loadFromSettings(context, "testDevice")
+        withDigest.incomingCapabilities = incoming
+        withDigest.outgoingCapabilities = outgoing
+        withDigest.capabilitiesDigest = CapabilityDigests.digest(incoming, outgoing)
+        Assert.assertFalse(device.updateDeviceInfo(withDigest))
+        Assert.assertEquals(withDigest.capabilitiesDigest, device.deviceInfo.capabilitiesDigest)
+    }
+
     @Test
     @Throws(CertificateException::class)
     fun testUnpair() {
         val pairingCallback = mockk<PairingCallback>(relaxed = true)
+        val untrustedListener = mockk<TrustedDevices.UntrustedListener>(relaxed = true)
+        TrustedDevices.addUntrustedListener(untrustedListener)
         val device = Device(context, "testDevice")
         device.addPairingCallback(pairingCallback)
 
-        device.unpair()
+        try {
+            device.unpair()
+        } finally {
+            TrustedDevices.removeUntrustedListener(untrustedListener)
+        }
 
         Assert.assertFalse(device.isPaired)
 
         Assert.assertFalse(TrustedDevices.isTrustedDevice(context, device.deviceId))
 
         verify(exactly = 1) { pairingCallback.unpaired(device) }
+        // So the backends forget what they know about it, eg: where it was last reachable
+        verify(exactly = 1) { untrustedListener.onDeviceUntrusted(device.deviceId) }
     }
 }
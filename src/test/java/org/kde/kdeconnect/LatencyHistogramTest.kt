@@ -0,0 +1,37 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import org.junit.Assert
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+    @Test
+    fun bucketsCoverEveryValue() {
+        var previous = -1
+        for (micros in listOf(0L, 1L, 15L, 16L, 31L, 32L, 33L, 1000L, 123_456L, (1L shl 40) - 1)) {
+            val index = LatencyHistogram.indexFor(micros)
+            Assert.assertTrue(index >= previous)
+            Assert.assertTrue(LatencyHistogram.lowerBound(index) <= micros)
+            Assert.assertTrue(LatencyHistogram.lowerBound(index + 1) > micros)
+            previous = index
+        }
+    }
+
+    @Test
+    fun percentiles() {
+        val histogram = LatencyHistogram()
+        for (millis in 1..100) {
+            histogram.recordNanos(millis * 1_000_000L)
+        }
+        Assert.assertEquals(100, histogram.count)
+        Assert.assertEquals(50.0, histogram.percentileMillis(0.5), 50 * 0.07)
+        Assert.assertEquals(99.0, histogram.percentileMillis(0.99), 99 * 0.07)
+        Assert.assertEquals(100.0, histogram.maxMillis(), 0.0)
+        Assert.assertEquals(50.5, histogram.meanMillis(), 0.001)
+    }
+}
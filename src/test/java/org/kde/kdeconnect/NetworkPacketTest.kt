@@ -61,4 +61,65 @@ class NetworkPacketTest {
         Assert.assertEquals(parsed.incomingCapabilities, deviceInfo.incomingCapabilities)
         Assert.assertEquals(parsed.outgoingCapabilities, deviceInfo.outgoingCapabilities)
     }
+
+    @Test
+    fun testCompactPacket() {
+        val np = NetworkPacket("kdeconnect.mousepad.request")
+        np["dx"] = 12.5
+        np["dy"] = -3.0
+        np["key"] = "/"
+
+        val serialized = np.serialize(true)
+        Assert.assertTrue(serialized.length < np.serialize().length / 2)
+        Assert.assertTrue(serialized.endsWith("\n"))
+
+        val np2 = unserialize(serialized)
+        Assert.assertEquals(np.type, np2.type)
+        Assert.assertEquals(12.5, np2.getDouble("dx"), 0.0)
+        Assert.assertEquals(-3.0, np2.getDouble("dy"), 0.0)
+        Assert.assertEquals("/", np2.getString("key"))
+        Assert.assertFalse(np2.has("scroll"))
+
+        // Packets that don't fit a schema are sent as JSON
+        np["unknownField"] = true
+        Assert.assertTrue(np.serialize(true).startsWith("{"))
+        Assert.assertTrue(NetworkPacket("com.test").serialize(true).startsWith("{"))
+    }
+
+    @Test
+    fun testPool() {
+        val pool = NetworkPacket.Pool("kdeconnect.presenter")
+        val np = pool.obtain()
+        np["dx"] = 1.0
+        np.recycle()
+
+        val reused = pool.obtain()
+        Assert.assertSame(np, reused)
+        Assert.assertEquals(1.0, reused.getDouble("dx"), 0.0)
+        Assert.assertNotSame(reused, pool.obtain())
+
+        // Packets with a payload are never reused
+        reused.payload = NetworkPacket.Payload(ByteArray(1))
+        reused.recycle()
+        Assert.assertNotSame(reused, pool.obtain())
+    }
+
+    @Test
+    fun testPooledPacketsGetANewTrace() {
+        PacketTracer.isEnabled = true
+        try {
+            val pool = NetworkPacket.Pool("kdeconnect.presenter")
+            val np = pool.obtain()
+            val first = np.trace!!
+            // Recycled without its trace being finished, eg: because sending it failed
+            np.recycle()
+
+            val reused = pool.obtain()
+            Assert.assertSame(np, reused)
+            Assert.assertNotSame(first, reused.trace)
+            Assert.assertNotEquals(first.id, reused.trace!!.id)
+        } finally {
+            PacketTracer.isEnabled = false
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.BaseLinkProvider
+import org.kde.kdeconnect.backends.loopback.LoopbackLink
+import org.kde.kdeconnect.backends.loopback.PacketReplay
+import org.kde.kdeconnect.helpers.DeviceHelper
+import org.kde.kdeconnect.helpers.TrustedDevices
+import org.kde.kdeconnect.helpers.security.RsaHelper
+import org.kde.kdeconnect.helpers.security.SslHelper
+import org.kde.kdeconnect.plugins.Plugin
+import org.kde.kdeconnect.plugins.PluginFactory
+import java.util.Collections
+
+@RunWith(AndroidJUnit4::class)
+class PacketCaptureTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var context: Context
+    private lateinit var device: Device
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext<Application>()
+        DeviceHelper.initializeDeviceId(context)
+        RsaHelper.initialiseRsaKeys(context)
+        SslHelper.initialiseCertificate(context)
+
+        val info = DeviceInfo("27456e3c_fe5c_4208_96a7_c0caeec5e5a0", SslHelper.certificate, "Desktop", DeviceType.DESKTOP,
+            DeviceHelper.PROTOCOL_VERSION, setOf("kdeconnect.ping"), setOf("kdeconnect.mousepad.request"))
+        device = mockk {
+            every { deviceId } returns info.id
+            every { deviceInfo } returns info
+        }
+    }
+
+    @Test
+    fun recordAndReplay() {
+        val file = folder.newFile("capture.jsonl")
+        PacketCapture.start(device, file)
+        Assert.assertTrue(PacketCapture.isCapturing(device.deviceId))
+        PacketCapture.record(device.deviceId, NetworkPacket("kdeconnect.mousepad.request").apply { this["dx"] = 1.5 }, incoming = true)
+        PacketCapture.record(device.deviceId, NetworkPacket("kdeconnect.ping"), incoming = false)
+        PacketCapture.record("some_other_device_that_is_not_captured", NetworkPacket("kdeconnect.ping"), incoming = true)
+        PacketCapture.record(device.deviceId, NetworkPacket("kdeconnect.share.request").apply {
+            payload = NetworkPacket.Payload(ByteArray(1000))
+        }, incoming = true)
+        Assert.assertEquals(file, PacketCapture.stop())
+        Assert.assertFalse(PacketCapture.isCapturing(device.deviceId))
+
+        val capture = PacketCapture.read(file)
+        Assert.assertEquals(device.deviceId, capture.deviceInfo.id)
+        Assert.assertEquals(setOf("kdeconnect.mousepad.request"), capture.deviceInfo.outgoingCapabilities)
+        Assert.assertEquals(listOf(true, false, true), capture.packets.map { it.incoming })
+        Assert.assertEquals(capture.packets.map { it.offsetNanos }.sorted(), capture.packets.map { it.offsetNanos })
+
+        val link = LoopbackLink(context, mockk<BaseLinkProvider>(relaxed = true), capture.deviceInfo)
+        val received = mutableListOf<NetworkPacket>()
+        link.addPacketReceiver(BaseLink.PacketReceiver { received.add(it) })
+        val result = PacketReplay(context, capture).replay(link, Double.POSITIVE_INFINITY)
+
+        Assert.assertEquals(2, result.packets)
+        Assert.assertEquals(listOf("kdeconnect.mousepad.request", "kdeconnect.share.request"), received.map { it.type })
+        Assert.assertEquals(1.5, received[0].getDouble("dx"), 0.0)
+        Assert.assertEquals(1000, received[1].payload!!.inputStream!!.readBytes().size)
+    }
+
+    class ReplayedPlugin : Plugin() {
+        override val displayName = "Replayed"
+        override val description = "Replayed"
+        override val supportedPacketTypes = arrayOf(PACKET_TYPE_REPLAYED)
+        override val outgoingPacketTypes = emptyArray<String>()
+
+        override fun onPacketReceived(np: NetworkPacket): Boolean {
+            replayed.add(np.getInt("index"))
+            return true
+        }
+    }
+
+    @Test
+    fun replayIntoNewDevice() {
+        PluginFactory.initPluginInfo(context, listOf(PluginFactory.PluginRegistration("ReplayedPlugin") { ReplayedPlugin() }))
+        replayed.clear()
+
+        val info = DeviceInfo("a5fd1e1c_5f0e_4a1b_9c77_4b0fbd3e2a11", SslHelper.certificate, "Desktop", DeviceType.DESKTOP,
+            DeviceHelper.PROTOCOL_VERSION, emptySet(), setOf(PACKET_TYPE_REPLAYED))
+        val packets = (0 until 3).map { index ->
+            val np = NetworkPacket(PACKET_TYPE_REPLAYED).apply { this["index"] = index }
+            PacketCapture.CapturedPacket(index * 1000L, incoming = true, np.serialize().trimEnd())
+        }
+        val result = PacketReplay(context, PacketCapture.Capture(info, 0, packets)).replayIntoNewDevice(Double.POSITIVE_INFINITY)
+
+        // Every packet reached the plugin of the new device before it returned
+        Assert.assertEquals(3, result.packets)
+        Assert.assertEquals(listOf(0, 1, 2), replayed.toList())
+        // And the device it made up is forgotten, the one captured was never added
+        Assert.assertTrue(TrustedDevices.getAllTrustedDevices(context).isEmpty())
+    }
+
+    companion object {
+        private const val PACKET_TYPE_REPLAYED = "kdeconnect.test.replayed"
+        private val replayed: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+    }
+}
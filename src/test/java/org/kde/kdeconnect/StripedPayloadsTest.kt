@@ -0,0 +1,223 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.LinkHealth
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/**
+ * Feeds StripedPayloadSender into StripedPayloadReceiver through in-memory links
+ */
+class StripedPayloadsTest {
+    private val source = Random(42).nextBytes(20 * 1024 * 1024)
+
+    private val senderDevice = mockk<Device>(relaxed = true)
+    private val receiverDevice = mockk<Device>(relaxed = true)
+    private val sending = StripedPayloads(senderDevice)
+    private val receiving = StripedPayloads(receiverDevice)
+
+    // What the plugins on the receiving end get
+    private val delivered = LinkedBlockingQueue<NetworkPacket>()
+
+    init {
+        every { senderDevice.deviceInfo.incomingCapabilities } returns setOf(StripedPayloads.PACKET_TYPE_STRIPE)
+        // Acknowledgements go back to the sender
+        every { receiverDevice.sendPacket(any()) } answers { sending.onPacketReceived(firstArg()) }
+    }
+
+    private class RecordingCallback : Device.SendPacketStatusCallback() {
+        val finished = CountDownLatch(1)
+        @Volatile
+        var success: Boolean? = null
+
+        override fun onSuccess() {
+            success = true
+            finished.countDown()
+        }
+
+        override fun onFailure(e: Throwable) {
+            success = false
+            finished.countDown()
+        }
+    }
+
+    /**
+     * A link that sends what it's given to the receiving end, until it has sent failAfterBytes of the payload
+     */
+    private fun link(failAfterBytes: (stripe: Int) -> Long = { Long.MAX_VALUE }): BaseLink {
+        val health = LinkHealth()
+        val link = mockk<BaseLink>(relaxed = true)
+        every { link.health } returns health
+        every { link.sendPacket(any(), any(), any()) } answers {
+            val np = firstArg<NetworkPacket>()
+            val stripe = np.payloadTransferInfo.getJSONObject(StripedPayloads.KEY_STRIPE).getInt("index")
+            transfer(np, failAfterBytes(stripe))
+        }
+        return link
+    }
+
+    private fun transfer(np: NetworkPacket, failAfterBytes: Long): Boolean {
+        if (failAfterBytes == 0L) {
+            return false
+        }
+        val pipeIn = PipedInputStream(1024 * 1024)
+        val pipeOut = PipedOutputStream(pipeIn)
+        val received = NetworkPacket.unserialize(np.serialize())
+        received.payload = NetworkPacket.Payload(pipeIn, np.payloadSize)
+        if (!receiving.onPacketReceived(received)) {
+            delivered.add(received)
+        }
+        pipeOut.use { out ->
+            val input = np.payload!!.inputStream!!
+            val buffer = ByteArray(64 * 1024)
+            var sent = 0L
+            while (true) {
+                val n = input.read(buffer)
+                if (n < 0) {
+                    break
+                }
+                val allowed = minOf(n.toLong(), failAfterBytes - sent).toInt()
+                out.write(buffer, 0, allowed)
+                sent += allowed
+                if (allowed < n) {
+                    throw IOException("Link dropped after $sent bytes")
+                }
+            }
+        }
+        return true
+    }
+
+    private fun readDeliveredPayload(): ByteArray {
+        val np = delivered.poll(10, TimeUnit.SECONDS) ?: throw AssertionError("The packet wasn't delivered")
+        Assert.assertEquals(source.size.toLong(), np.payloadSize)
+        return np.payload!!.inputStream!!.readBytes()
+    }
+
+    private fun sendInBackground(links: List<BaseLink>, callback: RecordingCallback) = thread {
+        val np = NetworkPacket("kdeconnect.test")
+        np.payload = NetworkPacket.Payload(source)
+        Assert.assertEquals(true, sending.trySend(np, callback, links, true))
+    }
+
+    @Test
+    fun payloadIsReassembledInOrder() {
+        val callback = RecordingCallback()
+        val sender = sendInBackground(listOf(link(), link(), link()), callback)
+        Assert.assertArrayEquals(source, readDeliveredPayload())
+        sender.join(10_000)
+        Assert.assertTrue(callback.finished.await(10, TimeUnit.SECONDS))
+        Assert.assertEquals(true, callback.success)
+    }
+
+    @Test
+    fun chunksOfAStripeThatDiesAreSentOverTheOthers() {
+        val callback = RecordingCallback()
+        // Stripe 1 drops in the middle of a frame
+        val links = List(3) { link { stripe -> if (stripe == 1) 1_500_000L else Long.MAX_VALUE } }
+        val sender = sendInBackground(links, callback)
+        Assert.assertArrayEquals(source, readDeliveredPayload())
+        sender.join(10_000)
+        Assert.assertTrue(callback.finished.await(10, TimeUnit.SECONDS))
+        Assert.assertEquals(true, callback.success)
+    }
+
+    @Test
+    fun fallsBackToOneLinkIfTheFirstFailsBeforeSendingAnything() {
+        val callback = RecordingCallback()
+        val first = link { 0L }
+        val second = link()
+        val np = NetworkPacket("kdeconnect.test")
+        val payload = NetworkPacket.Payload(source)
+        np.payload = payload
+
+        Assert.assertNull(sending.trySend(np, callback, listOf(first, second), true))
+
+        // The packet is left as it was, so it can be sent as usual
+        Assert.assertSame(payload, np.payload)
+        Assert.assertFalse(np.payloadTransferInfo.has(StripedPayloads.KEY_STRIPE))
+        Assert.assertNull(callback.success)
+        verify(exactly = 0) { second.sendPacket(any(), any(), any()) }
+        Assert.assertTrue(delivered.isEmpty())
+    }
+
+    @Test
+    fun duplicateChunksAreOnlyReadOnce() {
+        val chunkSize = 4
+        val data = "0123456789abcdef".toByteArray()
+        fun frames(vararg offsets: Int): InputStream {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { out ->
+                offsets.forEach { offset ->
+                    out.writeLong(offset.toLong())
+                    out.writeInt(chunkSize)
+                    out.write(data, offset, chunkSize)
+                }
+            }
+            return bytes.toByteArray().inputStream()
+        }
+
+        val receiver = StripedPayloadReceiver("test", 2, chunkSize, {}, {})
+        receiver.setTotalSize(data.size.toLong())
+        // Chunk 4 was retried over the second stripe, so it arrives twice, and out of order
+        receiver.addStripe(NetworkPacket.Payload(frames(0, 4, 12), -1))
+        receiver.addStripe(NetworkPacket.Payload(frames(8, 4), -1))
+
+        Assert.assertArrayEquals(data, receiver.inputStream.readBytes())
+    }
+
+    /**
+     * Delivers a stripe of a transfer whose packet hasn't arrived, returns a latch that is released when it's closed
+     */
+    private fun deliverOrphanStripe(payloads: StripedPayloads): CountDownLatch {
+        val closed = CountDownLatch(1)
+        val stripe = NetworkPacket(StripedPayloads.PACKET_TYPE_STRIPE)
+        stripe.payloadTransferInfo.put(StripedPayloads.KEY_STRIPE, JSONObject()
+            .put("id", "orphan")
+            .put("index", 1)
+            .put("count", 2)
+            .put("chunkSize", StripedPayloads.CHUNK_SIZE))
+        stripe.payload = NetworkPacket.Payload(object : InputStream() {
+            override fun read(): Int {
+                closed.await()
+                throw IOException("Closed")
+            }
+
+            override fun close() = closed.countDown()
+        }, 1)
+        Assert.assertTrue(payloads.onPacketReceived(stripe))
+        return closed
+    }
+
+    @Test
+    fun stripesOfATransferWhosePacketNeverArrivesAreClosed() {
+        val closed = deliverOrphanStripe(StripedPayloads(receiverDevice, 100))
+        Assert.assertTrue(closed.await(10, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun stripesAreClosedWhenTheDeviceDisconnects() {
+        val closed = deliverOrphanStripe(receiving)
+        receiving.onDisconnected()
+        Assert.assertTrue(closed.await(1, TimeUnit.SECONDS))
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LinkHealthTest {
+
+    private var now = 1_000_000_000L
+    private val clock = { now }
+
+    private fun sendTook(health: LinkHealth, millis: Long, success: Boolean = true, payloadBytes: Long = 0) {
+        val started = health.sendStarted()
+        now += millis * 1_000_000
+        health.sendFinished(started, success, payloadBytes)
+    }
+
+    @Test
+    fun keepsPriorityOrderWithoutMeasurements() {
+        val lan = LinkHealth(clock)
+        val bluetooth = LinkHealth(clock)
+        assertEquals(listOf(lan, bluetooth), LinkHealth.orderByHealth(listOf(lan, bluetooth), false) { it })
+        assertEquals(listOf(lan, bluetooth), LinkHealth.orderByHealth(listOf(lan, bluetooth), true) { it })
+    }
+
+    @Test
+    fun prefersLowerLatencyForInteractivePackets() {
+        val lan = LinkHealth(clock)
+        val bluetooth = LinkHealth(clock)
+        repeat(5) { sendTook(lan, 2000) }
+        repeat(5) { sendTook(bluetooth, 20) }
+        assertEquals(listOf(bluetooth, lan), LinkHealth.orderByHealth(listOf(lan, bluetooth), false) { it })
+    }
+
+    @Test
+    fun stalledLinkIsTriedLast() {
+        val lan = LinkHealth(clock)
+        val bluetooth = LinkHealth(clock)
+        lan.sendStarted()
+        assertTrue(lan.isHealthy())
+        now += 2_000_000_000L
+        assertTrue(lan.isStalled())
+        assertFalse(lan.isHealthy())
+        assertEquals(listOf(bluetooth, lan), LinkHealth.orderByHealth(listOf(lan, bluetooth), true) { it })
+    }
+
+    @Test
+    fun recoversAfterErrorsFade() {
+        val lan = LinkHealth(clock)
+        repeat(5) { sendTook(lan, 1, success = false) }
+        assertFalse(lan.isHealthy())
+        now += 120_000_000_000L
+        assertTrue(lan.isHealthy())
+    }
+
+    @Test
+    fun prefersHigherThroughputForPayloads() {
+        val lan = LinkHealth(clock)
+        val bluetooth = LinkHealth(clock)
+        sendTook(lan, 1000, payloadBytes = 1024 * 1024)
+        sendTook(bluetooth, 100, payloadBytes = 1024 * 1024)
+        assertEquals(listOf(bluetooth, lan), LinkHealth.orderByHealth(listOf(lan, bluetooth), true) { it })
+    }
+}
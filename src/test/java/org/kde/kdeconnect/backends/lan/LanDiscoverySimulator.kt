@@ -0,0 +1,310 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.DeviceInfo
+import org.kde.kdeconnect.DeviceType
+import org.kde.kdeconnect.TransportMetrics
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.BaseLinkProvider
+import org.kde.kdeconnect.helpers.DeviceHelper
+import org.kde.kdeconnect.helpers.ThreadHelper
+import org.kde.kdeconnect.helpers.readLineBounded
+import org.kde.kdeconnect.helpers.security.RsaHelper
+import org.kde.kdeconnect.helpers.security.SslHelper
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Simulates a network with many KDE Connect desktops: starts a LanLinkProvider and N fake peers that find
+ * it the way real ones do, and prints how long it takes until all of them are connected, how many threads
+ * and how much memory that takes, and how often the rate limiters kicked in.
+ *
+ * Half the peers announce themselves with a UDP identity packet (so the provider connects to them), the
+ * other half connect to the provider over TCP (as if they had received our broadcast). Every fourth peer
+ * has two addresses, like a laptop on both WiFi and Ethernet. Every peer has its own loopback address,
+ * since otherwise the rate limit by IP would only let one of them through per second, so this needs an
+ * OS where all of 127.0.0.0/8 goes to the loopback interface, like Linux.
+ *
+ * It's skipped unless asked for, like [LanLinkLoopbackBenchmark]:
+ *   ./gradlew testDebugUnitTest --tests '*LanDiscoverySimulator' -PlanBenchmark -PlanBenchmark.peers=8,32,128
+ * -PlanBenchmark.announcements sets how many UDP packets each peer sends, 200ms apart.
+ */
+@RunWith(AndroidJUnit4::class)
+class LanDiscoverySimulator {
+    private lateinit var context: Context
+    private lateinit var nextAddress: Iterator<InetAddress>
+
+    private class Result(
+        val peers: Int,
+        val connected: Int,
+        val millisToAllConnected: Long?,
+        val appThreads: Int,
+        val peakThreads: Int,
+        val heapBytes: Long,
+        val rateLimitedByIp: Long,
+        val rateLimitedByDeviceId: Long,
+        val handshakeFailures: Long,
+        val threadPools: String,
+    )
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue("Run with -PlanBenchmark", System.getProperty("lanBenchmark") != null)
+        nextAddress = generateSequence(2) { it + 1 }
+            .filter { it and 0xff != 0 && it and 0xff != 0xff }
+            .map { InetAddress.getByAddress(byteArrayOf(127, 0, (it shr 8).toByte(), it.toByte())) }
+            .iterator()
+        Assume.assumeTrue("Every peer needs its own loopback address", canBind(InetAddress.getByAddress(byteArrayOf(127, 0, 0, 2))))
+
+        context = ApplicationProvider.getApplicationContext<Application>()
+        DeviceHelper.initializeDeviceId(context)
+        RsaHelper.initialiseRsaKeys(context)
+        SslHelper.initialiseCertificate(context)
+    }
+
+    @Test
+    fun discovery() {
+        val sizes = (System.getProperty("lanBenchmark.peers") ?: "8,32,128").split(',').map { it.trim().toInt() }
+        val announcements = System.getProperty("lanBenchmark.announcements")?.toIntOrNull() ?: 3
+
+        val results = sizes.map { simulate(it, announcements) }
+
+        println("peers  connected  time to all  app threads  peak threads  heap/peer  limited by ip  limited by id  failed handshakes")
+        for (r in results) {
+            println("%5d  %9d  %11s  %11d  %12d  %6d KiB  %13d  %13d  %17d".format(r.peers, r.connected,
+                r.millisToAllConnected?.let { "${it}ms" } ?: "timed out", r.appThreads, r.peakThreads,
+                r.heapBytes / 1024 / r.peers, r.rateLimitedByIp, r.rateLimitedByDeviceId, r.handshakeFailures))
+            println("       pools: ${r.threadPools}")
+        }
+        for (r in results) {
+            Assert.assertEquals("Not all the peers got connected", r.peers, r.connected)
+        }
+    }
+
+    private fun simulate(peerCount: Int, announcements: Int): Result {
+        val connected = ConcurrentHashMap.newKeySet<String>()
+        val allConnected = CountDownLatch(peerCount)
+        val links = CopyOnWriteArrayList<BaseLink>()
+
+        val provider = LanLinkProvider(context)
+        provider.addConnectionReceiver(object : BaseLinkProvider.ConnectionReceiver {
+            override fun onConnectionReceived(link: BaseLink) {
+                links.add(link)
+                if (connected.add(link.deviceId)) {
+                    allConnected.countDown()
+                }
+            }
+            override fun onDeviceInfoUpdated(deviceInfo: DeviceInfo) {}
+            override fun onConnectionLost(link: BaseLink) {}
+        })
+
+        val rateLimitedByIp = TransportMetrics.counter("lan.rateLimitedByIp")
+        val rateLimitedByDeviceId = TransportMetrics.counter("lan.rateLimitedByDeviceId")
+        val handshakeFailures = TransportMetrics.counter("lan.handshakeFailures")
+        val rateLimitedByIpBefore = rateLimitedByIp.get()
+        val rateLimitedByDeviceIdBefore = rateLimitedByDeviceId.get()
+        val handshakeFailuresBefore = handshakeFailures.get()
+
+        val threads = ManagementFactory.getThreadMXBean()
+        val heapBefore = usedHeap()
+        threads.resetPeakThreadCount()
+
+        val peerThreadCount = AtomicInteger()
+        val peerExecutor = Executors.newCachedThreadPool { Thread(it, "$PEER_THREAD_PREFIX${peerThreadCount.incrementAndGet()}") }
+        val peers = (0 until peerCount).map { i ->
+            val addresses = if (i % 4 == 0) listOf(nextAddress.next(), nextAddress.next()) else listOf(nextAddress.next())
+            FakePeer(context, i, addresses, peerExecutor)
+        }
+
+        provider.startListening()
+        val started = System.nanoTime()
+        for ((i, peer) in peers.withIndex()) {
+            if (i % 2 == 0) {
+                peer.announce(announcements)
+            } else {
+                peer.connect(provider.tcpPort)
+            }
+        }
+        val finished = allConnected.await(30L + peerCount / 4, TimeUnit.SECONDS)
+        val millisToAllConnected = if (finished) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) else null
+
+        val result = Result(
+            peers = peerCount,
+            connected = connected.size,
+            millisToAllConnected = millisToAllConnected,
+            appThreads = Thread.getAllStackTraces().keys.count { !it.name.startsWith(PEER_THREAD_PREFIX) },
+            peakThreads = threads.peakThreadCount,
+            heapBytes = usedHeap() - heapBefore,
+            rateLimitedByIp = rateLimitedByIp.get() - rateLimitedByIpBefore,
+            rateLimitedByDeviceId = rateLimitedByDeviceId.get() - rateLimitedByDeviceIdBefore,
+            handshakeFailures = handshakeFailures.get() - handshakeFailuresBefore,
+            threadPools = ThreadHelper.getStats().joinToString { "${it.name} ${it.poolSize}" },
+        )
+
+        peers.forEach { it.close() }
+        peerExecutor.shutdownNow()
+        links.forEach { it.disconnect() }
+        provider.onStop()
+        return result
+    }
+
+    /**
+     * A KDE Connect desktop that only goes as far as the handshake, and then keeps the connection open
+     */
+    private class FakePeer(
+        private val context: Context,
+        index: Int,
+        private val addresses: List<InetAddress>,
+        private val executor: ExecutorService,
+    ) {
+        private val deviceId = "fake_peer_%023d".format(index)
+        private val deviceName = "Fake peer $index"
+        private val myDeviceId = DeviceHelper.getDeviceId(context)
+        private val sockets = CopyOnWriteArrayList<Socket>()
+        private val servers = CopyOnWriteArrayList<ServerSocket>()
+
+        /**
+         * Sends our identity over UDP from each of our addresses, and waits for the provider to connect back
+         */
+        fun announce(count: Int) {
+            for (address in addresses) {
+                val server = listenOnFreePort(address)
+                servers.add(server)
+                executor.execute { acceptConnections(server) }
+                executor.execute {
+                    DatagramSocket(InetSocketAddress(address, 0)).use { udp ->
+                        repeat(count) {
+                            // A new packet every time, the same bytes would be dropped as a duplicate
+                            val bytes = identity(server.localPort)
+                            udp.send(DatagramPacket(bytes, bytes.size, LOCALHOST, LanLinkProvider.UDP_PORT))
+                            Thread.sleep(ANNOUNCEMENT_INTERVAL_MILLIS)
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Connects to the provider over TCP from our first address
+         */
+        fun connect(providerPort: Int) {
+            executor.execute {
+                val socket = Socket()
+                try {
+                    socket.bind(InetSocketAddress(addresses.first(), 0))
+                    socket.connect(InetSocketAddress(LOCALHOST, providerPort), CONNECT_TIMEOUT_MILLIS)
+                    socket.getOutputStream().write(identity(null))
+                    handshake(socket, clientMode = false)
+                } catch (e: IOException) {
+                    socket.close()
+                }
+            }
+        }
+
+        private fun acceptConnections(server: ServerSocket) {
+            while (!server.isClosed) {
+                val socket = try {
+                    server.accept()
+                } catch (e: IOException) {
+                    return
+                }
+                try {
+                    readLineBounded(socket.getInputStream(), LanLinkProvider.MAX_IDENTITY_PACKET_SIZE)
+                    handshake(socket, clientMode = true)
+                } catch (e: IOException) {
+                    socket.close()
+                }
+            }
+        }
+
+        /**
+         * The protocol version 8 handshake: TLS, then both sides send their identity again over it
+         */
+        private fun handshake(socket: Socket, clientMode: Boolean) {
+            val sslSocket = SslHelper.convertToSslSocket(context, socket, myDeviceId, false, clientMode)
+            sslSocket.startHandshake()
+            sslSocket.outputStream.write(identity(null))
+            sslSocket.outputStream.flush()
+            readLineBounded(sslSocket.inputStream, LanLinkProvider.MAX_IDENTITY_PACKET_SIZE)
+            sslSocket.soTimeout = 0
+            sockets.add(sslSocket)
+        }
+
+        private fun identity(tcpPort: Int?): ByteArray {
+            // The certificate is only checked for trusted devices, so all the peers can share ours
+            val np = DeviceInfo(deviceId, SslHelper.certificate, deviceName, DeviceType.DESKTOP, DeviceHelper.PROTOCOL_VERSION,
+                CAPABILITIES, CAPABILITIES).toIdentityPacket()
+            tcpPort?.let { np["tcpPort"] = it }
+            return np.serialize().toByteArray()
+        }
+
+        fun close() {
+            servers.forEach { it.close() }
+            sockets.forEach { it.close() }
+        }
+
+        private fun listenOnFreePort(address: InetAddress): ServerSocket {
+            // The provider only connects to ports in this range
+            for (port in LanLinkProvider.MIN_PORT..LanLinkProvider.MAX_PORT) {
+                val server = ServerSocket()
+                try {
+                    server.bind(InetSocketAddress(address, port))
+                    return server
+                } catch (e: IOException) {
+                    server.close()
+                }
+            }
+            throw IOException("No free port for $address")
+        }
+    }
+
+    private fun canBind(address: InetAddress): Boolean = try {
+        DatagramSocket(InetSocketAddress(address, 0)).close()
+        true
+    } catch (e: IOException) {
+        false
+    }
+
+    private fun usedHeap(): Long {
+        repeat(3) {
+            System.gc()
+            Thread.sleep(50)
+        }
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    companion object {
+        private const val PEER_THREAD_PREFIX = "fake-peer-"
+        private const val ANNOUNCEMENT_INTERVAL_MILLIS = 200L
+        private const val CONNECT_TIMEOUT_MILLIS = 5000
+        private val LOCALHOST: InetAddress = InetAddress.getByAddress(byteArrayOf(127, 0, 0, 1))
+        private val CAPABILITIES = setOf("kdeconnect.ping")
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.mockk.mockk
+import org.junit.After
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.Device
+import org.kde.kdeconnect.DeviceInfo
+import org.kde.kdeconnect.DeviceType
+import org.kde.kdeconnect.LatencyHistogram
+import org.kde.kdeconnect.NetworkPacket
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.backends.BaseLinkProvider
+import org.kde.kdeconnect.helpers.DeviceHelper
+import org.kde.kdeconnect.helpers.TrustedDevices
+import org.kde.kdeconnect.helpers.security.RsaHelper
+import org.kde.kdeconnect.helpers.security.SslHelper
+import java.io.InputStream
+import java.lang.management.ManagementFactory
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends packets and payloads between two LanLinks connected over localhost with the same TLS setup we use
+ * with real devices, and prints packets/s, MB/s, latency percentiles and allocations.
+ *
+ * It's skipped unless asked for, since it takes a while and the numbers depend on the machine:
+ *   ./gradlew testDebugUnitTest --tests '*LanLinkLoopbackBenchmark' -PlanBenchmark
+ * The sizes can be changed with -PlanBenchmark.packets, -PlanBenchmark.packetSize (bytes in the body of each
+ * packet), -PlanBenchmark.payloads and -PlanBenchmark.payloadSize (bytes).
+ */
+@RunWith(AndroidJUnit4::class)
+class LanLinkLoopbackBenchmark {
+    private lateinit var context: Context
+    private lateinit var sender: LanLink
+    private lateinit var receiver: LanLink
+
+    @Volatile
+    private var onReceived: (NetworkPacket) -> Unit = {}
+
+    private val callback = object : Device.SendPacketStatusCallback() {
+        override fun onSuccess() {}
+        override fun onFailure(e: Throwable) {
+            throw AssertionError("Sending failed", e)
+        }
+    }
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue("Run with -PlanBenchmark", System.getProperty("lanBenchmark") != null)
+
+        context = ApplicationProvider.getApplicationContext<Application>()
+        DeviceHelper.initializeDeviceId(context)
+        RsaHelper.initialiseRsaKeys(context)
+        SslHelper.initialiseCertificate(context)
+
+        // Both ends are this same device, which has to trust itself for the TLS handshake
+        val deviceInfo = DeviceInfo(DeviceHelper.getDeviceId(context), SslHelper.certificate, "Benchmark", DeviceType.DESKTOP, DeviceHelper.PROTOCOL_VERSION)
+        deviceInfo.saveInSettings(context)
+        TrustedDevices.addTrustedDevice(context, deviceInfo.id)
+
+        val linkProvider = mockk<BaseLinkProvider>(relaxed = true)
+        ServerSocket(0, 1, InetAddress.getLoopbackAddress()).use { server ->
+            val client = Socket(InetAddress.getLoopbackAddress(), server.localPort)
+            val accepted = server.accept()
+            receiver = LanLink(context, deviceInfo, linkProvider, SslHelper.convertToSslSocket(context, accepted, deviceInfo.id, true, false))
+            sender = LanLink(context, deviceInfo, linkProvider, SslHelper.convertToSslSocket(context, client, deviceInfo.id, true, true))
+        }
+        receiver.addPacketReceiver(BaseLink.PacketReceiver { np -> onReceived(np) })
+    }
+
+    @After
+    fun tearDown() {
+        if (::sender.isInitialized) {
+            sender.disconnect()
+            receiver.disconnect()
+        }
+    }
+
+    @Test
+    fun packetFlood() {
+        val count = intProperty("lanBenchmark.packets", 20_000)
+        val packetSize = intProperty("lanBenchmark.packetSize", 256)
+
+        flood(count / 10, packetSize) // Warm up the JIT and the TLS session
+
+        val allocatedBefore = allocatedBytes()
+        val (elapsedNanos, latency) = flood(count, packetSize)
+        val allocated = allocatedBytes() - allocatedBefore
+
+        val seconds = elapsedNanos / 1e9
+        println("LanLink over loopback TLS, $count packets of $packetSize bytes:")
+        println("  %.0f packets/s, %.2f MB/s".format(count / seconds, count.toLong() * packetSize / seconds / 1e6))
+        println("  latency p50 %.3fms, p99 %.3fms, max %.3fms".format(latency.percentileMillis(0.5), latency.percentileMillis(0.99), latency.maxMillis()))
+        println("  about %.1f KiB allocated per packet".format(allocated / 1024.0 / count))
+    }
+
+    @Test
+    fun payloadTransfer() {
+        val count = intProperty("lanBenchmark.payloads", 5)
+        val payloadSize = intProperty("lanBenchmark.payloadSize", 32 * 1024 * 1024).toLong()
+
+        transfer(payloadSize) // Warm up
+
+        val allocatedBefore = allocatedBytes()
+        val durations = LatencyHistogram()
+        var totalNanos = 0L
+        repeat(count) {
+            val nanos = transfer(payloadSize)
+            durations.recordNanos(nanos)
+            totalNanos += nanos
+        }
+        val allocated = allocatedBytes() - allocatedBefore
+
+        println("LanLink over loopback TLS, $count payloads of ${payloadSize / 1024 / 1024} MiB:")
+        println("  %.1f MB/s".format(count * payloadSize / (totalNanos / 1e9) / 1e6))
+        println("  time per payload p50 %.1fms, p99 %.1fms".format(durations.percentileMillis(0.5), durations.percentileMillis(0.99)))
+        println("  about %.1f KiB allocated per payload".format(allocated / 1024.0 / count))
+    }
+
+    /**
+     * Sends count packets as fast as sendPacket takes them, and returns how long it took until the last one
+     * was received and the latency of each one
+     */
+    private fun flood(count: Int, packetSize: Int): Pair<Long, LatencyHistogram> {
+        val latency = LatencyHistogram()
+        val received = CountDownLatch(count)
+        onReceived = { np ->
+            latency.recordNanos(System.nanoTime() - np.getLong("sentAt"))
+            received.countDown()
+        }
+        val filler = "x".repeat(packetSize)
+        val started = System.nanoTime()
+        repeat(count) {
+            val np = NetworkPacket(PACKET_TYPE)
+            np["filler"] = filler
+            np["sentAt"] = System.nanoTime()
+            Assert.assertTrue(sender.sendPacket(np, callback, false))
+        }
+        Assert.assertTrue("Not all the packets arrived", received.await(5, TimeUnit.MINUTES))
+        return Pair(System.nanoTime() - started, latency)
+    }
+
+    /**
+     * Sends a payload and returns how long it took until the receiver read all of it
+     */
+    private fun transfer(payloadSize: Long): Long {
+        val done = Semaphore(0)
+        var bytesRead = 0L
+        onReceived = { np ->
+            val payload = np.payload!!
+            val buffer = ByteArray(64 * 1024)
+            while (true) {
+                val count = payload.inputStream!!.read(buffer)
+                if (count == -1) break
+                bytesRead += count
+            }
+            payload.close()
+            done.release()
+        }
+        val np = NetworkPacket(PACKET_TYPE)
+        np.payload = NetworkPacket.Payload(ZeroInputStream(payloadSize), payloadSize)
+        val started = System.nanoTime()
+        Assert.assertTrue(sender.sendPacket(np, callback, false))
+        Assert.assertTrue("The payload didn't arrive", done.tryAcquire(5, TimeUnit.MINUTES))
+        Assert.assertEquals(payloadSize, bytesRead)
+        return System.nanoTime() - started
+    }
+
+    /**
+     * Bytes allocated so far by the threads that are alive, so threads that end in between aren't counted
+     */
+    private fun allocatedBytes(): Long {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        return threads.getThreadAllocatedBytes(threads.allThreadIds).filter { it > 0 }.sum()
+    }
+
+    private fun intProperty(name: String, default: Int): Int =
+        System.getProperty(name)?.toIntOrNull() ?: default
+
+    /**
+     * Generates the payload instead of keeping it in memory, so it doesn't count as an allocation
+     */
+    private class ZeroInputStream(private var remaining: Long) : InputStream() {
+        override fun read(): Int = if (remaining-- > 0) 0 else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (remaining <= 0) return -1
+            val count = minOf(len.toLong(), remaining).toInt()
+            b.fill(0, off, off + count)
+            remaining -= count
+            return count
+        }
+    }
+
+    companion object {
+        private const val PACKET_TYPE = "kdeconnect.benchmark"
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import org.junit.Assert
+import org.junit.Test
+import org.kde.kdeconnect.MockSharedPreference
+import java.net.InetAddress
+
+class LastKnownAddressesTest {
+    private val network = "subnet:192.168.1.0/24"
+    private val deviceId = "27456e3c_fe5c_4208_96a7_c0caeec5e5a0"
+    private val endpoint1 = LastKnownAddresses.Endpoint(InetAddress.getByName("192.168.1.10"), 1716)
+    private val endpoint2 = LastKnownAddresses.Endpoint(InetAddress.getByName("192.168.1.11"), 1717)
+
+    private var now = 1_000_000L
+    private val addresses = LastKnownAddresses(MockSharedPreference()) { now }
+
+    @Test
+    fun mostRecentSuccessFirst() {
+        addresses.recordSuccess(network, deviceId, endpoint1)
+        now += 1000
+        addresses.recordSuccess(network, deviceId, endpoint2)
+        Assert.assertEquals(listOf(endpoint2, endpoint1), addresses.getEndpointsToTry(network, deviceId))
+        Assert.assertTrue(addresses.getEndpointsToTry("ssid:other", deviceId).isEmpty())
+    }
+
+    @Test
+    fun failureBacksOff() {
+        addresses.recordSuccess(network, deviceId, endpoint1)
+        addresses.recordFailure(network, deviceId, endpoint1)
+        Assert.assertTrue(addresses.getEndpointsToTry(network, deviceId).isEmpty())
+        now += 60_000
+        Assert.assertEquals(listOf(endpoint1), addresses.getEndpointsToTry(network, deviceId))
+    }
+
+    @Test
+    fun forgottenAfterRepeatedFailures() {
+        addresses.recordSuccess(network, deviceId, endpoint1)
+        repeat(5) { addresses.recordFailure(network, deviceId, endpoint1) }
+        now += 24 * 60 * 60 * 1000L
+        Assert.assertTrue(addresses.getEndpointsToTry(network, deviceId).isEmpty())
+    }
+
+    @Test
+    fun expires() {
+        addresses.recordSuccess(network, deviceId, endpoint1)
+        now += 15L * 24 * 60 * 60 * 1000
+        Assert.assertTrue(addresses.getEndpointsToTry(network, deviceId).isEmpty())
+    }
+
+    @Test
+    fun forgetDevice() {
+        val otherDeviceId = "5d7c0d4b_0fcb_4b6a_9d1a_3f2b2a9e1c77"
+        addresses.recordSuccess(network, deviceId, endpoint1)
+        addresses.recordSuccess("ssid:other", deviceId, endpoint2)
+        addresses.recordSuccess(network, otherDeviceId, endpoint2)
+        addresses.forgetDevice(deviceId)
+        Assert.assertTrue(addresses.getEndpointsToTry(network, deviceId).isEmpty())
+        Assert.assertTrue(addresses.getEndpointsToTry("ssid:other", deviceId).isEmpty())
+        Assert.assertEquals(listOf(endpoint2), addresses.getEndpointsToTry(network, otherDeviceId))
+    }
+
+    @Test
+    fun maskAddress() {
+        Assert.assertEquals(InetAddress.getByName("192.168.1.0"), LastKnownAddresses.maskAddress(InetAddress.getByName("192.168.1.42"), 24))
+        Assert.assertEquals(InetAddress.getByName("10.0.0.0"), LastKnownAddresses.maskAddress(InetAddress.getByName("10.1.2.3"), 12))
+        Assert.assertEquals(InetAddress.getByName("fd00::"), LastKnownAddresses.maskAddress(InetAddress.getByName("fd00::1234"), 64))
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import android.app.Application
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.DeviceInfo
+import org.kde.kdeconnect.DeviceType
+import org.kde.kdeconnect.NetworkPacket
+import org.kde.kdeconnect.helpers.DeviceHelper
+import org.kde.kdeconnect.helpers.ReceivedLine
+import org.kde.kdeconnect.helpers.TrustedDevices
+import org.kde.kdeconnect.helpers.security.RsaHelper
+import org.kde.kdeconnect.helpers.security.SslHelper
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Connects NioConnections over localhost with the same TLS setup we use with real devices
+ */
+@RunWith(AndroidJUnit4::class)
+class NioConnectionTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var context: Context
+    private lateinit var deviceId: String
+    private lateinit var engine: NioLanEngine
+    private lateinit var clientListener: RecordingListener
+    private lateinit var serverListener: RecordingListener
+
+    private class RecordingListener : NioConnection.Listener {
+        val handshakeCompleted = CountDownLatch(1)
+        val packets = LinkedBlockingQueue<NetworkPacket>()
+        val closed = CountDownLatch(1)
+        @Volatile
+        var closeCause: Exception? = null
+
+        override fun onHandshakeCompleted(connection: NioConnection) = handshakeCompleted.countDown()
+
+        override fun onLineReceived(connection: NioConnection, line: ReceivedLine) {
+            packets.add(line.toPacket())
+        }
+
+        override fun onClosed(connection: NioConnection, cause: Exception?) {
+            closeCause = cause
+            closed.countDown()
+        }
+
+        fun nextPacket(): NetworkPacket = packets.poll(10, TimeUnit.SECONDS) ?: throw AssertionError("No packet received")
+    }
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext<Application>()
+        DeviceHelper.initializeDeviceId(context)
+        RsaHelper.initialiseRsaKeys(context)
+        SslHelper.initialiseCertificate(context)
+
+        // Both ends are this same device, which has to trust itself for the TLS handshake
+        deviceId = DeviceHelper.getDeviceId(context)
+        DeviceInfo(deviceId, SslHelper.certificate, "Test", DeviceType.DESKTOP, DeviceHelper.PROTOCOL_VERSION).saveInSettings(context)
+        TrustedDevices.addTrustedDevice(context, deviceId)
+
+        engine = NioLanEngine(folder.newFolder("spill"))
+    }
+
+    private fun packet(index: Int, bodySize: Int = 10) = NetworkPacket("kdeconnect.test").apply {
+        this["index"] = index
+        this["body"] = "x".repeat(bodySize)
+    }
+
+    private fun connectedPair(): Pair<NioConnection, NioConnection> {
+        val (client, server) = ServerSocketChannel.open().use { serverChannel ->
+            serverChannel.bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+            val client = SocketChannel.open(serverChannel.localAddress)
+            Pair(client, serverChannel.accept())
+        }
+        clientListener = RecordingListener()
+        serverListener = RecordingListener()
+        val clientConnection = engine.register(client, SslHelper.createSslEngine(context, deviceId, true, true, "127.0.0.1", 0), clientListener)
+        val serverConnection = engine.register(server, SslHelper.createSslEngine(context, deviceId, true, false, "127.0.0.1", 0), serverListener)
+        Assert.assertTrue(clientListener.handshakeCompleted.await(10, TimeUnit.SECONDS))
+        Assert.assertTrue(serverListener.handshakeCompleted.await(10, TimeUnit.SECONDS))
+        return Pair(clientConnection, serverConnection)
+    }
+
+    @Test
+    fun linesAreFramedRegardlessOfHowTheyAreSent() {
+        val (client, server) = connectedPair()
+
+        client.send(packet(0).serialize().toByteArray())
+        // Two packets in one write, and one packet split across two
+        client.send((packet(1).serialize() + packet(2).serialize()).toByteArray())
+        val third = packet(3).serialize().toByteArray()
+        client.send(third.copyOfRange(0, 7))
+        client.send(third.copyOfRange(7, third.size))
+        // And the other way around
+        server.send(packet(4).serialize().toByteArray())
+
+        Assert.assertEquals(listOf(0, 1, 2, 3), List(4) { serverListener.nextPacket().getInt("index") })
+        Assert.assertEquals(4, clientListener.nextPacket().getInt("index"))
+    }
+
+    @Test
+    fun packetsBiggerThanTheSocketBuffersArriveWhole() {
+        val (client, _) = connectedPair()
+        // Several MB can't be written at once, so this goes through partial writes and waiting for OP_WRITE
+        val bodySize = 3 * 1024 * 1024
+        repeat(3) { client.send(packet(it, bodySize).serialize().toByteArray()) }
+        repeat(3) {
+            val received = serverListener.nextPacket()
+            Assert.assertEquals(it, received.getInt("index"))
+            Assert.assertEquals(bodySize, received.getString("body").length)
+        }
+    }
+
+    @Test
+    fun closingOneEndClosesTheOther() {
+        val (client, server) = connectedPair()
+        client.close()
+        Assert.assertTrue(clientListener.closed.await(10, TimeUnit.SECONDS))
+        Assert.assertNull(clientListener.closeCause)
+        Assert.assertTrue(serverListener.closed.await(10, TimeUnit.SECONDS))
+        Assert.assertNotNull(serverListener.closeCause)
+        Assert.assertTrue(client.isClosed && server.isClosed)
+        try {
+            client.send(packet(0).serialize().toByteArray())
+            Assert.fail("Sending over a closed connection should fail")
+        } catch (_: IOException) {
+        }
+
+        // The selector thread stops once there are no connections left, and starts again for the next one
+        Thread.sleep(2500)
+        val (newClient, _) = connectedPair()
+        newClient.send(packet(5).serialize().toByteArray())
+        Assert.assertEquals(5, serverListener.nextPacket().getInt("index"))
+    }
+
+    @Test
+    fun closeAndTakeUnsentReturnsWhatTheOtherEndDidNotGet() {
+        // The other end is a blocking socket that doesn't read until we say so, so the buffers fill up
+        val (channel, peerSocket) = ServerSocketChannel.open().use { serverChannel ->
+            serverChannel.bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+            val client = Socket(InetAddress.getLoopbackAddress(), serverChannel.socket().localPort)
+            Pair(serverChannel.accept(), client)
+        }
+        val listener = RecordingListener()
+        val connection = engine.register(channel, SslHelper.createSslEngine(context, deviceId, true, false, "127.0.0.1", 0), listener)
+        val peer = SslHelper.convertToSslSocket(context, peerSocket, deviceId, true, true)
+        peer.startHandshake()
+        Assert.assertTrue(listener.handshakeCompleted.await(10, TimeUnit.SECONDS))
+
+        val count = 80
+        repeat(count) { connection.send(packet(it, 256 * 1024).serialize().toByteArray()) }
+        Thread.sleep(500) // Let some of them be written
+        val unsent = connection.closeAndTakeUnsent().map { NetworkPacket.unserialize(String(it)).getInt("index") }
+
+        // Everything the peer can still read, up to the last complete line
+        val received = ByteArrayOutputStream()
+        try {
+            peer.inputStream.copyTo(received)
+        } catch (_: IOException) {
+            // We don't send close_notify after a handover, the TCP connection just ends
+        }
+        val text = received.toString(Charsets.UTF_8.name())
+        val delivered = text.substring(0, text.lastIndexOf('\n') + 1).lines().filter { it.isNotEmpty() }
+            .map { NetworkPacket.unserialize(it).getInt("index") }
+
+        // Each packet either reached the peer or is handed over, never both and never neither
+        Assert.assertTrue("Expected some packets to be left unsent", unsent.isNotEmpty())
+        Assert.assertEquals((0 until count).toList(), delivered + unsent)
+        Assert.assertTrue(listener.closed.await(10, TimeUnit.SECONDS))
+    }
+}
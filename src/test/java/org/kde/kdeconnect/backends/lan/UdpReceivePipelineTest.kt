@@ -0,0 +1,87 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.lan
+
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class UdpReceivePipelineTest {
+    private var now = 1_000_000L
+    private val received = LinkedBlockingQueue<String>()
+    private val pipeline = UdpReceivePipeline({ _, message -> received.add(message) }) { now }
+
+    private val socket = DatagramSocket(0, InetAddress.getLoopbackAddress())
+    private val sender = DatagramSocket()
+
+    @After
+    fun tearDown() {
+        pipeline.stop()
+        socket.close()
+        sender.close()
+    }
+
+    // Sends message to the socket and has the pipeline receive it
+    private fun receive(message: String) {
+        val data = message.toByteArray()
+        sender.send(DatagramPacket(data, data.size, socket.localSocketAddress))
+        pipeline.receive(socket)
+    }
+
+    private fun nextMessage(): String? = received.poll(5, TimeUnit.SECONDS)
+
+    @Test
+    fun repeatedDatagramsAreDroppedForOneSecond() {
+        pipeline.start()
+        receive("identity")
+        now += 500
+        receive("identity")
+        now += 1500
+        receive("identity")
+        receive("other")
+
+        Assert.assertEquals("identity", nextMessage())
+        Assert.assertEquals("identity", nextMessage())
+        Assert.assertEquals("other", nextMessage())
+        Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    fun datagramsAreDroppedWhenEveryBufferIsPending() {
+        // Without a consumer nothing is processed, so the buffers fill up
+        repeat(6) { receive("identity $it") }
+        pipeline.start()
+
+        Assert.assertEquals((0 until 4).map { "identity $it" }, List(4) { nextMessage() })
+        Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS))
+
+        // The buffers are reused once processed
+        receive("identity 6")
+        Assert.assertEquals("identity 6", nextMessage())
+    }
+
+    @Test
+    fun consumerStopsEvenIfStartedAgainRightAway() {
+        pipeline.start()
+        pipeline.stop()
+        receive("identity 0")
+        // The consumer we stopped could still be waiting for a datagram, but mustn't take this one
+        Assert.assertNull(received.poll(1500, TimeUnit.MILLISECONDS))
+
+        pipeline.start()
+        pipeline.stop()
+        pipeline.start()
+        receive("identity 1")
+        Assert.assertEquals("identity 0", nextMessage())
+        Assert.assertEquals("identity 1", nextMessage())
+        Assert.assertNull(received.poll(500, TimeUnit.MILLISECONDS))
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.backends.loopback
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import org.kde.kdeconnect.Device
+import org.kde.kdeconnect.DeviceInfo
+import org.kde.kdeconnect.NetworkPacket
+import org.kde.kdeconnect.PacketCapture
+import org.kde.kdeconnect.backends.BaseLink
+import org.kde.kdeconnect.helpers.TrustedDevices
+import java.io.InputStream
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+/**
+ * Feeds the packets we received in a capture recorded with [PacketCapture] back into the plugins, through a
+ * [LoopbackLink] that pretends to be the captured device, so the cost of handling them can be profiled
+ * offline and the same way every time.
+ *
+ * Packets are delivered with the same spacing they were received with, divided by the speed passed
+ * (Double.POSITIVE_INFINITY delivers them as fast as possible). Payloads weren't captured, so they are
+ * replaced by zeros of the same size.
+ */
+class PacketReplay(private val context: Context, private val capture: PacketCapture.Capture) {
+
+    /**
+     * @param elapsedNanos how long the replay took
+     * @param maxLateNanos how far behind the original timing the slowest packet was delivered
+     */
+    data class Result(val packets: Int, val elapsedNanos: Long, val maxLateNanos: Long)
+
+    /**
+     * Delivers the captured packets to whatever is listening to link, from this thread
+     */
+    @WorkerThread
+    fun replay(link: BaseLink, speed: Double = 1.0): Result {
+        require(speed > 0) { "The speed must be positive" }
+        val incoming = capture.packets.filter { it.incoming }
+        if (incoming.isEmpty()) {
+            return Result(0, 0, 0)
+        }
+        val firstOffsetNanos = incoming.first().offsetNanos
+        var maxLateNanos = 0L
+        val started = System.nanoTime()
+        for (captured in incoming) {
+            val dueNanos = started + ((captured.offsetNanos - firstOffsetNanos) / speed).toLong()
+            val waitNanos = dueNanos - System.nanoTime()
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos)
+            } else {
+                maxLateNanos = maxOf(maxLateNanos, -waitNanos)
+            }
+            val np = captured.toPacket()
+            if (np.hasPayload()) {
+                np.payload = NetworkPacket.Payload(ZeroInputStream(np.payloadSize), np.payloadSize)
+            }
+            link.packetReceived(np)
+        }
+        return Result(incoming.size, System.nanoTime() - started, maxLateNanos)
+    }
+
+    /**
+     * Replays the capture into a new paired [Device] with the capabilities of the captured one, so the same
+     * plugins are loaded, and waits until they have handled every packet. The device gets a new id, so it
+     * has the default plugin settings and doesn't mix with the real one, and it's forgotten afterwards.
+     */
+    @WorkerThread
+    fun replayIntoNewDevice(speed: Double = 1.0): Result {
+        val captured = capture.deviceInfo
+        val deviceInfo = DeviceInfo(UUID.randomUUID().toString().replace('-', '_'), captured.certificate, captured.name,
+            captured.type, captured.protocolVersion, captured.incomingCapabilities, captured.outgoingCapabilities)
+        deviceInfo.saveInSettings(context)
+        TrustedDevices.addTrustedDevice(context, deviceInfo.id)
+        val link = LoopbackLink(context, LoopbackLinkProvider(context), deviceInfo)
+        val device = Device(context, deviceInfo.id)
+        try {
+            device.addLink(link)
+            val started = System.nanoTime()
+            val result = replay(link, speed)
+            device.awaitPluginMailboxes(TimeUnit.MINUTES.toMillis(1))
+            return result.copy(elapsedNanos = System.nanoTime() - started)
+        } finally {
+            device.removeLink(link)
+            TrustedDevices.removeTrustedDevice(context, deviceInfo.id)
+        }
+    }
+
+    private class ZeroInputStream(private var remaining: Long) : InputStream() {
+        override fun read(): Int = if (remaining-- > 0) 0 else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (remaining <= 0) return -1
+            val count = minOf(len.toLong(), remaining).toInt()
+            b.fill(0, off, off + count)
+            remaining -= count
+            return count
+        }
+    }
+}
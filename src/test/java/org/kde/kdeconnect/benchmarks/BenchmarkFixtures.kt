@@ -0,0 +1,87 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks
+
+import android.bluetooth.BluetoothSocket
+import android.content.Context
+import android.telephony.TelephonyManager
+import io.mockk.every
+import io.mockk.mockk
+import org.kde.kdeconnect.NetworkPacket
+import org.kde.kdeconnect.helpers.SMSHelper
+import org.kde.kdeconnect.plugins.sms.SMSPlugin
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Data for the benchmarks, written in Kotlin so they can reach what's internal to the app
+ */
+object BenchmarkFixtures {
+
+    /**
+     * Packets shaped like the ones we send the most, from a few bytes to a big SMS sync
+     */
+    @JvmStatic
+    fun packet(shape: String): NetworkPacket = when (shape) {
+        "ping" -> NetworkPacket("kdeconnect.ping")
+        "mousepad" -> NetworkPacket("kdeconnect.mousepad.request").apply {
+            this["dx"] = 12.5
+            this["dy"] = -3.0
+        }
+        "battery" -> NetworkPacket("kdeconnect.battery").apply {
+            this["currentCharge"] = 87
+            this["isCharging"] = true
+            this["thresholdEvent"] = 0
+        }
+        "notification" -> NetworkPacket("kdeconnect.notification").apply {
+            this["id"] = "0|org.kde.kdeconnect_tp|42|null|10123"
+            this["appName"] = "Messages"
+            this["title"] = "Alice"
+            this["text"] = "Are we still meeting at 7? I booked a table at the place next to the station."
+            this["ticker"] = "Alice: Are we still meeting at 7?"
+            this["isClearable"] = true
+            this["time"] = "1760000000000"
+            this["silent"] = "false"
+        }
+        "sms" -> constructBulkMessagePacket(smsMessages(100))
+        else -> throw IllegalArgumentException("Unknown packet shape $shape")
+    }
+
+    @JvmStatic
+    fun smsMessages(count: Int): List<SMSHelper.Message> {
+        val context = mockk<Context>(relaxed = true)
+        every { context.getSystemService(Context.TELEPHONY_SERVICE) } returns mockk<TelephonyManager>(relaxed = true)
+        val addresses = listOf(SMSHelper.Address(context, "+34600000000"))
+        return (0 until count).map { i ->
+            SMSHelper.Message(
+                addresses,
+                "Message number $i of the conversation, long enough to look like a real one.",
+                1760000000000L + i * 60_000L,
+                if (i % 2 == 0) 1 else 2,
+                1,
+                SMSHelper.ThreadID(7),
+                i.toLong(),
+                1,
+                1,
+                null,
+            )
+        }
+    }
+
+    @JvmStatic
+    fun constructBulkMessagePacket(messages: List<SMSHelper.Message>): NetworkPacket =
+        SMSPlugin.constructBulkMessagePacket(messages)
+
+    /**
+     * A connected socket that reads from input and writes to output
+     */
+    @JvmStatic
+    fun bluetoothSocket(input: InputStream, output: OutputStream): BluetoothSocket = mockk(relaxed = true) {
+        every { inputStream } returns input
+        every { outputStream } returns output
+        every { isConnected } returns true
+    }
+}
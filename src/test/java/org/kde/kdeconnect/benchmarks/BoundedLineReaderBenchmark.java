@@ -0,0 +1,56 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks;
+
+import org.kde.kdeconnect.helpers.BoundedLineReaderKt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedLineReaderBenchmark {
+
+    // The same limit LanLinkProvider uses for identity packets
+    private static final int MAX_LINE_SIZE = 512 * 1024;
+
+    /**
+     * An identity packet is about 600 bytes
+     */
+    @Param({"600", "65536"})
+    public int lineLength;
+
+    private byte[] line;
+
+    @Setup
+    public void setUp() {
+        line = new byte[lineLength];
+        Arrays.fill(line, (byte) 'a');
+        line[lineLength - 1] = '\n';
+    }
+
+    @Benchmark
+    public String readLineBounded() throws IOException {
+        return BoundedLineReaderKt.readLineBounded(new ByteArrayInputStream(line), MAX_LINE_SIZE);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks;
+
+import org.kde.kdeconnect.backends.bluetooth.ConnectionMultiplexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends data through the default channel of two multiplexers connected by in-memory pipes, so what's
+ * measured is the framing and flow control and not the Bluetooth socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionMultiplexerBenchmark {
+
+    /**
+     * A small packet and a chunk of a payload
+     */
+    @Param({"512", "65536"})
+    public int messageSize;
+
+    private ConnectionMultiplexer sender;
+    private ConnectionMultiplexer receiver;
+    private OutputStream output;
+    private InputStream input;
+    private byte[] message;
+    private byte[] received;
+    private ExecutorService writer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Pipe senderToReceiver = Pipe.open();
+        Pipe receiverToSender = Pipe.open();
+        sender = new ConnectionMultiplexer(BenchmarkFixtures.bluetoothSocket(
+                Channels.newInputStream(receiverToSender.source()), Channels.newOutputStream(senderToReceiver.sink())));
+        receiver = new ConnectionMultiplexer(BenchmarkFixtures.bluetoothSocket(
+                Channels.newInputStream(senderToReceiver.source()), Channels.newOutputStream(receiverToSender.sink())));
+        output = sender.getDefaultOutputStream();
+        input = receiver.getDefaultInputStream();
+        message = new byte[messageSize];
+        received = new byte[messageSize];
+        writer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.shutdownNow();
+        sender.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public byte[] transfer() throws Exception {
+        // Writes block until the other end asks for more data, so they can't happen in the reading thread
+        Future<?> written = writer.submit(() -> {
+            output.write(message);
+            output.flush();
+            return null;
+        });
+        int read = 0;
+        while (read < messageSize) {
+            int count = input.read(received, read, messageSize - read);
+            if (count == -1) {
+                throw new IOException("Channel closed");
+            }
+            read += count;
+        }
+        written.get();
+        return received;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks;
+
+import org.json.JSONException;
+import org.kde.kdeconnect.NetworkPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkPacketBenchmark {
+
+    @Param({"ping", "mousepad", "battery", "notification", "sms"})
+    public String shape;
+
+    private NetworkPacket packet;
+    private String serialized;
+    private String serializedCompact;
+
+    @Setup
+    public void setUp() throws JSONException {
+        packet = BenchmarkFixtures.packet(shape);
+        serialized = packet.serialize();
+        serializedCompact = packet.serialize(true);
+    }
+
+    @Benchmark
+    public String serialize() throws JSONException {
+        return packet.serialize();
+    }
+
+    /**
+     * The same as serialize() for the packet types without a compact schema
+     */
+    @Benchmark
+    public String serializeCompact() throws JSONException {
+        return packet.serialize(true);
+    }
+
+    @Benchmark
+    public NetworkPacket unserialize() throws JSONException {
+        return NetworkPacket.unserialize(serialized);
+    }
+
+    @Benchmark
+    public NetworkPacket unserializeCompact() throws JSONException {
+        return NetworkPacket.unserialize(serializedCompact);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks;
+
+import org.kde.kdeconnect.plugins.mousepad.PointerAccelerationProfile;
+import org.kde.kdeconnect.plugins.mousepad.PointerAccelerationProfileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What MousePadActivity does for each touch event: feed the delta to the profile and take the result
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointerAccelerationBenchmark {
+
+    @Param({"noacceleration", "medium", "stronger"})
+    public String profileName;
+
+    private PointerAccelerationProfile profile;
+    private final PointerAccelerationProfile.MouseDelta delta = new PointerAccelerationProfile.MouseDelta(0f, 0f);
+    private long eventTime;
+
+    @Setup
+    public void setUp() {
+        profile = PointerAccelerationProfileFactory.getProfileWithName(profileName);
+    }
+
+    @Benchmark
+    public PointerAccelerationProfile.MouseDelta touchMoved() {
+        // Touch events come about every 8ms on a 120Hz screen
+        eventTime += 8;
+        profile.touchMoved(2.5f, -1.5f, eventTime);
+        return profile.commitAcceleratedMouseDelta(delta);
+    }
+}
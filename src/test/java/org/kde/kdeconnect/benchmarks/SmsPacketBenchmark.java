@@ -0,0 +1,56 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.benchmarks;
+
+import org.json.JSONException;
+import org.kde.kdeconnect.NetworkPacket;
+import org.kde.kdeconnect.helpers.SMSHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing the packet SMSPlugin replies with when syncing conversations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmsPacketBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int messageCount;
+
+    private List<SMSHelper.Message> messages;
+
+    @Setup
+    public void setUp() {
+        messages = BenchmarkFixtures.smsMessages(messageCount);
+    }
+
+    @Benchmark
+    public NetworkPacket constructBulkMessagePacket() {
+        return BenchmarkFixtures.constructBulkMessagePacket(messages);
+    }
+
+    @Benchmark
+    public String constructAndSerialize() throws JSONException {
+        return BenchmarkFixtures.constructBulkMessagePacket(messages).serialize();
+    }
+}
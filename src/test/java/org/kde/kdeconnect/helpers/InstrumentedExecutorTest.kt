@@ -0,0 +1,134 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.helpers
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class InstrumentedExecutorTest {
+
+    @Test
+    fun rejectsWhenThreadsAndQueueAreFull() {
+        val executor = InstrumentedExecutor("test", 1, 1)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val finished = CountDownLatch(2)
+        val blockingTask = Runnable {
+            started.countDown()
+            release.await()
+            finished.countDown()
+        }
+
+        assertTrue(executor.tryExecute(blockingTask))
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        assertTrue(executor.tryExecute { finished.countDown() })
+        assertFalse(executor.tryExecute { })
+
+        val busy = executor.getStats()
+        assertEquals(1, busy.activeCount)
+        assertEquals(1, busy.queueDepth)
+        assertEquals(1, busy.rejectedTasks)
+
+        release.countDown()
+        assertTrue(finished.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun executeQueuesInTheOverflowWhenFull() {
+        val executor = InstrumentedExecutor("test", 1, 1)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val finished = CountDownLatch(4)
+
+        executor.execute {
+            started.countDown()
+            release.await()
+            finished.countDown()
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        for (i in 1..3) {
+            executor.execute {
+                order.add(i)
+                finished.countDown()
+            }
+        }
+
+        val busy = executor.getStats()
+        assertEquals(0, busy.rejectedTasks)
+        assertEquals(2, busy.overflowedTasks)
+        assertEquals(3, busy.queueDepth)
+
+        release.countDown()
+        assertTrue(finished.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(1, 2, 3), order.sorted())
+    }
+
+    @Test
+    fun executeStartsAnExtraThreadWhenTasksCantWait() {
+        val executor = InstrumentedExecutor("test", 1, 0)
+        val release = CountDownLatch(1)
+        val bothRunning = CountDownLatch(2)
+        repeat(2) {
+            executor.execute {
+                bothRunning.countDown()
+                release.await()
+            }
+        }
+        // Both run at the same time, even if the pool only has one thread
+        assertTrue(bothRunning.await(5, TimeUnit.SECONDS))
+        assertEquals(1, executor.getStats().overflowedTasks)
+        release.countDown()
+    }
+
+    @Test
+    fun extraThreadsAreCappedAndTheRestWaitInTheOverflow() {
+        val executor = InstrumentedExecutor("test", 1, 0)
+        val release = CountDownLatch(1)
+        val running = CountDownLatch(2)
+        val finished = CountDownLatch(3)
+        repeat(3) {
+            executor.execute {
+                running.countDown()
+                release.await()
+                finished.countDown()
+            }
+        }
+        // One on the pool thread and one on an extra thread, the third waits for one of them
+        assertTrue(running.await(5, TimeUnit.SECONDS))
+        val busy = executor.getStats()
+        assertEquals(2, busy.overflowedTasks)
+        assertEquals(1, busy.queueDepth)
+        assertEquals(0, busy.rejectedTasks)
+
+        release.countDown()
+        assertTrue(finished.await(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun recordsCompletedTasks() {
+        val executor = InstrumentedExecutor("test", 2, 3)
+        val done = CountDownLatch(3)
+        repeat(3) {
+            executor.tryExecute { done.countDown() }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+
+        // The counters are updated right after the task runs, give them a moment
+        val deadline = System.currentTimeMillis() + 5000
+        while (executor.getStats().completedTasks < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        val stats = executor.getStats()
+        assertEquals(3, stats.completedTasks)
+        assertTrue(stats.maxRunMillis >= stats.averageRunMillis)
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * SPDX-FileCopyrightText: 2026 Albert Vaca Cintora <albertvaka@gmail.com>
+ *
+ * SPDX-License-Identifier: GPL-2.0-only OR GPL-3.0-only OR LicenseRef-KDE-Accepted-GPL
+ */
+package org.kde.kdeconnect.helpers
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.kde.kdeconnect.NetworkPacket
+
+@RunWith(AndroidJUnit4::class)
+class SpillingLineBufferTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private fun packet(size: Int): NetworkPacket {
+        val np = NetworkPacket("kdeconnect.test")
+        np["text"] = "x".repeat(size)
+        np["number"] = 42
+        np["big"] = 1L shl 40
+        np["double"] = 1.5
+        np["list"] = listOf("a", "b")
+        return np
+    }
+
+    @Test
+    fun smallLineStaysInMemory() {
+        val buffer = SpillingLineBuffer(tempFolder.root, 1024 * 1024, 1024)
+        val line = buffer.readLine(packet(10).serialize().byteInputStream())
+        Assert.assertTrue(tempFolder.root.list()!!.isEmpty())
+        Assert.assertEquals("x".repeat(10), line.toPacket().getString("text"))
+    }
+
+    @Test
+    fun bigLineIsSpilledAndStreamed() {
+        val buffer = SpillingLineBuffer(tempFolder.root, 1024 * 1024, 1024)
+        val line = buffer.readLine(packet(10_000).serialize().byteInputStream())
+        Assert.assertEquals(1, tempFolder.root.list()!!.size)
+
+        val np = line.toPacket()
+        Assert.assertTrue(tempFolder.root.list()!!.isEmpty())
+        Assert.assertEquals("kdeconnect.test", np.type)
+        Assert.assertEquals("x".repeat(10_000), np.getString("text"))
+        Assert.assertEquals(42, np.getInt("number"))
+        Assert.assertEquals(1L shl 40, np.getLong("big"))
+        Assert.assertEquals(1.5, np.getDouble("double"), 0.0)
+        Assert.assertEquals(listOf("a", "b"), np.getStringList("list"))
+        Assert.assertFalse(np.hasPayload())
+    }
+
+    @Test
+    fun sizeIsTheNumberOfBytesReceived() {
+        val buffer = SpillingLineBuffer(tempFolder.root, 1024 * 1024, 1024)
+        val np = NetworkPacket("kdeconnect.test")
+        np["text"] = "\u00e9\u20ac\ud83d\ude00" // 2, 3 and 4 bytes in UTF-8
+        val bytes = np.serialize().toByteArray(Charsets.UTF_8)
+        Assert.assertEquals(bytes.size.toLong(), buffer.readLine(bytes.inputStream()).size)
+
+        val spilled = SpillingLineBuffer(tempFolder.root, 1024 * 1024, 16).readLine(bytes.inputStream())
+        Assert.assertEquals(bytes.size.toLong(), spilled.size)
+        spilled.discard()
+    }
+
+    @Test(expected = LineTooLongException::class)
+    fun tooLongLineIsDiscarded() {
+        val buffer = SpillingLineBuffer(tempFolder.root, 4096, 1024)
+        try {
+            buffer.readLine(packet(10_000).serialize().byteInputStream())
+        } finally {
+            Assert.assertTrue(tempFolder.root.list()!!.isEmpty())
+        }
+    }
+}
@@ -30,7 +30,7 @@ class BatteryPluginTest {
         context = ApplicationProvider.getApplicationContext<Application>()
         device = mockk {
             val packetSlot = slot<NetworkPacket>()
-            every { sendPacket(capture(packetSlot)) } answers {
+            every { publishState(any(), capture(packetSlot), any()) } answers {
                 packet = packetSlot.captured
             }
             every { onPluginsChanged() } returns Unit
@@ -33,7 +33,7 @@ class ConnectivityReportPluginTest {
 
         device = mockk {
             val packetSlot = slot<NetworkPacket>()
-            every { sendPacket(capture(packetSlot)) } answers {
+            every { publishState(any(), capture(packetSlot), any()) } answers {
                 packet = packetSlot.captured
             }
             every { onPluginsChanged() } returns Unit
@@ -33,6 +33,10 @@ class SystemVolumePluginTest {
                 val sentPacket = arg<NetworkPacket>(0)
                 packet = sentPacket
             }
+            every { publishState(any(), any(), any()) } answers {
+                val sentPacket = arg<NetworkPacket>(1)
+                packet = sentPacket
+            }
         }
         systemVolumePlugin = SystemVolumePlugin().apply {
             setContext(context, device)